@@ -23,17 +23,21 @@ public class Application {
    * The main method is the entry point of the application. It initializes the ImageProcessorImpl
    * class to handle image processing operations. Users can choose between CLI, Batch Scripting, or
    * GUI mode for interacting with the application. args is the command-line arguments array (not
-   * used in this implementation).
+   * used in this implementation). The number of threads used for image operations defaults to the
+   * number of available processors and can be set to a positive number with the ime.parallelism
+   * system property; any other value is reported and the default is used instead. When the
+   * ime.lazy system property is set to true, scripts run with -file compute each image only when
+   * it is saved or used.
    */
   public static void main(String[] args) {
-    ImageProcessor processor = new ImageProcessorImpl();
+    ImageProcessor processor = new ImageProcessorImpl(parallelism());
 
     if (args.length > 0) {
       TextView view = new TextView();
       ImageController controller = new ImageController(view, processor);
 
       if (args[0].equals("-file") && args.length > 1) {
-        runScript(args[1], controller);
+        runScript(args[1], new ImageController(view, processor, Boolean.getBoolean("ime.lazy")));
         return;
       } else if (args[0].equals("-text")) {
         System.out.println(
@@ -168,6 +172,33 @@ public class Application {
     }
   }
 
+  /**
+   * Reads the number of threads for image operations from the ime.parallelism system property. A
+   * value that is not a positive integer is reported, and the number of available processors is
+   * used instead, as it is when the property is not set.
+   *
+   * @return the number of threads to use
+   */
+  private static int parallelism() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    String value = System.getProperty("ime.parallelism");
+    if (value == null) {
+      return processors;
+    }
+    try {
+      int parallelism = Integer.parseInt(value.trim());
+      if (parallelism > 0) {
+        return parallelism;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below with the other invalid values
+    }
+    System.out.println("Invalid ime.parallelism value '" + value
+        + "': it must be a positive integer. Using the number of available processors, "
+        + processors + ".");
+    return processors;
+  }
+
   private static void runScript(String scriptFile, ImageController controller) {
     try (BufferedReader reader = new BufferedReader(new FileReader(scriptFile))) {
       String line;
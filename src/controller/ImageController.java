@@ -1,14 +1,22 @@
 package controller;
 
 import javax.swing.JOptionPane;
+import model.CompressionOptions;
+import model.CompressionResult;
+import model.CompressionTarget;
+import model.ImageComparison;
 import model.Image;
 import model.ImageProcessor;
+import model.LookupTable;
+import model.PointPipeline;
 import view.ImageView;
 import utility.ImageUtil;
+import utility.PVMWHandler;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 import javax.swing.JFileChooser;
 import java.io.File;
 import view.SwingImageView;
@@ -18,23 +26,47 @@ import view.SwingImageView;
  * This class implements the Controller interface and handles the execution of commands for an image
  * processing system. It manages images, processes them using various operations, and interacts with
  * the user through a view.
+ *
+ * <p>In lazy mode, the result of an operation is not computed when the command runs. Its name is
+ * bound to a recipe of the source image, the operation, and its arguments, which is evaluated only
+ * when the image is saved, used as a mask or as the input of a command that needs the pixels, or
+ * displayed in the GUI. Evaluated images are memoized. Intermediate images that a script never
+ * uses are therefore never computed and never held in memory. Arguments are still checked when
+ * the command runs, but errors raised while computing an image are reported when it is evaluated.
+ * A chain of per-pixel operations, such as brighten, levels-adjust, greyscale and sepia, is
+ * evaluated in a single pass over the image.
  */
 public class ImageController implements Controller {
 
-  private Map<String, Image> imageMap;
+  private Map<String, LazyImage> imageMap;
   private ImageView view;
   private ImageProcessor processor;
+  private final boolean lazy;
 
   /**
-   * Constructs an ImageController with the specified view and processor.
+   * Constructs an ImageController with the specified view and processor that computes every
+   * operation as soon as its command runs.
    *
    * @param view      the view to interact with the user
    * @param processor the image processor to handle image operations
    */
   public ImageController(ImageView view, ImageProcessor processor) {
+    this(view, processor, false);
+  }
+
+  /**
+   * Constructs an ImageController with the specified view and processor, optionally deferring each
+   * operation until its result is needed.
+   *
+   * @param view      the view to interact with the user
+   * @param processor the image processor to handle image operations
+   * @param lazy      true to compute images only when they are saved, used, or displayed
+   */
+  public ImageController(ImageView view, ImageProcessor processor, boolean lazy) {
     this.imageMap = new HashMap<>();
     this.view = view;
     this.processor = processor;
+    this.lazy = lazy;
   }
 
   /**
@@ -45,9 +77,9 @@ public class ImageController implements Controller {
   @Override
   public Image getCurrentImage() {
     if (imageMap.containsKey("processedImage")) {
-      return imageMap.get("processedImage");
+      return getImage("processedImage");
     } else if (imageMap.containsKey("loadedImage")) {
-      return imageMap.get("loadedImage");
+      return getImage("loadedImage");
     }
     return null;
   }
@@ -72,6 +104,12 @@ public class ImageController implements Controller {
               String filePath = fileChooser.getSelectedFile().getAbsolutePath();
               loadImage(filePath, tokens.length > 2 ? tokens[2] : "loadedImage");
             }
+          } else if (tokens.length > 3) {
+            if (tokens.length > 4 || !tokens[3].equals("mapped")) {
+              view.displayError("Unknown option for load: " + tokens[tokens.length - 1]);
+              return;
+            }
+            loadImage(tokens[1], tokens[2], true);
           } else {
             loadImage(tokens[1], tokens[2]);
           }
@@ -84,6 +122,12 @@ public class ImageController implements Controller {
               String savePath = saveChooser.getSelectedFile().getAbsolutePath();
               saveImage(savePath, tokens.length > 2 ? tokens[2] : "processedImage");
             }
+          } else if (tokens.length > 3) {
+            if (tokens.length > 4 || !tokens[3].equals("binary")) {
+              view.displayError("Unknown option for save: " + tokens[tokens.length - 1]);
+              return;
+            }
+            saveImage(tokens[1], tokens[2], true);
           } else {
             saveImage(tokens[1], tokens[2]);
           }
@@ -140,17 +184,52 @@ public class ImageController implements Controller {
           break;
 
         case "compress":
-          if (tokens.length != 4) {
+          if (tokens.length < 4 || tokens.length > 7) {
             view.displayError("Invalid number of arguments for compress command.");
             return;
           }
+          if (tokens[1].startsWith("psnr=") || tokens[1].startsWith("size=")) {
+            compressToTarget(tokens);
+            break;
+          }
           try {
             int percentage = Integer.parseInt(tokens[1]);
             if (percentage < 0 || percentage > 100) {
               view.displayError("Compression percentage must be between 0 and 100.");
               return;
             }
-            processImage(tokens[2], tokens[3], "compress", percentage);
+            if (tokens.length == 4) {
+              processImage(tokens[2], tokens[3], "compress", percentage);
+              break;
+            }
+            // Options follow the destination: tiles=<size>, precision=float|double and
+            // coefficients=keep|discard
+            CompressionOptions options = CompressionOptions.defaults();
+            for (int i = 4; i < tokens.length; i++) {
+              if (tokens[i].startsWith("tiles=")) {
+                int tileSize;
+                try {
+                  tileSize = Integer.parseInt(tokens[i].substring("tiles=".length()));
+                } catch (NumberFormatException e) {
+                  view.displayError("Invalid tile size: " + tokens[i]);
+                  return;
+                }
+                if (tileSize < 1) {
+                  view.displayError("Tile size must be at least 1.");
+                  return;
+                }
+                options = options.tiles(tileSize);
+              } else if (tokens[i].equals("precision=float")) {
+                options = options.singlePrecision();
+              } else if (tokens[i].equals("coefficients=keep")) {
+                options = options.keepCoefficients();
+              } else if (!tokens[i].equals("precision=double")
+                  && !tokens[i].equals("coefficients=discard")) {
+                view.displayError("Unknown compress option: " + tokens[i]);
+                return;
+              }
+            }
+            compressImage(tokens[2], tokens[3], percentage, options);
           } catch (NumberFormatException e) {
             view.displayError("Invalid compression percentage: " + tokens[1]);
           }
@@ -230,6 +309,31 @@ public class ImageController implements Controller {
           }
           break;
 
+        case "compare":
+          if (tokens.length != 3) {
+            view.displayError("Usage: compare <reference-image> <image>");
+            return;
+          }
+          compare(tokens[1], tokens[2]);
+          break;
+
+        case "preview":
+          if (tokens.length != 4) {
+            view.displayError("Usage: preview <levels> <source-image> <dest-image>");
+            return;
+          }
+          try {
+            int levels = Integer.parseInt(tokens[1]);
+            if (levels < 0) {
+              view.displayError("Preview levels cannot be negative.");
+              return;
+            }
+            processImage(tokens[2], tokens[3], "preview", levels);
+          } catch (NumberFormatException e) {
+            view.displayError("Invalid preview levels: " + tokens[1]);
+          }
+          break;
+
         case "partial":
           if (tokens.length != 5) {
             view.displayError(
@@ -242,7 +346,7 @@ public class ImageController implements Controller {
           String maskName = tokens[3];
           String destName = tokens[4];
 
-          Image maskImage = imageMap.get(maskName);
+          Image maskImage = getImage(maskName);
           if (maskImage == null) {
             view.displayError("Mask image '" + maskName + "' not found.");
             return;
@@ -254,7 +358,7 @@ public class ImageController implements Controller {
         default:
           view.displayError("Unknown command: " + tokens[0]);
           System.out.println("Please follow the following syntax for operations. \n"
-              + "load <image-path> <image-name>\n"
+              + "load <image-path> <image-name> [mapped]\n"
               + "red-component <image-name> <dest-image-name>\n"
               + "green-component <image-name> <dest-image-name>\n"
               + "blue-component <image-name> <dest-image-name>\n"
@@ -271,11 +375,16 @@ public class ImageController implements Controller {
               + "rgb-split <image-name> <red-image-name> <green-image-name> <blue-image-name> \n"
               + "rgb-combine <dest-image-name> <red-image-name> <green-image-name> "
               + "<blue-image-name> \n"
-              + "compress <compression-ratio> <image-name> <dest-image-name> \n"
+              + "compress <compression-ratio> <image-name> <dest-image-name> [tiles=<size>] "
+              + "[precision=float|double] [coefficients=keep|discard] \n"
+              + "compress psnr=<decibels>|size=<kilobytes> <image-name> <dest-image-name> "
+              + "[precision=float|double] [coefficients=keep|discard] \n"
+              + "preview <levels> <image-name> <dest-image-name> \n"
+              + "compare <reference-image-name> <image-name> \n"
               + "histogram <image-name> <dest-image-name> \n"
               + "color-correct <image-name> <dest-image-name> \n"
               + "levels-adjust <black> <mid> <white> <image-name> <dest-image-name> \n"
-              + "save <image-path> <image-name>");
+              + "save <image-path> <image-name> [binary]");
           break;
       }
     } catch (NumberFormatException e) {
@@ -297,6 +406,20 @@ public class ImageController implements Controller {
    */
   @Override
   public void loadImage(String filePath, String name) throws IOException {
+    loadImage(filePath, name, false);
+  }
+
+  /**
+   * Loads an image from the specified file path and stores it with the given name, optionally
+   * mapping a binary PPM or PGM file into memory instead of reading it. A mapped image is read
+   * only as its pixels are used, so its histogram is not computed on loading.
+   *
+   * @param filePath the path of the image file to load
+   * @param name     the name to assign to the loaded image
+   * @param mapped   true to map binary PPM and PGM files
+   * @throws IOException if an error occurs during the loading process
+   */
+  private void loadImage(String filePath, String name, boolean mapped) throws IOException {
     if (filePath == null || filePath.trim().isEmpty()) {
       view.displayError("File path cannot be empty.");
       return;
@@ -308,10 +431,10 @@ public class ImageController implements Controller {
       return;
     }
 
-    Image image = ImageUtil.readImage(filePath);
+    Image image = ImageUtil.readImage(filePath, mapped);
     if (image != null) {
       // Use a consistent key for the current image
-      imageMap.put(name, image);
+      imageMap.put(name, new LazyImage(image));
       view.displayMessage("Image loaded from " + filePath);
 
       // Display image in the GUI
@@ -321,7 +444,7 @@ public class ImageController implements Controller {
       }
 
       // Update histogram
-      if (processor != null) {
+      if (processor != null && !mapped) {
         int[][] histogram = processor.calculateHistogram(image);
         view.updateHistogram(histogram[0], histogram[1], histogram[2]);
       }
@@ -340,19 +463,31 @@ public class ImageController implements Controller {
    */
   @Override
   public void saveImage(String filePath, String name) throws IOException {
+    saveImage(filePath, name, false);
+  }
+
+  /**
+   * Saves the image with the given name to the specified file path, optionally in the binary
+   * variant of the format the path names, so that a .ppm file is written as binary PPM (P6).
+   *
+   * @param filePath the path where the image should be saved
+   * @param name     the name of the image to save
+   * @param binary   true to write the binary variant of the format
+   */
+  private void saveImage(String filePath, String name, boolean binary) {
     if (filePath == null || filePath.trim().isEmpty()) {
       view.displayError("File path cannot be empty.");
       return;
     }
 
-    // Retrieve the image using the consistent key
-    Image image = imageMap.get(name);
+    // Retrieve the image using the consistent key, computing it if it is still a recipe
+    Image image = getImage(name);
     if (image == null) {
       view.displayError("No image loaded to save.");
       return;
     }
 
-    boolean success = ImageUtil.writeImage(image, filePath);
+    boolean success = ImageUtil.writeImage(image, filePath, binary);
     if (success) {
       view.displayMessage("Image saved to " + filePath);
     } else {
@@ -375,15 +510,16 @@ public class ImageController implements Controller {
   public void processImage(String inputName, String outputName, String operation, int... values)
       throws IOException {
     // Fetch the input image from the map
-    Image inputImage = imageMap.get(inputName);
+    LazyImage input = imageMap.get(inputName);
 
-    if (inputImage == null) {
+    if (input == null) {
       view.displayError("Image '" + inputName + "' not found.");
       return;
     }
 
     // Variables for processing
-    Image outputImage;
+    UnaryOperator<Image> step;
+    PointPipeline pipeline = null;
     int splitPercentage = -1;
 
     // Handle operations with additional values
@@ -404,70 +540,99 @@ public class ImageController implements Controller {
       values = Arrays.copyOf(values, values.length - 1);
     }
 
-    // Perform the specified operation
+    // Choose the specified operation, reading its arguments now so that errors in them are
+    // reported by this command even in lazy mode
     switch (operation) {
       case "horizontal-flip":
-        outputImage = processor.flipHorizontal(inputImage);
+        step = processor::flipHorizontal;
         break;
       case "vertical-flip":
-        outputImage = processor.flipVertical(inputImage);
+        step = processor::flipVertical;
         break;
-      case "brighten":
-        outputImage = processor.brightness(inputImage, values[0]);
+      case "brighten": {
+        int increment = values[0];
+        step = image -> processor.brightness(image, increment);
+        pipeline = PointPipeline.empty().brightness(increment);
         break;
-      case "darken":
-        outputImage = processor.darkness(inputImage, values[0]);
+      }
+      case "darken": {
+        int decrement = values[0];
+        step = image -> processor.darkness(image, decrement);
+        pipeline = PointPipeline.empty().brightness(-Math.abs(decrement));
         break;
+      }
       case "red-component":
-        outputImage = processor.visualizeRedComponent(inputImage);
+        step = processor::visualizeRedComponent;
+        pipeline = PointPipeline.empty().redComponent();
         break;
       case "green-component":
-        outputImage = processor.visualizeGreenComponent(inputImage);
+        step = processor::visualizeGreenComponent;
+        pipeline = PointPipeline.empty().greenComponent();
         break;
       case "blue-component":
-        outputImage = processor.visualizeBlueComponent(inputImage);
+        step = processor::visualizeBlueComponent;
+        pipeline = PointPipeline.empty().blueComponent();
         break;
       case "value-component":
-        outputImage = processor.visualizeValue(inputImage);
+        step = processor::visualizeValue;
+        pipeline = PointPipeline.empty().value();
         break;
       case "intensity-component":
-        outputImage = processor.visualizeIntensity(inputImage);
+        step = processor::visualizeIntensity;
+        pipeline = PointPipeline.empty().intensity();
         break;
       case "luma-component":
-        outputImage = processor.visualizeLuma(inputImage);
+        step = processor::visualizeLuma;
+        pipeline = PointPipeline.empty().luma();
         break;
-      case "compress":
-        outputImage = processor.compress(inputImage, values[0]);
+      case "compress": {
+        int percentage = values[0];
+        step = image -> processor.compress(image, percentage);
         break;
+      }
       case "histogram":
-        outputImage = processor.generateHistogram(inputImage);
+        step = processor::generateHistogram;
         break;
       case "blur":
-        outputImage = processor.blur(inputImage);
+        step = processor::blur;
         break;
       case "sharpen":
-        outputImage = processor.sharpen(inputImage);
+        step = processor::sharpen;
         break;
       case "sepia":
-        outputImage = processor.toSepia(inputImage);
+        step = processor::toSepia;
+        pipeline = PointPipeline.empty().sepia();
         break;
       case "greyscale":
-        outputImage = processor.toGreyscale(inputImage);
+        step = processor::toGreyscale;
+        pipeline = PointPipeline.empty().greyscale();
         break;
       case "color-correct":
-        outputImage = processor.colorCorrect(inputImage);
+        step = processor::colorCorrect;
         break;
-      case "levels-adjust":
-        outputImage = processor.levelsAdjust(inputImage, values[0], values[1], values[2]);
+      case "levels-adjust": {
+        int black = values[0];
+        int mid = values[1];
+        int white = values[2];
+        step = image -> processor.levelsAdjust(image, black, mid, white);
+        pipeline = PointPipeline.empty().lookup(LookupTable.levels(black, mid, white));
         break;
+      }
       case "downscale":
         if (values.length == 2) {
-          outputImage = processor.downscaleImage(inputImage, values[0], values[1]);
+          int targetWidth = values[0];
+          int targetHeight = values[1];
+          step = image -> processor.downscaleImage(image, targetWidth, targetHeight);
         } else {
           view.displayError("Invalid arguments for downscale operation.");
           return;
         }
         break;
+      case "preview": {
+        int levels = values[0];
+        step = image -> processor.preview(image, levels);
+        break;
+      }
       default:
         view.displayError("Invalid operation: " + operation);
         return;
@@ -475,15 +640,61 @@ public class ImageController implements Controller {
 
     // Apply split view if applicable
     if (splitPercentage >= 0 && splitPercentage <= 100) {
-      outputImage = processor.applySplitView(inputImage, outputImage, splitPercentage);
+      UnaryOperator<Image> operationStep = step;
+      int split = splitPercentage;
+      step = image -> processor.applySplitView(image, operationStep.apply(image), split);
+      pipeline = null;
+    }
+
+    storeResult(input, outputName, operation, step, pipeline);
+  }
+
+  /**
+   * Compresses an image with the given options, creating a new image with the given output name.
+   *
+   * @param inputName  the name of the input image
+   * @param outputName the name of the output image
+   * @param percentage the percentage of wavelet coefficients to discard, from 0 to 100
+   * @param options    the tile size and precision of the compression
+   */
+  private void compressImage(String inputName, String outputName, int percentage,
+      CompressionOptions options) {
+    LazyImage input = imageMap.get(inputName);
+    if (input == null) {
+      view.displayError("Image '" + inputName + "' not found.");
+      return;
     }
+    storeResult(input, outputName, "compress",
+        image -> processor.compress(image, percentage, options), null);
+  }
 
-    // Update imageMap for CLI
-    imageMap.put(outputName, outputImage);
+  /**
+   * Stores the result of an operation under the given name, as a recipe in lazy mode, shows it in
+   * the GUI, and reports it.
+   *
+   * @param input      the input image
+   * @param outputName the name of the output image
+   * @param operation  the name of the operation, for the report
+   * @param step       the computation of the output image from the input image
+   * @param pipeline   the same computation as a pipeline for a per-pixel operation, or null
+   */
+  private void storeResult(LazyImage input, String outputName, String operation,
+      UnaryOperator<Image> step, PointPipeline pipeline) {
+    // Update imageMap for CLI, with a recipe in lazy mode that per-pixel recipes can be fused with
+    LazyImage output;
+    if (!lazy) {
+      output = new LazyImage(step.apply(input.get()));
+    } else if (pipeline != null) {
+      output = new LazyImage(input, step, pipeline, processor);
+    } else {
+      output = new LazyImage(input, step);
+    }
+    imageMap.put(outputName, output);
 
     // Update GUI-specific data (if applicable)
     if (view instanceof SwingImageView) {
-      imageMap.put("currentImage", outputImage); // Update for GUI operations
+      Image outputImage = output.get();
+      imageMap.put("currentImage", output); // Update for GUI operations
       ((SwingImageView) view).setImage(outputImage);
       int[][] histogram = processor.calculateHistogram(outputImage);
       ((SwingImageView) view).updateHistogram(histogram[0], histogram[1], histogram[2]);
@@ -507,16 +718,16 @@ public class ImageController implements Controller {
   @Override
   public void rgbSplit(String inputName, String redName, String greenName, String blueName)
       throws IOException {
-    Image inputImage = imageMap.get(inputName);
+    Image inputImage = getImage(inputName);
     if (inputImage == null) {
       view.displayError("Image '" + inputName + "' not found.");
       return;
     }
 
     Image[] rgbImages = processor.splitChannels(inputImage);
-    imageMap.put(redName, rgbImages[0]);
-    imageMap.put(greenName, rgbImages[1]);
-    imageMap.put(blueName, rgbImages[2]);
+    imageMap.put(redName, new LazyImage(rgbImages[0]));
+    imageMap.put(greenName, new LazyImage(rgbImages[1]));
+    imageMap.put(blueName, new LazyImage(rgbImages[2]));
 
     view.displayMessage(
         "RGB split completed. New images: " + redName + " (red), " + greenName + " (green), "
@@ -535,9 +746,9 @@ public class ImageController implements Controller {
   @Override
   public void rgbCombine(String destName, String redName, String greenName, String blueName)
       throws IOException {
-    Image redImage = imageMap.get(redName);
-    Image greenImage = imageMap.get(greenName);
-    Image blueImage = imageMap.get(blueName);
+    Image redImage = getImage(redName);
+    Image greenImage = getImage(greenName);
+    Image blueImage = getImage(blueName);
 
     if (redImage == null || greenImage == null || blueImage == null) {
       view.displayError("One or more source images not found.");
@@ -545,7 +756,7 @@ public class ImageController implements Controller {
     }
 
     Image combinedImage = processor.combineChannels(redImage, greenImage, blueImage);
-    imageMap.put(destName, combinedImage);
+    imageMap.put(destName, new LazyImage(combinedImage));
 
     view.displayMessage("RGB combine completed. New image: " + destName);
 
@@ -691,7 +902,7 @@ public class ImageController implements Controller {
               return;
             }
 
-            Image originalImage = imageMap.get("currentImage");
+            Image originalImage = getImage("currentImage");
             if (originalImage == null) {
               view.displayError("No image loaded to apply split view");
               return;
@@ -771,7 +982,7 @@ public class ImageController implements Controller {
       case "downscale":
         try {
           // Get current image dimensions
-          Image currentImage = imageMap.get("currentImage");
+          Image currentImage = getImage("currentImage");
           if (currentImage == null) {
             view.displayError("No image loaded to downscale");
             return;
@@ -840,7 +1051,7 @@ public class ImageController implements Controller {
       Image maskImage)
       throws IOException {
     // Validate the input image
-    Image inputImage = imageMap.get(inputName);
+    Image inputImage = getImage(inputName);
     if (inputImage == null) {
       view.displayError("Input image '" + inputName + "' not found.");
       return;
@@ -856,7 +1067,7 @@ public class ImageController implements Controller {
     // Process the image with the mask
     try {
       Image outputImage = processor.applyWithMask(inputImage, maskImage, operation);
-      imageMap.put(outputName, outputImage);
+      imageMap.put(outputName, new LazyImage(outputImage));
       view.displayMessage(
           "Operation '" + operation + "' with mask applied. New image: " + outputName);
     } catch (UnsupportedOperationException e) {
@@ -868,9 +1079,98 @@ public class ImageController implements Controller {
     }
   }
 
+  /**
+   * Compresses an image at the percentage nearest the boundary of a target given in place of the
+   * percentage, as psnr=&lt;decibels&gt; or size=&lt;kilobytes&gt; of the stored .pvmw file, and
+   * reports the chosen percentage and the error of the result. The search needs the pixels of the
+   * source, so it runs when the command runs, even in lazy mode.
+   *
+   * @param tokens the compress command: the target, the source and destination names, and
+   *               optional precision and coefficients options
+   */
+  private void compressToTarget(String[] tokens) {
+    CompressionTarget target;
+    try {
+      if (tokens[1].startsWith("psnr=")) {
+        target = CompressionTarget.minimumPsnr(Double.parseDouble(tokens[1].substring(5)));
+      } else {
+        target = CompressionTarget.maximumSize(Long.parseLong(tokens[1].substring(5)) * 1024,
+            PVMWHandler::encodedSize);
+      }
+    } catch (IllegalArgumentException e) {
+      view.displayError("Invalid compression target: " + tokens[1]);
+      return;
+    }
+    CompressionOptions options = CompressionOptions.defaults();
+    for (int i = 4; i < tokens.length; i++) {
+      if (tokens[i].equals("precision=float")) {
+        options = options.singlePrecision();
+      } else if (tokens[i].equals("coefficients=keep")) {
+        options = options.keepCoefficients();
+      } else if (!tokens[i].equals("precision=double")
+          && !tokens[i].equals("coefficients=discard")) {
+        view.displayError("Unknown option for a compression target: " + tokens[i]);
+        return;
+      }
+    }
+    Image source = getImage(tokens[2]);
+    if (source == null) {
+      view.displayError("Image '" + tokens[2] + "' not found.");
+      return;
+    }
+    CompressionResult result = processor.compress(source, target, options);
+    imageMap.put(tokens[3], new LazyImage(result.getImage()));
+    String report = String.format("Compressed at %d%%: PSNR %.2f dB, MSE %.3f",
+        result.getPercentage(), result.getPeakSignalToNoiseRatio(),
+        result.getMeanSquaredError());
+    if (result.getSize() >= 0) {
+      report += ", " + result.getSize() + " bytes";
+    }
+    if (!result.isTargetMet()) {
+      report += ". No percentage meets " + target + "; kept the nearest miss";
+    }
+    view.displayMessage(report + ". New image: " + tokens[3]);
+  }
+
+  /**
+   * Reports the mean squared error, PSNR and SSIM of an image against a reference of the same
+   * size. Both images are computed first if they are still recipes.
+   *
+   * @param expectedName the name of the reference image
+   * @param actualName   the name of the image to measure
+   */
+  private void compare(String expectedName, String actualName) {
+    Image expected = getImage(expectedName);
+    Image actual = getImage(actualName);
+    if (expected == null || actual == null) {
+      view.displayError("Image '" + (expected == null ? expectedName : actualName)
+          + "' not found.");
+      return;
+    }
+    if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+      view.displayError("Images '" + expectedName + "' and '" + actualName
+          + "' must have the same dimensions to be compared.");
+      return;
+    }
+    ImageComparison comparison = processor.compare(expected, actual);
+    view.displayMessage("Comparison of " + actualName + " against " + expectedName + ": "
+        + comparison);
+  }
+
   private void setCurrentImage(Image image) {
     imageMap.clear(); // Remove old entries
-    imageMap.put("currentImage", image); // Add the new image
+    imageMap.put("currentImage", new LazyImage(image)); // Add the new image
+  }
+
+  /**
+   * Gets the image stored under the given name, computing it first if it is still a recipe.
+   *
+   * @param name the name of the image
+   * @return the image, or null if no image has that name
+   */
+  private Image getImage(String name) {
+    LazyImage entry = imageMap.get(name);
+    return entry == null ? null : entry.get();
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import model.Image;
+import model.ImageProcessor;
+import model.PointPipeline;
+
+/**
+ * This class represents an image stored under a name in the controller. It holds either an image
+ * that has already been computed, or a recipe that computes it from a source image the first time
+ * it is needed. The computed image is kept, so a recipe runs at most once, and the recipe is then
+ * dropped so that the source it captured can be reclaimed.
+ *
+ * <p>A recipe captures the LazyImage of its source rather than its name, so naming a later result
+ * after a source, as in "brighten 10 img img", does not change what the recipe computes. A script
+ * can build a chain of thousands of such recipes, so the chain is evaluated in a loop from its
+ * first computed image rather than by recursion.
+ *
+ * <p>A recipe of a per-pixel operation, such as brighten, levels-adjust, greyscale or sepia, also
+ * holds the operation as a {@link PointPipeline}. When two or more such recipes follow each other
+ * in a chain being evaluated, their pipelines are joined and applied in a single pass, so only the
+ * last image of the run is computed. The images in between are left as recipes, and are computed
+ * from their own sources only if they are needed later.
+ */
+class LazyImage {
+
+  private LazyImage input;
+  private UnaryOperator<Image> step;
+  private PointPipeline pipeline;
+  private ImageProcessor processor;
+  private Image image;
+
+  /**
+   * Constructs a LazyImage holding an image that has already been computed.
+   *
+   * @param image the image
+   */
+  LazyImage(Image image) {
+    this.image = image;
+  }
+
+  /**
+   * Constructs a LazyImage that computes its image from the image of another LazyImage when first
+   * needed.
+   *
+   * @param input the source of the image
+   * @param step  the computation of the image from the source image
+   */
+  LazyImage(LazyImage input, UnaryOperator<Image> step) {
+    this.input = input;
+    this.step = step;
+  }
+
+  /**
+   * Constructs a LazyImage that computes its image from the image of another LazyImage by a
+   * per-pixel operation when first needed, and that can be fused with the recipes next to it.
+   *
+   * @param input     the source of the image
+   * @param step      the computation of the image from the source image
+   * @param pipeline  the same computation as a pipeline
+   * @param processor the processor that applies fused pipelines
+   */
+  LazyImage(LazyImage input, UnaryOperator<Image> step, PointPipeline pipeline,
+      ImageProcessor processor) {
+    this(input, step);
+    this.pipeline = pipeline;
+    this.processor = processor;
+  }
+
+  /**
+   * Gets the image, first computing it and every source image it depends on that has not been
+   * computed yet. Runs of consecutive per-pixel recipes are applied as one pipeline. If a recipe
+   * throws, the exception is passed on and that recipe is kept, so a later call tries again.
+   *
+   * @return the image
+   */
+  Image get() {
+    Deque<LazyImage> pending = new ArrayDeque<>();
+    for (LazyImage entry = this; entry != null; entry = entry.pendingInput()) {
+      pending.push(entry);
+    }
+    Image result = null;
+    while (!pending.isEmpty()) {
+      LazyImage entry = pending.pop();
+      PointPipeline first = entry.pendingPipeline();
+      if (first == null || pending.isEmpty() || pending.peek().pendingPipeline() == null) {
+        result = entry.evaluate(result);
+        continue;
+      }
+      List<PointPipeline> run = new ArrayList<>();
+      run.add(first);
+      while (!pending.isEmpty() && pending.peek().pendingPipeline() != null) {
+        entry = pending.pop();
+        run.add(entry.pendingPipeline());
+      }
+      result = entry.evaluate(result, PointPipeline.concat(run));
+    }
+    return result;
+  }
+
+  /**
+   * Gets the pipeline of the image if the image has not been computed yet and is computed by a
+   * per-pixel operation.
+   *
+   * @return the pipeline, or null if the image is already computed or has no pipeline
+   */
+  private synchronized PointPipeline pendingPipeline() {
+    return step == null ? null : pipeline;
+  }
+
+  /**
+   * Gets the source of the image if the image has not been computed yet.
+   *
+   * @return the source, or null if the image is already computed
+   */
+  private synchronized LazyImage pendingInput() {
+    return step == null ? null : input;
+  }
+
+  /**
+   * Computes the image from its source image, unless it is already computed.
+   *
+   * @param inputImage the image of the source
+   * @return the image
+   */
+  private synchronized Image evaluate(Image inputImage) {
+    if (step != null) {
+      image = step.apply(inputImage);
+      forgetRecipe();
+    }
+    return image;
+  }
+
+  /**
+   * Computes the image by applying a pipeline to the image at the start of a run of per-pixel
+   * recipes ending with this one, unless it is already computed.
+   *
+   * @param runInput the image the run starts from
+   * @param run      the joined pipelines of the run
+   * @return the image
+   */
+  private synchronized Image evaluate(Image runInput, PointPipeline run) {
+    if (step != null) {
+      image = processor.applyPipeline(runInput, run);
+      forgetRecipe();
+    }
+    return image;
+  }
+
+  /**
+   * Drops the recipe once the image is computed, so that its source can be reclaimed.
+   */
+  private void forgetRecipe() {
+    step = null;
+    input = null;
+    pipeline = null;
+    processor = null;
+  }
+}
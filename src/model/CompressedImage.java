@@ -0,0 +1,77 @@
+package model;
+
+/**
+ * This class represents the result of a wavelet compression that keeps its coefficients, as
+ * {@link CompressionOptions#keepCoefficients()} asks, or of reading them back from storage. It is
+ * an ordinary image that also holds the sparse, quantized coefficients it was reconstructed from,
+ * so that {@link WaveletCoefficients#of(Image)} can store it in compressed form without
+ * compressing it again. The coefficients cost eight bytes for each one the compression retained,
+ * which is less than the four bytes per pixel of the image only at high percentages, so they are
+ * kept only when asked for.
+ *
+ * <p>Changing any pixel forgets the coefficients, since they no longer describe the image.
+ */
+class CompressedImage extends Image {
+
+  private WaveletCoefficients coefficients;
+
+  /**
+   * Constructs a black image of the given size that has no coefficients yet.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   */
+  CompressedImage(int width, int height) {
+    super(width, height);
+  }
+
+  /**
+   * Remembers the coefficients this image was reconstructed from. Writing the pixels forgets
+   * them, so they are kept once the reconstruction is written.
+   *
+   * @param coefficients the coefficients
+   */
+  void keep(WaveletCoefficients coefficients) {
+    this.coefficients = coefficients;
+  }
+
+  /**
+   * Gets the coefficients this image was reconstructed from.
+   *
+   * @return the coefficients, or null if the image has been changed since
+   */
+  WaveletCoefficients getCoefficients() {
+    return coefficients;
+  }
+
+  @Override
+  public void setPixel(int x, int y, Pixel pixel) {
+    forget();
+    super.setPixel(x, y, pixel);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    forget();
+    super.setRGB(x, y, red, green, blue);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    forget();
+    super.setRGB(x, y, rgb);
+  }
+
+  @Override
+  public void setRow(int y, int[] row) {
+    forget();
+    super.setRow(y, row);
+  }
+
+  /**
+   * Forgets the coefficients, once the pixels no longer match them.
+   */
+  private void forget() {
+    coefficients = null;
+  }
+}
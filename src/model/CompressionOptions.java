@@ -0,0 +1,127 @@
+package model;
+
+/**
+ * This class represents the settings of a wavelet compression beyond its percentage, passed to
+ * {@link ImageProcessor#compress(Image, int, CompressionOptions)}: whether the image is compressed
+ * whole or in tiles, the floating-point precision of the wavelet coefficients, and whether the
+ * result keeps its sparse coefficients.
+ *
+ * <p>Options are immutable; each method returns new options with one setting changed. The default
+ * options compress the whole image in double precision and keep no coefficients, exactly as
+ * {@link ImageProcessor#compress(Image, int)} does.
+ */
+public final class CompressionOptions {
+
+  private static final CompressionOptions DEFAULTS = new CompressionOptions(0, false, false);
+
+  private final int tileSize;
+  private final boolean singlePrecision;
+  private final boolean keepCoefficients;
+
+  private CompressionOptions(int tileSize, boolean singlePrecision, boolean keepCoefficients) {
+    this.tileSize = tileSize;
+    this.singlePrecision = singlePrecision;
+    this.keepCoefficients = keepCoefficients;
+  }
+
+  /**
+   * Gets the default options: the whole image at once, in double precision, keeping no
+   * coefficients.
+   *
+   * @return the default options
+   */
+  public static CompressionOptions defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * Gets options that compress the image in square tiles of the given size, each on its own.
+   *
+   * @param tileSize the width and height of a tile, in pixels
+   * @return the changed options
+   * @throws IllegalArgumentException if the tile size is less than 1
+   */
+  public CompressionOptions tiles(int tileSize) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Tile size must be at least 1.");
+    }
+    return new CompressionOptions(tileSize, singlePrecision, keepCoefficients);
+  }
+
+  /**
+   * Gets options that compress the whole image at once.
+   *
+   * @return the changed options
+   */
+  public CompressionOptions wholeImage() {
+    return new CompressionOptions(0, singlePrecision, keepCoefficients);
+  }
+
+  /**
+   * Gets options that hold the wavelet coefficients as floats, which halves the memory and
+   * bandwidth of compression. The result can differ from double precision by a few levels per
+   * channel.
+   *
+   * @return the changed options
+   */
+  public CompressionOptions singlePrecision() {
+    return new CompressionOptions(tileSize, true, keepCoefficients);
+  }
+
+  /**
+   * Gets options that hold the wavelet coefficients as doubles.
+   *
+   * @return the changed options
+   */
+  public CompressionOptions doublePrecision() {
+    return new CompressionOptions(tileSize, false, keepCoefficients);
+  }
+
+  /**
+   * Gets options whose result keeps its sparse, quantized coefficients, so that it is stored as a
+   * .pvmw file with only those coefficients and without being compressed again. Keeping them costs
+   * eight bytes per retained coefficient and a quantizing pass over the coefficients, so it only
+   * pays off for results that are stored as .pvmw files at a high percentage.
+   *
+   * @return the changed options
+   */
+  public CompressionOptions keepCoefficients() {
+    return new CompressionOptions(tileSize, singlePrecision, true);
+  }
+
+  /**
+   * Gets options whose result is an ordinary image, which is stored losslessly as a .pvmw file.
+   *
+   * @return the changed options
+   */
+  public CompressionOptions discardCoefficients() {
+    return new CompressionOptions(tileSize, singlePrecision, false);
+  }
+
+  /**
+   * Gets the tile size.
+   *
+   * @return the width and height of a tile, or 0 if the image is compressed whole
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Tells whether the coefficients are held in single precision.
+   *
+   * @return true for floats, false for doubles
+   */
+  public boolean isSinglePrecision() {
+    return singlePrecision;
+  }
+
+  /**
+   * Tells whether the result keeps its sparse coefficients.
+   *
+   * @return true if the coefficients are kept
+   */
+  public boolean keepsCoefficients() {
+    return keepCoefficients;
+  }
+}
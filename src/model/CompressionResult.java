@@ -0,0 +1,90 @@
+package model;
+
+/**
+ * This class represents the outcome of a compression searched for by
+ * {@link ImageProcessor#compress(Image, CompressionTarget, CompressionOptions)}: the compressed
+ * image, the percentage that was chosen, and how far the image is from its source.
+ *
+ * <p>Results are immutable.
+ */
+public final class CompressionResult {
+
+  private final Image image;
+  private final int percentage;
+  private final double meanSquaredError;
+  private final long size;
+  private final boolean targetMet;
+
+  /**
+   * Constructs a result.
+   *
+   * @param image            the compressed image
+   * @param percentage       the percentage of coefficients that was zeroed
+   * @param meanSquaredError the mean squared error of the image against its source
+   * @param size             the stored size of the image in bytes, or -1 if it was not measured
+   * @param targetMet        true if the image meets the target of the search
+   */
+  public CompressionResult(Image image, int percentage, double meanSquaredError, long size,
+      boolean targetMet) {
+    this.image = image;
+    this.percentage = percentage;
+    this.meanSquaredError = meanSquaredError;
+    this.size = size;
+    this.targetMet = targetMet;
+  }
+
+  /**
+   * Gets the compressed image.
+   *
+   * @return the image
+   */
+  public Image getImage() {
+    return image;
+  }
+
+  /**
+   * Gets the chosen compression percentage.
+   *
+   * @return the percentage of coefficients that was zeroed
+   */
+  public int getPercentage() {
+    return percentage;
+  }
+
+  /**
+   * Gets the mean squared error of the compressed image against its source.
+   *
+   * @return the mean squared error over all channel values
+   */
+  public double getMeanSquaredError() {
+    return meanSquaredError;
+  }
+
+  /**
+   * Gets the peak signal-to-noise ratio of the compressed image against its source.
+   *
+   * @return the ratio in decibels, or positive infinity if the image is unchanged
+   */
+  public double getPeakSignalToNoiseRatio() {
+    return ImageMetrics.peakSignalToNoiseRatio(meanSquaredError);
+  }
+
+  /**
+   * Gets the stored size of the compressed image.
+   *
+   * @return the size in bytes, or -1 if the target did not need it
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Tells whether the image meets the target. When no percentage meets it, the result is the
+   * nearest miss, the lossless compression at 0% for a PSNR or 99% for a size, and this is false.
+   *
+   * @return true if the target is met
+   */
+  public boolean isTargetMet() {
+    return targetMet;
+  }
+}
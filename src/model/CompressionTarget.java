@@ -0,0 +1,109 @@
+package model;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * This class represents a goal for {@link ImageProcessor#compress(Image, CompressionTarget,
+ * CompressionOptions)}: either a least peak signal-to-noise ratio against the source, met by every
+ * percentage up to some point, or a largest stored size, met by every percentage from some point
+ * on. The search finds that point.
+ *
+ * <p>The stored size depends on the file format, which the model does not know, so a size target
+ * carries the function that measures the encoded size of a set of coefficients.
+ *
+ * <p>Targets are immutable.
+ */
+public final class CompressionTarget {
+
+  private final double minimumPsnr;
+  private final long maximumSize;
+  private final ToLongFunction<WaveletCoefficients> sizeOf;
+
+  private CompressionTarget(double minimumPsnr, long maximumSize,
+      ToLongFunction<WaveletCoefficients> sizeOf) {
+    this.minimumPsnr = minimumPsnr;
+    this.maximumSize = maximumSize;
+    this.sizeOf = sizeOf;
+  }
+
+  /**
+   * Gets a target that the compressed image is at least the given peak signal-to-noise ratio from
+   * its source.
+   *
+   * @param decibels the least acceptable ratio, in decibels
+   * @return the target
+   * @throws IllegalArgumentException if the ratio is not a positive number
+   */
+  public static CompressionTarget minimumPsnr(double decibels) {
+    if (!(decibels > 0)) {
+      throw new IllegalArgumentException("PSNR target must be a positive number of decibels.");
+    }
+    return new CompressionTarget(decibels, -1, null);
+  }
+
+  /**
+   * Gets a target that the compressed image takes at most the given number of bytes when stored.
+   *
+   * @param bytes  the largest acceptable size
+   * @param sizeOf measures the stored size of the coefficients of a compressed image, in bytes
+   * @return the target
+   * @throws IllegalArgumentException if the size is less than 1
+   */
+  public static CompressionTarget maximumSize(long bytes,
+      ToLongFunction<WaveletCoefficients> sizeOf) {
+    if (bytes < 1) {
+      throw new IllegalArgumentException("Size target must be at least 1 byte.");
+    }
+    return new CompressionTarget(Double.NaN, bytes, sizeOf);
+  }
+
+  /**
+   * Tells whether meeting this target requires the stored size of each candidate.
+   *
+   * @return true for a size target
+   */
+  boolean measuresSize() {
+    return sizeOf != null;
+  }
+
+  /**
+   * Tells whether this target is met by every percentage above the point where it is first met,
+   * as a size target is, rather than by every percentage below it, as a quality target is.
+   *
+   * @return true for a size target
+   */
+  boolean isMetByHigherPercentages() {
+    return measuresSize();
+  }
+
+  /**
+   * Measures the stored size of a set of coefficients.
+   *
+   * @param coefficients the coefficients
+   * @return the size in bytes
+   */
+  long sizeOf(WaveletCoefficients coefficients) {
+    return sizeOf.applyAsLong(coefficients);
+  }
+
+  /**
+   * Tells whether a candidate compression meets this target.
+   *
+   * @param psnr the peak signal-to-noise ratio of the candidate against its source
+   * @param size the stored size of the candidate, or -1 if it was not measured
+   * @return true if the candidate meets the target
+   */
+  boolean isMetBy(double psnr, long size) {
+    return measuresSize() ? size <= maximumSize : psnr >= minimumPsnr;
+  }
+
+  /**
+   * Describes the target.
+   *
+   * @return "PSNR &gt;= x dB" or "size &lt;= n bytes"
+   */
+  @Override
+  public String toString() {
+    return measuresSize() ? "size <= " + maximumSize + " bytes" : "PSNR >= " + minimumPsnr + " dB";
+  }
+}
@@ -0,0 +1,646 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a convolution kernel prepared for filtering, as used by
+ * {@link ImageProcessorImpl#applyFilter} and {@link ImageProcessorImpl#applySeparableFilter}. The
+ * factory methods pick the cheapest evaluation that gives exactly the same output as the
+ * straightforward 2D loop in double precision:
+ *
+ * <ul>
+ *   <li>kernels whose weights are binary fractions (multiples of 2^-24), such as the built-in blur
+ *   and sharpen kernels, are evaluated in integer fixed point, where every sum is exact and
+ *   dividing by the power-of-two scale truncates toward zero just like the (int) cast;</li>
+ *   <li>kernels that also factor into a horizontal and a vertical 1D kernel are evaluated as two
+ *   1D passes, costing O(2k) instead of O(k^2) per pixel;</li>
+ *   <li>all other kernels use the 2D loop in double precision.</li>
+ * </ul>
+ *
+ * <p>Every implementation fills a range of output rows, so the processor can hand disjoint bands of
+ * rows to different threads. Pixels outside the image are taken from the nearest edge pixel
+ * (clamp-to-edge). Horizontal clamping is done once per source row, by padding the unpacked row
+ * with copies of its edge pixels, so the loops over the taps are branch-free and run a whole row
+ * at a time, which lets the JIT unroll and vectorize them.
+ */
+abstract class Convolution {
+
+  /**
+   * The number of fractional bits of the binary grid that kernel weights must lie on to be
+   * evaluated in fixed point or factored. On this grid every weighted sum of 8-bit channel values
+   * is also computed exactly in double precision, so all paths give identical results.
+   */
+  private static final int GRID_BITS = 24;
+
+  /**
+   * The bound on 255 times the sum of the absolute grid numerators of a kernel, which keeps every
+   * partial sum within the 53-bit significand of a double.
+   */
+  private static final long MAX_GRID_SUM = 1L << 52;
+
+  /**
+   * The bound on 255 times the sum of the absolute fixed-point weights of a kernel, which keeps
+   * every partial sum within an int.
+   */
+  private static final long MAX_FIXED_POINT_SUM = Integer.MAX_VALUE;
+
+  /**
+   * Filters the rows from startY (inclusive) to endY (exclusive) of the source image into the
+   * result image.
+   *
+   * @param source the image to filter
+   * @param result the image receiving the filtered rows, with the same dimensions as the source
+   * @param startY the first row to filter
+   * @param endY   the row after the last row to filter
+   */
+  abstract void apply(Image source, Image result, int startY, int endY);
+
+  /**
+   * Prepares a 2D kernel, choosing fixed-point and separable evaluation where they are exact.
+   *
+   * @param kernel the 2D kernel, indexed as [row][column]
+   * @return the prepared convolution
+   */
+  static Convolution of(double[][] kernel) {
+    long[][] grid = toGrid(kernel);
+    if (grid == null || grid.length != kernel[0].length) {
+      return new DoubleKernel(kernel);
+    }
+    long[][] factors = factor(grid);
+    if (factors != null) {
+      return separable(factors[0], factors[1], GRID_BITS);
+    }
+    long combined = 0;
+    for (long[] row : grid) {
+      combined |= or(row);
+    }
+    int shift = reduceShift(GRID_BITS, new long[][]{{combined}});
+    if (absoluteSum(grid) >> (GRID_BITS - shift) < MAX_FIXED_POINT_SUM / 255) {
+      int[][] weights = new int[grid.length][grid.length];
+      for (int i = 0; i < grid.length; i++) {
+        for (int j = 0; j < grid.length; j++) {
+          weights[i][j] = (int) (grid[i][j] >> (GRID_BITS - shift));
+        }
+      }
+      return new FixedPointKernel(weights, shift);
+    }
+    return new DoubleKernel(kernel);
+  }
+
+  /**
+   * Prepares a 2D kernel for the plain 2D loop in double precision, regardless of its weights. This
+   * is the reference the other evaluations must match.
+   *
+   * @param kernel the 2D kernel, indexed as [row][column]
+   * @return the prepared convolution
+   */
+  static Convolution inDoublePrecision(double[][] kernel) {
+    return new DoubleKernel(kernel);
+  }
+
+  /**
+   * Prepares a pair of 1D kernels applied as a horizontal pass followed by a vertical pass. Pairs
+   * whose weights are binary fractions are evaluated in fixed point.
+   *
+   * @param horizontal the odd-length kernel applied along each row
+   * @param vertical   the odd-length kernel applied along each column
+   * @return the prepared convolution
+   */
+  static Convolution separable(double[] horizontal, double[] vertical) {
+    long[][] horizontalGrid = toGrid(new double[][]{horizontal});
+    long[][] verticalGrid = toGrid(new double[][]{vertical});
+    if (horizontalGrid != null && verticalGrid != null) {
+      Convolution fixedPoint = separable(horizontalGrid[0], verticalGrid[0], 2 * GRID_BITS);
+      if (fixedPoint instanceof FixedPointSeparable) {
+        return fixedPoint;
+      }
+    }
+    return new DoubleSeparable(horizontal, vertical);
+  }
+
+  /**
+   * Prepares a separable convolution from integer factors whose product carries the given number
+   * of fractional bits, in fixed point if the sums fit in an int.
+   *
+   * @param horizontal the integer numerators of the horizontal kernel
+   * @param vertical   the integer numerators of the vertical kernel
+   * @param bits       the number of fractional bits of the product of the two kernels
+   * @return the prepared convolution
+   */
+  private static Convolution separable(long[] horizontal, long[] vertical, int bits) {
+    int shift = reduceShift(bits, new long[][]{horizontal, vertical});
+    int horizontalShift = Math.min(bits - shift, Long.numberOfTrailingZeros(or(horizontal)));
+    int verticalShift = bits - shift - horizontalShift;
+    long horizontalSum = absoluteSum(new long[][]{horizontal}) >> horizontalShift;
+    long verticalSum = absoluteSum(new long[][]{vertical}) >> verticalShift;
+    if (shift < 31 && horizontalSum < MAX_FIXED_POINT_SUM / 255
+        && verticalSum < MAX_FIXED_POINT_SUM / 255
+        && horizontalSum * verticalSum < MAX_FIXED_POINT_SUM / 255) {
+      int[] horizontalWeights = new int[horizontal.length];
+      int[] verticalWeights = new int[vertical.length];
+      for (int i = 0; i < horizontal.length; i++) {
+        horizontalWeights[i] = (int) (horizontal[i] >> horizontalShift);
+      }
+      for (int i = 0; i < vertical.length; i++) {
+        verticalWeights[i] = (int) (vertical[i] >> verticalShift);
+      }
+      return new FixedPointSeparable(horizontalWeights, verticalWeights, shift);
+    }
+    double[] horizontalKernel = new double[horizontal.length];
+    double[] verticalKernel = new double[vertical.length];
+    for (int i = 0; i < horizontal.length; i++) {
+      horizontalKernel[i] = horizontal[i];
+    }
+    for (int i = 0; i < vertical.length; i++) {
+      verticalKernel[i] = Math.scalb((double) vertical[i], -bits);
+    }
+    return new DoubleSeparable(horizontalKernel, verticalKernel);
+  }
+
+  /**
+   * Factors a square kernel on the grid into a horizontal and a vertical integer kernel whose outer
+   * product equals it exactly, for example the 3x3 Gaussian blur into [1, 2, 1] and
+   * [1, 2, 1] * 2^20.
+   *
+   * @param grid the integer numerators of the kernel weights
+   * @return an array holding the horizontal kernel then the vertical kernel, or null if the kernel
+   *         does not factor
+   */
+  private static long[][] factor(long[][] grid) {
+    int size = grid.length;
+
+    // Take the row with the largest entry, reduced by its common divisor, as the horizontal factor.
+    int pivotRow = 0;
+    int pivotColumn = 0;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(grid[i][j]) > Math.abs(grid[pivotRow][pivotColumn])) {
+          pivotRow = i;
+          pivotColumn = j;
+        }
+      }
+    }
+    if (grid[pivotRow][pivotColumn] == 0) {
+      return null;
+    }
+    long divisor = 0;
+    for (int j = 0; j < size; j++) {
+      divisor = gcd(divisor, Math.abs(grid[pivotRow][j]));
+    }
+    long[] horizontal = new long[size];
+    for (int j = 0; j < size; j++) {
+      horizontal[j] = grid[pivotRow][j] / divisor;
+    }
+
+    // Every row must then be an integer multiple of the horizontal factor.
+    long[] vertical = new long[size];
+    for (int i = 0; i < size; i++) {
+      if (grid[i][pivotColumn] % horizontal[pivotColumn] != 0) {
+        return null;
+      }
+      vertical[i] = grid[i][pivotColumn] / horizontal[pivotColumn];
+      for (int j = 0; j < size; j++) {
+        if (grid[i][j] != vertical[i] * horizontal[j]) {
+          return null;
+        }
+      }
+    }
+    return new long[][]{horizontal, vertical};
+  }
+
+  /**
+   * Scales a square, odd-sized kernel onto the binary grid of {@link #GRID_BITS} fractional bits.
+   * A single row is accepted as a 1D kernel.
+   *
+   * @param kernel the kernel to scale
+   * @return the integer numerators of the kernel weights, or null if the kernel is not square (or
+   *         a single row) and odd-sized, a weight is off the grid, or the weighted sums could lose
+   *         precision
+   */
+  private static long[][] toGrid(double[][] kernel) {
+    int rows = kernel.length;
+    if (rows == 0 || kernel[0] == null || kernel[0].length % 2 == 0) {
+      return null;
+    }
+    int size = kernel[0].length;
+    if (rows != 1 && rows != size) {
+      return null;
+    }
+    long[][] grid = new long[rows][size];
+    long absoluteSum = 0;
+    for (int i = 0; i < rows; i++) {
+      if (kernel[i] == null || kernel[i].length != size) {
+        return null;
+      }
+      for (int j = 0; j < size; j++) {
+        double scaled = Math.scalb(kernel[i][j], GRID_BITS);
+        if (scaled != Math.rint(scaled) || Math.abs(scaled) >= MAX_GRID_SUM / 255) {
+          return null;
+        }
+        grid[i][j] = (long) scaled;
+        absoluteSum += Math.abs(grid[i][j]);
+        if (absoluteSum >= MAX_GRID_SUM / 255) {
+          return null;
+        }
+      }
+    }
+    return grid;
+  }
+
+  /**
+   * Finds the smallest number of fractional bits that represents the product of the given integer
+   * kernels exactly, by removing from each kernel the powers of two shared by all of its weights.
+   *
+   * @param bits    the number of fractional bits of the product of the kernels
+   * @param kernels the integer numerators of the kernels
+   * @return the reduced number of fractional bits
+   */
+  private static int reduceShift(int bits, long[][] kernels) {
+    int trailingZeros = 0;
+    for (long[] kernel : kernels) {
+      trailingZeros += Long.numberOfTrailingZeros(or(kernel));
+    }
+    return Math.max(0, bits - trailingZeros);
+  }
+
+  /**
+   * Combines all values with a bitwise or, so that the trailing zeros of the result are the powers
+   * of two the values share.
+   *
+   * @param values the values to combine
+   * @return the bitwise or of the values
+   */
+  private static long or(long[] values) {
+    long combined = 0;
+    for (long value : values) {
+      combined |= value;
+    }
+    return combined;
+  }
+
+  /**
+   * Sums the absolute values of all entries.
+   *
+   * @param values the values to sum
+   * @return the sum of the absolute values
+   */
+  private static long absoluteSum(long[][] values) {
+    long sum = 0;
+    for (long[] row : values) {
+      for (long value : row) {
+        sum += Math.abs(value);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Computes the greatest common divisor of two non-negative values.
+   *
+   * @param a the first value
+   * @param b the second value
+   * @return the greatest common divisor, or the other value if one of them is zero
+   */
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  /**
+   * Clamps the given value to ensure it remains within the valid range of [0, 255].
+   *
+   * @param value the value to clamp
+   * @return the clamped value within [0, 255]
+   */
+  static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  /**
+   * Unpacks a row of packed pixels into red, green and blue planes of width + 2 * radius values
+   * each, stored one after the other. The pixels occupy positions radius to radius + width - 1 of
+   * each plane, and the positions on either side repeat the edge pixel, so that a tap at offset kx
+   * from output pixel x reads position x + kx + radius without clamping.
+   *
+   * @param row    the packed pixels of the row
+   * @param width  the number of pixels in the row
+   * @param radius the number of padding positions on each side
+   * @param planes the array receiving the three padded planes
+   */
+  static void unpackPadded(int[] row, int width, int radius, int[] planes) {
+    int stride = width + 2 * radius;
+    for (int x = 0; x < width; x++) {
+      int rgb = row[x];
+      planes[radius + x] = (rgb >> 16) & 0xFF;
+      planes[stride + radius + x] = (rgb >> 8) & 0xFF;
+      planes[2 * stride + radius + x] = rgb & 0xFF;
+    }
+    if (width == 0) {
+      return;
+    }
+
+    // Border: only these positions depend on clamping.
+    for (int channel = 0; channel < 3; channel++) {
+      int base = channel * stride;
+      int left = planes[base + radius];
+      int right = planes[base + radius + width - 1];
+      for (int i = 0; i < radius; i++) {
+        planes[base + i] = left;
+        planes[base + radius + width + i] = right;
+      }
+    }
+  }
+
+  /**
+   * Gets the row of the image that a vertical tap reads, clamping to the top and bottom rows.
+   *
+   * @param y      the row being filtered
+   * @param offset the vertical offset of the tap
+   * @param height the height of the image
+   * @return the source row of the tap
+   */
+  static int sourceRow(int y, int offset, int height) {
+    return Math.min(Math.max(y + offset, 0), height - 1);
+  }
+
+  /**
+   * A 2D kernel evaluated in double precision, truncating with an (int) cast. Each pixel sums its
+   * taps row by row, in the same order as the plain 2D loop, so the rounding is unchanged; the taps
+   * are only applied to whole rows at a time over edge-padded planes.
+   */
+  private static final class DoubleKernel extends Convolution {
+
+    private final double[][] kernel;
+
+    DoubleKernel(double[][] kernel) {
+      this.kernel = kernel;
+    }
+
+    @Override
+    void apply(Image source, Image result, int startY, int endY) {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      int radius = kernel.length / 2;
+      int taps = 2 * radius + 1;
+      int stride = width + 2 * radius;
+      int[][] ring = new int[taps][3 * stride];
+      int[] ringRow = new int[taps];
+      Arrays.fill(ringRow, -1);
+      double[] sums = new double[3 * width];
+      int[] row = new int[width];
+
+      for (int y = startY; y < endY; y++) {
+        Arrays.fill(sums, 0);
+        for (int ky = 0; ky < taps; ky++) {
+          int[] planes = load(source, sourceRow(y, ky - radius, height), radius, ring, ringRow,
+              row);
+          double[] kernelRow = kernel[ky];
+          for (int kx = 0; kx < taps; kx++) {
+            double kernelValue = kernelRow[kx];
+            for (int channel = 0; channel < 3; channel++) {
+              int base = channel * stride + kx;
+              int sumBase = channel * width;
+              for (int x = 0; x < width; x++) {
+                sums[sumBase + x] += planes[base + x] * kernelValue;
+              }
+            }
+          }
+        }
+        for (int x = 0; x < width; x++) {
+          row[x] = (clamp((int) sums[x]) << 16) | (clamp((int) sums[width + x]) << 8)
+              | clamp((int) sums[2 * width + x]);
+        }
+        result.setRow(y, row);
+      }
+    }
+  }
+
+  /**
+   * A 2D kernel with integer weights and a power-of-two divisor. Sums are exact, and Java's integer
+   * division truncates toward zero exactly as the (int) cast does in the double path. Taps with a
+   * zero weight are skipped.
+   */
+  private static final class FixedPointKernel extends Convolution {
+
+    private final int[][] weights;
+    private final int divisor;
+
+    FixedPointKernel(int[][] weights, int shift) {
+      this.weights = weights;
+      this.divisor = 1 << shift;
+    }
+
+    @Override
+    void apply(Image source, Image result, int startY, int endY) {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      int taps = weights.length;
+      int radius = taps / 2;
+      int stride = width + 2 * radius;
+      int[][] ring = new int[taps][3 * stride];
+      int[] ringRow = new int[taps];
+      Arrays.fill(ringRow, -1);
+      int[] sums = new int[3 * width];
+      int[] row = new int[width];
+
+      for (int y = startY; y < endY; y++) {
+        Arrays.fill(sums, 0);
+        for (int ky = 0; ky < taps; ky++) {
+          int[] planes = load(source, sourceRow(y, ky - radius, height), radius, ring, ringRow,
+              row);
+          int[] kernelRow = weights[ky];
+          for (int kx = 0; kx < taps; kx++) {
+            int weight = kernelRow[kx];
+            if (weight == 0) {
+              continue;
+            }
+            for (int channel = 0; channel < 3; channel++) {
+              int base = channel * stride + kx;
+              int sumBase = channel * width;
+              for (int x = 0; x < width; x++) {
+                sums[sumBase + x] += planes[base + x] * weight;
+              }
+            }
+          }
+        }
+        for (int x = 0; x < width; x++) {
+          row[x] = (clamp(sums[x] / divisor) << 16) | (clamp(sums[width + x] / divisor) << 8)
+              | clamp(sums[2 * width + x] / divisor);
+        }
+        result.setRow(y, row);
+      }
+    }
+  }
+
+  /**
+   * Gets the edge-padded planes of a source row from a ring of recently used rows, unpacking the
+   * row into its slot if it is not already there. A band visits its source rows in increasing
+   * order, so a ring as tall as the kernel never evicts a row that is still needed.
+   *
+   * @param source  the image being filtered
+   * @param sourceY the row to get
+   * @param radius  the horizontal padding of each plane
+   * @param ring    the ring of padded planes
+   * @param ringRow the source row held in each slot of the ring, or -1 if the slot is empty
+   * @param row     a scratch buffer of one packed row
+   * @return the padded planes of the row
+   */
+  private static int[] load(Image source, int sourceY, int radius, int[][] ring, int[] ringRow,
+      int[] row) {
+    int slot = sourceY % ring.length;
+    if (ringRow[slot] != sourceY) {
+      source.getRow(sourceY, row);
+      unpackPadded(row, source.getWidth(), radius, ring[slot]);
+      ringRow[slot] = sourceY;
+    }
+    return ring[slot];
+  }
+
+  /**
+   * A pair of 1D kernels in double precision, applied as a horizontal pass into a small ring of
+   * primitive rows followed by a vertical pass over that ring.
+   */
+  private static final class DoubleSeparable extends Convolution {
+
+    private final double[] horizontal;
+    private final double[] vertical;
+
+    DoubleSeparable(double[] horizontal, double[] vertical) {
+      this.horizontal = horizontal;
+      this.vertical = vertical;
+    }
+
+    @Override
+    void apply(Image source, Image result, int startY, int endY) {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      int radiusY = vertical.length / 2;
+      int ringSize = vertical.length;
+
+      // Ring of horizontally filtered rows, each holding the red, green and blue planes in turn.
+      double[][] ring = new double[ringSize][3 * width];
+      int[] ringRow = new int[ringSize];
+      Arrays.fill(ringRow, -1);
+      int[] planes = new int[3 * (width + 2 * (horizontal.length / 2))];
+      double[] sums = new double[3 * width];
+      int[] row = new int[width];
+
+      for (int y = startY; y < endY; y++) {
+        Arrays.fill(sums, 0);
+        for (int ky = 0; ky < ringSize; ky++) {
+          int sourceY = sourceRow(y, ky - radiusY, height);
+          int slot = sourceY % ringSize;
+          if (ringRow[slot] != sourceY) {
+            source.getRow(sourceY, row);
+            horizontalPass(row, width, planes, ring[slot]);
+            ringRow[slot] = sourceY;
+          }
+          double[] filtered = ring[slot];
+          double kernelValue = vertical[ky];
+          for (int i = 0; i < sums.length; i++) {
+            sums[i] += filtered[i] * kernelValue;
+          }
+        }
+        for (int x = 0; x < width; x++) {
+          row[x] = (clamp((int) sums[x]) << 16) | (clamp((int) sums[width + x]) << 8)
+              | clamp((int) sums[2 * width + x]);
+        }
+        result.setRow(y, row);
+      }
+    }
+
+    private void horizontalPass(int[] row, int width, int[] planes, double[] filtered) {
+      int radiusX = horizontal.length / 2;
+      int stride = width + 2 * radiusX;
+      unpackPadded(row, width, radiusX, planes);
+      Arrays.fill(filtered, 0);
+      for (int kx = 0; kx < horizontal.length; kx++) {
+        double kernelValue = horizontal[kx];
+        for (int channel = 0; channel < 3; channel++) {
+          int base = channel * stride + kx;
+          int filteredBase = channel * width;
+          for (int x = 0; x < width; x++) {
+            filtered[filteredBase + x] += planes[base + x] * kernelValue;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A pair of 1D kernels with integer weights and a power-of-two divisor, applied as a horizontal
+   * pass into a small ring of int rows followed by a vertical pass over that ring.
+   */
+  private static final class FixedPointSeparable extends Convolution {
+
+    private final int[] horizontal;
+    private final int[] vertical;
+    private final int divisor;
+
+    FixedPointSeparable(int[] horizontal, int[] vertical, int shift) {
+      this.horizontal = horizontal;
+      this.vertical = vertical;
+      this.divisor = 1 << shift;
+    }
+
+    @Override
+    void apply(Image source, Image result, int startY, int endY) {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      int radiusY = vertical.length / 2;
+      int ringSize = vertical.length;
+
+      // Ring of horizontally filtered rows, each holding the red, green and blue planes in turn.
+      int[][] ring = new int[ringSize][3 * width];
+      int[] ringRow = new int[ringSize];
+      Arrays.fill(ringRow, -1);
+      int[] planes = new int[3 * (width + 2 * (horizontal.length / 2))];
+      int[] sums = new int[3 * width];
+      int[] row = new int[width];
+
+      for (int y = startY; y < endY; y++) {
+        Arrays.fill(sums, 0);
+        for (int ky = 0; ky < ringSize; ky++) {
+          int sourceY = sourceRow(y, ky - radiusY, height);
+          int slot = sourceY % ringSize;
+          if (ringRow[slot] != sourceY) {
+            source.getRow(sourceY, row);
+            horizontalPass(row, width, planes, ring[slot]);
+            ringRow[slot] = sourceY;
+          }
+          int[] filtered = ring[slot];
+          int weight = vertical[ky];
+          for (int i = 0; i < sums.length; i++) {
+            sums[i] += filtered[i] * weight;
+          }
+        }
+        for (int x = 0; x < width; x++) {
+          row[x] = (clamp(sums[x] / divisor) << 16) | (clamp(sums[width + x] / divisor) << 8)
+              | clamp(sums[2 * width + x] / divisor);
+        }
+        result.setRow(y, row);
+      }
+    }
+
+    private void horizontalPass(int[] row, int width, int[] planes, int[] filtered) {
+      int radiusX = horizontal.length / 2;
+      int stride = width + 2 * radiusX;
+      unpackPadded(row, width, radiusX, planes);
+      Arrays.fill(filtered, 0);
+      for (int kx = 0; kx < horizontal.length; kx++) {
+        int weight = horizontal[kx];
+        for (int channel = 0; channel < 3; channel++) {
+          int base = channel * stride + kx;
+          int filteredBase = channel * width;
+          for (int x = 0; x < width; x++) {
+            filtered[filteredBase + x] += planes[base + x] * weight;
+          }
+        }
+      }
+    }
+  }
+}
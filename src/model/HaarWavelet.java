@@ -0,0 +1,471 @@
+package model;
+
+import java.util.function.Supplier;
+
+/**
+ * This class performs the 2D Haar wavelet transform used by {@link ImageProcessorImpl#compress},
+ * and its inverse, in place on planes stored row by row in a flat array. The width and height of a
+ * plane are powers of two, but need not be equal. At each level the first stepX values of every
+ * row are transformed, over the full height of the plane, then the first stepY values of each of
+ * the first stepX columns, halving each step until it reaches 1; an axis whose step has reached 1
+ * is skipped at the remaining levels. This is the schedule of the per-row and per-column transform
+ * this class replaces, not the standard transform, whose row pass only covers the top-left
+ * stepX x stepY block. The inverse undoes the levels in reverse order.
+ *
+ * <p>Each pair of values a, b becomes the average (a + b) / sqrt(2) and the difference
+ * (a - b) / sqrt(2), with the averages in the first half of the row or column and the differences
+ * in the second half, so the coefficients are identical to those of the per-row and per-column
+ * transform this class replaces. The averages are written back in place, which is safe because
+ * the pairs that feed output k are at 2k and 2k + 1, never before k; only the differences go
+ * through scratch space. Columns are transformed in strips of {@value #STRIP} so that every pass
+ * walks memory row by row.
+ *
+ * <p>Several planes stored one after another, such as the three channels of an image, are
+ * transformed together, level by level: the row pass of a level covers the rows of every plane,
+ * and the column pass covers the strips of every plane. Rows and strips are independent, so each
+ * pass is split among the threads of a {@link RowBandExecutor}, and the next pass starts only
+ * once the previous one has finished. Every value is computed by the same operations whichever
+ * thread computes it, so the result is bit-identical for every number of threads.
+ *
+ * <p>Planes are either double or float arrays; the float methods do the same arithmetic in single
+ * precision, for half the memory and bandwidth. An instance works in the precision it was
+ * constructed for. It is not thread-safe, but can transform any number of planes of its size one
+ * after the other. Scratch space for sequential passes is allocated once per instance; parallel
+ * passes allocate scratch per band.
+ */
+final class HaarWavelet {
+
+  /**
+   * The work performed on a range of rows or strips with the given scratch space.
+   *
+   * @param <T> the type of the scratch array
+   */
+  private interface ScratchTask<T> {
+
+    void run(int start, int end, T scratch);
+  }
+
+  private static final double SQRT_2 = Math.sqrt(2);
+  private static final float SQRT_2_FLOAT = (float) SQRT_2;
+  private static final int STRIP = 64;
+
+  private final int width;
+  private final int height;
+  private final int levels;
+  private final RowBandExecutor bands;
+  private final double[] rowScratch;
+  private final double[] columnScratch;
+  private final float[] floatRowScratch;
+  private final float[] floatColumnScratch;
+
+  /**
+   * Constructs a transform for planes of the given size that runs on the calling thread.
+   *
+   * @param width           the width of a plane, a power of two
+   * @param height          the height of a plane, a power of two
+   * @param singlePrecision true to transform float planes, false to transform double planes
+   */
+  HaarWavelet(int width, int height, boolean singlePrecision) {
+    this(width, height, singlePrecision, RowBandExecutor.SEQUENTIAL);
+  }
+
+  /**
+   * Constructs a transform for planes of the given size that splits each pass among the threads
+   * of the given executor.
+   *
+   * @param width           the width of a plane, a power of two
+   * @param height          the height of a plane, a power of two
+   * @param singlePrecision true to transform float planes, false to transform double planes
+   * @param bands           the executor that runs the rows and strips of each pass
+   */
+  HaarWavelet(int width, int height, boolean singlePrecision, RowBandExecutor bands) {
+    this.width = width;
+    this.height = height;
+    this.levels = Integer.numberOfTrailingZeros(Math.max(width, height));
+    this.bands = bands;
+    int rowLength = Math.max(1, width / 2);
+    int columnLength = Math.max(1, height / 2 * Math.min(width, STRIP));
+    this.rowScratch = singlePrecision ? null : new double[rowLength];
+    this.columnScratch = singlePrecision ? null : new double[columnLength];
+    this.floatRowScratch = singlePrecision ? new float[rowLength] : null;
+    this.floatColumnScratch = singlePrecision ? new float[columnLength] : null;
+  }
+
+  /**
+   * Replaces planes by their Haar wavelet coefficients.
+   *
+   * @param data   the array holding the planes one after another, from index 0
+   * @param planes the number of planes
+   */
+  void forward(double[] data, int planes) {
+    for (int level = 0; level < levels; level++) {
+      int stepX = Math.max(1, width >> level);
+      int stepY = Math.max(1, height >> level);
+      if (stepX > 1) {
+        split(planes * height, stepX, rowScratch, () -> new double[stepX / 2],
+            (start, end, scratch) -> {
+              for (int r = start; r < end; r++) {
+                forwardRow(data, rowStart(r, height), stepX, scratch);
+              }
+            });
+      }
+      if (stepY > 1) {
+        int strips = (stepX + STRIP - 1) / STRIP;
+        split(planes * strips, STRIP * stepY, columnScratch,
+            () -> new double[stepY / 2 * Math.min(STRIP, stepX)], (start, end, scratch) -> {
+              for (int s = start; s < end; s++) {
+                int left = (s % strips) * STRIP;
+                forwardStrip(data, (s / strips) * width * height + left,
+                    Math.min(STRIP, stepX - left), stepY, scratch);
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Replaces the Haar wavelet coefficients of planes by the planes they encode.
+   *
+   * @param data   the array holding the coefficients of the planes one after another, from index 0
+   * @param planes the number of planes
+   */
+  void inverse(double[] data, int planes) {
+    inverse(data, planes, 0);
+  }
+
+  /**
+   * Undoes only the coarsest levels of the transform of planes, down to the given level. The
+   * top-left (width &gt;&gt; stopLevel) x (height &gt;&gt; stopLevel) block of each plane then
+   * holds the approximation of the plane at 1 / 2^stopLevel of its size: each value is the sum of
+   * the block of pixels it covers, divided by the square root of the number of pixels in the
+   * block. Only the rows of that block are inverted, so the cost shrinks by a factor of four per
+   * level skipped.
+   *
+   * @param data      the array holding the coefficients of the planes one after another
+   * @param planes    the number of planes
+   * @param stopLevel the number of finest levels to leave transformed, 0 for the full inverse
+   */
+  void inverse(double[] data, int planes, int stopLevel) {
+    int rows = Math.max(1, height >> stopLevel);
+    for (int level = levels - 1; level >= stopLevel; level--) {
+      int stepX = Math.max(1, width >> level);
+      int stepY = Math.max(1, height >> level);
+      if (stepY > 1) {
+        int strips = (stepX + STRIP - 1) / STRIP;
+        split(planes * strips, STRIP * stepY, columnScratch,
+            () -> new double[stepY / 2 * Math.min(STRIP, stepX)], (start, end, scratch) -> {
+              for (int s = start; s < end; s++) {
+                int left = (s % strips) * STRIP;
+                inverseStrip(data, (s / strips) * width * height + left,
+                    Math.min(STRIP, stepX - left), stepY, scratch);
+              }
+            });
+      }
+      if (stepX > 1) {
+        split(planes * rows, stepX, rowScratch, () -> new double[stepX / 2],
+            (start, end, scratch) -> {
+              for (int r = start; r < end; r++) {
+                inverseRow(data, rowStart(r, rows), stepX, scratch);
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Transforms the first length values of a row.
+   *
+   * @param data    the array holding the row
+   * @param start   the index of the first value of the row
+   * @param length  the number of values to transform, a power of two
+   * @param scratch space for length / 2 differences
+   */
+  private static void forwardRow(double[] data, int start, int length, double[] scratch) {
+    int half = length / 2;
+    for (int k = 0; k < half; k++) {
+      double a = data[start + 2 * k];
+      double b = data[start + 2 * k + 1];
+      data[start + k] = (a + b) / SQRT_2;
+      scratch[k] = (a - b) / SQRT_2;
+    }
+    System.arraycopy(scratch, 0, data, start + half, half);
+  }
+
+  /**
+   * Inverts the transform of the first length values of a row.
+   *
+   * @param data    the array holding the row
+   * @param start   the index of the first value of the row
+   * @param length  the number of values to invert, a power of two
+   * @param scratch space for length / 2 differences
+   */
+  private static void inverseRow(double[] data, int start, int length, double[] scratch) {
+    int half = length / 2;
+    System.arraycopy(data, start + half, scratch, 0, half);
+    for (int k = half - 1; k >= 0; k--) {
+      double avg = data[start + k];
+      double diff = scratch[k];
+      data[start + 2 * k] = (avg + diff) / SQRT_2;
+      data[start + 2 * k + 1] = (avg - diff) / SQRT_2;
+    }
+  }
+
+  /**
+   * Transforms the first stepY values of each column of a strip.
+   *
+   * @param data    the array holding the plane
+   * @param start   the index of the top-left value of the strip
+   * @param strip   the number of columns in the strip
+   * @param stepY   the number of rows to transform, a power of two
+   * @param scratch space for stepY / 2 x strip differences
+   */
+  private void forwardStrip(double[] data, int start, int strip, int stepY, double[] scratch) {
+    int half = stepY / 2;
+    for (int k = 0; k < half; k++) {
+      int even = start + 2 * k * width;
+      int odd = even + width;
+      int out = start + k * width;
+      int differences = k * strip;
+      for (int j = 0; j < strip; j++) {
+        double a = data[even + j];
+        double b = data[odd + j];
+        data[out + j] = (a + b) / SQRT_2;
+        scratch[differences + j] = (a - b) / SQRT_2;
+      }
+    }
+    for (int k = 0; k < half; k++) {
+      System.arraycopy(scratch, k * strip, data, start + (half + k) * width, strip);
+    }
+  }
+
+  /**
+   * Inverts the transform of the first stepY values of each column of a strip.
+   *
+   * @param data    the array holding the plane
+   * @param start   the index of the top-left value of the strip
+   * @param strip   the number of columns in the strip
+   * @param stepY   the number of rows to invert, a power of two
+   * @param scratch space for stepY / 2 x strip differences
+   */
+  private void inverseStrip(double[] data, int start, int strip, int stepY, double[] scratch) {
+    int half = stepY / 2;
+    for (int k = 0; k < half; k++) {
+      System.arraycopy(data, start + (half + k) * width, scratch, k * strip, strip);
+    }
+    for (int k = half - 1; k >= 0; k--) {
+      int in = start + k * width;
+      int even = start + 2 * k * width;
+      int odd = even + width;
+      int differences = k * strip;
+      for (int j = 0; j < strip; j++) {
+        double avg = data[in + j];
+        double diff = scratch[differences + j];
+        data[even + j] = (avg + diff) / SQRT_2;
+        data[odd + j] = (avg - diff) / SQRT_2;
+      }
+    }
+  }
+
+  /**
+   * Replaces float planes by their Haar wavelet coefficients, in single precision.
+   *
+   * @param data   the array holding the planes one after another, from index 0
+   * @param planes the number of planes
+   */
+  void forward(float[] data, int planes) {
+    for (int level = 0; level < levels; level++) {
+      int stepX = Math.max(1, width >> level);
+      int stepY = Math.max(1, height >> level);
+      if (stepX > 1) {
+        split(planes * height, stepX, floatRowScratch, () -> new float[stepX / 2],
+            (start, end, scratch) -> {
+              for (int r = start; r < end; r++) {
+                forwardRow(data, rowStart(r, height), stepX, scratch);
+              }
+            });
+      }
+      if (stepY > 1) {
+        int strips = (stepX + STRIP - 1) / STRIP;
+        split(planes * strips, STRIP * stepY, floatColumnScratch,
+            () -> new float[stepY / 2 * Math.min(STRIP, stepX)], (start, end, scratch) -> {
+              for (int s = start; s < end; s++) {
+                int left = (s % strips) * STRIP;
+                forwardStrip(data, (s / strips) * width * height + left,
+                    Math.min(STRIP, stepX - left), stepY, scratch);
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Replaces the Haar wavelet coefficients of float planes by the planes they encode, in single
+   * precision.
+   *
+   * @param data   the array holding the coefficients of the planes one after another, from index 0
+   * @param planes the number of planes
+   */
+  void inverse(float[] data, int planes) {
+    inverse(data, planes, 0);
+  }
+
+  /**
+   * Undoes only the coarsest levels of the transform of float planes, down to the given level, as
+   * {@link #inverse(double[], int, int)} does.
+   *
+   * @param data      the array holding the coefficients of the planes one after another
+   * @param planes    the number of planes
+   * @param stopLevel the number of finest levels to leave transformed, 0 for the full inverse
+   */
+  void inverse(float[] data, int planes, int stopLevel) {
+    int rows = Math.max(1, height >> stopLevel);
+    for (int level = levels - 1; level >= stopLevel; level--) {
+      int stepX = Math.max(1, width >> level);
+      int stepY = Math.max(1, height >> level);
+      if (stepY > 1) {
+        int strips = (stepX + STRIP - 1) / STRIP;
+        split(planes * strips, STRIP * stepY, floatColumnScratch,
+            () -> new float[stepY / 2 * Math.min(STRIP, stepX)], (start, end, scratch) -> {
+              for (int s = start; s < end; s++) {
+                int left = (s % strips) * STRIP;
+                inverseStrip(data, (s / strips) * width * height + left,
+                    Math.min(STRIP, stepX - left), stepY, scratch);
+              }
+            });
+      }
+      if (stepX > 1) {
+        split(planes * rows, stepX, floatRowScratch, () -> new float[stepX / 2],
+            (start, end, scratch) -> {
+              for (int r = start; r < end; r++) {
+                inverseRow(data, rowStart(r, rows), stepX, scratch);
+              }
+            });
+      }
+    }
+  }
+
+  /**
+   * Transforms the first length values of a float row.
+   *
+   * @param data    the array holding the row
+   * @param start   the index of the first value of the row
+   * @param length  the number of values to transform, a power of two
+   * @param scratch space for length / 2 differences
+   */
+  private static void forwardRow(float[] data, int start, int length, float[] scratch) {
+    int half = length / 2;
+    for (int k = 0; k < half; k++) {
+      float a = data[start + 2 * k];
+      float b = data[start + 2 * k + 1];
+      data[start + k] = (a + b) / SQRT_2_FLOAT;
+      scratch[k] = (a - b) / SQRT_2_FLOAT;
+    }
+    System.arraycopy(scratch, 0, data, start + half, half);
+  }
+
+  /**
+   * Inverts the transform of the first length values of a float row.
+   *
+   * @param data    the array holding the row
+   * @param start   the index of the first value of the row
+   * @param length  the number of values to invert, a power of two
+   * @param scratch space for length / 2 differences
+   */
+  private static void inverseRow(float[] data, int start, int length, float[] scratch) {
+    int half = length / 2;
+    System.arraycopy(data, start + half, scratch, 0, half);
+    for (int k = half - 1; k >= 0; k--) {
+      float avg = data[start + k];
+      float diff = scratch[k];
+      data[start + 2 * k] = (avg + diff) / SQRT_2_FLOAT;
+      data[start + 2 * k + 1] = (avg - diff) / SQRT_2_FLOAT;
+    }
+  }
+
+  /**
+   * Transforms the first stepY values of each column of a float strip.
+   *
+   * @param data    the array holding the plane
+   * @param start   the index of the top-left value of the strip
+   * @param strip   the number of columns in the strip
+   * @param stepY   the number of rows to transform, a power of two
+   * @param scratch space for stepY / 2 x strip differences
+   */
+  private void forwardStrip(float[] data, int start, int strip, int stepY, float[] scratch) {
+    int half = stepY / 2;
+    for (int k = 0; k < half; k++) {
+      int even = start + 2 * k * width;
+      int odd = even + width;
+      int out = start + k * width;
+      int differences = k * strip;
+      for (int j = 0; j < strip; j++) {
+        float a = data[even + j];
+        float b = data[odd + j];
+        data[out + j] = (a + b) / SQRT_2_FLOAT;
+        scratch[differences + j] = (a - b) / SQRT_2_FLOAT;
+      }
+    }
+    for (int k = 0; k < half; k++) {
+      System.arraycopy(scratch, k * strip, data, start + (half + k) * width, strip);
+    }
+  }
+
+  /**
+   * Inverts the transform of the first stepY values of each column of a float strip.
+   *
+   * @param data    the array holding the plane
+   * @param start   the index of the top-left value of the strip
+   * @param strip   the number of columns in the strip
+   * @param stepY   the number of rows to invert, a power of two
+   * @param scratch space for stepY / 2 x strip differences
+   */
+  private void inverseStrip(float[] data, int start, int strip, int stepY, float[] scratch) {
+    int half = stepY / 2;
+    for (int k = 0; k < half; k++) {
+      System.arraycopy(data, start + (half + k) * width, scratch, k * strip, strip);
+    }
+    for (int k = half - 1; k >= 0; k--) {
+      int in = start + k * width;
+      int even = start + 2 * k * width;
+      int odd = even + width;
+      int differences = k * strip;
+      for (int j = 0; j < strip; j++) {
+        float avg = data[in + j];
+        float diff = scratch[differences + j];
+        data[even + j] = (avg + diff) / SQRT_2_FLOAT;
+        data[odd + j] = (avg - diff) / SQRT_2_FLOAT;
+      }
+    }
+  }
+
+  /**
+   * Computes the index of the first value of a row, counting the given number of rows per plane.
+   *
+   * @param row  the row, counted over all planes
+   * @param rows the number of rows of each plane taking part
+   * @return the index of the row's first value
+   */
+  private int rowStart(int row, int rows) {
+    return ((row / rows) * height + row % rows) * width;
+  }
+
+  /**
+   * Runs a task over a number of rows or strips, on the calling thread with the shared scratch
+   * space when the executor would not split them, or in bands with scratch space of their own.
+   *
+   * @param count    the number of rows or strips
+   * @param work     the number of values each row or strip touches
+   * @param shared   the scratch space of this instance
+   * @param allocate creates scratch space for one band
+   * @param task     the work on a range of rows or strips
+   * @param <T>      the type of the scratch array
+   */
+  private <T> void split(int count, int work, T shared, Supplier<T> allocate,
+      ScratchTask<T> task) {
+    if (bands.runsSequentially(work, count)) {
+      task.run(0, count, shared);
+    } else {
+      bands.forEachBand(work, count, (start, end) -> task.run(start, end, allocate.get()));
+    }
+  }
+}
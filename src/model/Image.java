@@ -2,17 +2,27 @@ package model;
 
 import javax.swing.ImageIcon;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 /**
  * This class represents an image consisting of a grid of pixels. Each image has a specified width
- * and height, and each pixel is represented by an instance of the Pixel class.
+ * and height. Pixels are stored in a single row-major array with one packed 0xRRGGBB value per
+ * pixel, so an image costs four bytes per pixel regardless of how it is accessed. {@link Pixel}
+ * objects are only created on demand by {@link #getPixel(int, int)}.
+ *
+ * <p>An image can instead be constructed over a {@link PixelSource}, such as a file mapped into
+ * memory, and then reads its pixels from the source as they are asked for. The pixels are copied
+ * into an array of the image's own the first time any of them is changed (copy on write), so the
+ * source is never written.
  */
 public class Image {
 
-  private int width;
-  private int height;
-  private Pixel[][] pixels;
-  private int[][][] imageData;
+  private final int width;
+  private final int height;
+  private final PixelSource source;
+  // Volatile so that an array filled by copySource() is seen complete by threads that read
+  // without the lock
+  private volatile int[] data;
 
   /**
    * Constructs an Image with the specified width and height. Initializes all pixels to black (RGB:
@@ -20,37 +30,49 @@ public class Image {
    *
    * @param width  the width of the image in pixels
    * @param height the height of the image in pixels
+   * @throws NegativeArraySizeException if either dimension is negative
+   * @throws OutOfMemoryError           if the image has more pixels than an array can hold
    */
   public Image(int width, int height) {
     this.width = width;
     this.height = height;
-    this.pixels = new Pixel[height][width];
-    this.imageData = new int[3][height][width];
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        pixels[y][x] = new Pixel(0, 0, 0);
-        imageData[0][y][x] = 0;
-        imageData[1][y][x] = 0;
-        imageData[2][y][x] = 0;
-      }
-    }
+    this.source = null;
+    this.data = new int[pixelCount(width, height)];
+  }
+
+  /**
+   * Constructs an Image of the specified width and height whose pixels are read from the given
+   * source until one of them is changed. No pixel array is allocated until then.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @param source the storage holding the pixels
+   * @throws NegativeArraySizeException if either dimension is negative
+   * @throws OutOfMemoryError           if the image has more pixels than an array can hold
+   */
+  public Image(int width, int height, PixelSource source) {
+    pixelCount(width, height);
+    this.width = width;
+    this.height = height;
+    this.source = source;
+    this.data = null;
   }
 
   /**
-   * Constructs an Image from the provided image data.
+   * Constructs an Image from the provided image data. Channel values are clamped to the range
+   * [0, 255] as they are packed.
    *
-   * @param imageData the 3D array representing the image data
+   * @param imageData the 3D array representing the image data, indexed as [channel][y][x]
    * @param width     the width of the image in pixels
    * @param height    the height of the image in pixels
    */
   public Image(int[][][] imageData, int width, int height) {
-    this.imageData = imageData;
-    this.width = width;
-    this.height = height;
-    this.pixels = new Pixel[height][width];
+    this(width, height);
+    int[] pixels = data;
     for (int y = 0; y < height; y++) {
+      int offset = y * width;
       for (int x = 0; x < width; x++) {
-        pixels[y][x] = new Pixel(imageData[0][y][x], imageData[1][y][x], imageData[2][y][x]);
+        pixels[offset + x] = pack(imageData[0][y][x], imageData[1][y][x], imageData[2][y][x]);
       }
     }
   }
@@ -74,14 +96,17 @@ public class Image {
   }
 
   /**
-   * Retrieves the pixel located at the specified (x, y) position.
+   * Retrieves the pixel located at the specified (x, y) position. The returned Pixel is a snapshot;
+   * modifying the image afterwards does not change it.
    *
    * @param x the x-coordinate of the pixel
    * @param y the y-coordinate of the pixel
    * @return the Pixel at the specified position
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
    */
   public Pixel getPixel(int x, int y) {
-    return pixels[y][x];
+    int rgb = rgb(x, y);
+    return new Pixel((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
   }
 
   /**
@@ -90,46 +115,156 @@ public class Image {
    * @param x     the x-coordinate of the pixel
    * @param y     the y-coordinate of the pixel
    * @param pixel the pixel to set at the specified position
+   * @throws NullPointerException           if the pixel is null
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
    */
   public void setPixel(int x, int y, Pixel pixel) {
-    pixels[y][x] = pixel;
-    imageData[0][y][x] = pixel.getRed();
-    imageData[1][y][x] = pixel.getGreen();
-    imageData[2][y][x] = pixel.getBlue();
+    int index = index(x, y);
+    pixels()[index] = pack(pixel.getRed(), pixel.getGreen(), pixel.getBlue());
   }
 
   /**
-   * Gets the image data as a 3D array.
+   * Gets the red value of the pixel at the specified (x, y) position without creating a
+   * {@link Pixel}.
    *
-   * @return the 3D array representing the image data
+   * @param x the x-coordinate of the pixel
+   * @param y the y-coordinate of the pixel
+   * @return the red value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
    */
-  public int[][][] getImageData() {
-    return imageData;
+  public int getRed(int x, int y) {
+    return (rgb(x, y) >> 16) & 0xFF;
   }
 
   /**
-   * Updates the image data from the pixels array.
+   * Gets the green value of the pixel at the specified (x, y) position without creating a
+   * {@link Pixel}.
+   *
+   * @param x the x-coordinate of the pixel
+   * @param y the y-coordinate of the pixel
+   * @return the green value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
    */
-  private void updateImageDataFromPixels() {
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        Pixel pixel = pixels[y][x];
-        imageData[0][y][x] = pixel.getRed();
-        imageData[1][y][x] = pixel.getGreen();
-        imageData[2][y][x] = pixel.getBlue();
+  public int getGreen(int x, int y) {
+    return (rgb(x, y) >> 8) & 0xFF;
+  }
+
+  /**
+   * Gets the blue value of the pixel at the specified (x, y) position without creating a
+   * {@link Pixel}.
+   *
+   * @param x the x-coordinate of the pixel
+   * @param y the y-coordinate of the pixel
+   * @return the blue value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
+   */
+  public int getBlue(int x, int y) {
+    return rgb(x, y) & 0xFF;
+  }
+
+  /**
+   * Gets the pixel at the specified (x, y) position packed as 0xRRGGBB.
+   *
+   * @param x the x-coordinate of the pixel
+   * @param y the y-coordinate of the pixel
+   * @return the packed RGB value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
+   */
+  public int getRGB(int x, int y) {
+    return rgb(x, y);
+  }
+
+  /**
+   * Sets the pixel at the specified (x, y) position from individual channel values, clamping each
+   * to [0, 255] as {@link Pixel} does.
+   *
+   * @param x     the x-coordinate of the pixel
+   * @param y     the y-coordinate of the pixel
+   * @param red   the red value of the pixel
+   * @param green the green value of the pixel
+   * @param blue  the blue value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
+   */
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    int index = index(x, y);
+    pixels()[index] = pack(red, green, blue);
+  }
+
+  /**
+   * Sets the pixel at the specified (x, y) position from a packed 0xRRGGBB value. Any bits above
+   * the blue, green and red bytes are ignored.
+   *
+   * @param x   the x-coordinate of the pixel
+   * @param y   the y-coordinate of the pixel
+   * @param rgb the packed RGB value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
+   */
+  public void setRGB(int x, int y, int rgb) {
+    int index = index(x, y);
+    pixels()[index] = rgb & 0xFFFFFF;
+  }
+
+  /**
+   * Copies one row of the image into the given buffer as packed 0xRRGGBB values. The buffer must
+   * hold at least {@link #getWidth()} values; this lets per-pixel loops reuse one buffer per row
+   * instead of creating a {@link Pixel} for every pixel.
+   *
+   * @param y   the y-coordinate of the row
+   * @param row the buffer receiving the packed row
+   * @throws ArrayIndexOutOfBoundsException if the row lies outside the image or the buffer is too
+   *                                        short
+   */
+  public void getRow(int y, int[] row) {
+    checkRow(y);
+    int[] pixels = data;
+    if (pixels == null) {
+      if (row.length < width) {
+        throw new ArrayIndexOutOfBoundsException("Row buffer of " + row.length
+            + " is shorter than a " + width + "x" + height + " image");
       }
+      source.getRow(y, row);
+    } else {
+      System.arraycopy(pixels, y * width, row, 0, width);
     }
   }
 
   /**
-   * Updates the pixels array from the image data.
+   * Replaces one row of the image with the packed 0xRRGGBB values in the given buffer. Any bits
+   * above the blue, green and red bytes are ignored.
+   *
+   * @param y   the y-coordinate of the row
+   * @param row the buffer holding at least {@link #getWidth()} packed values
+   * @throws ArrayIndexOutOfBoundsException if the row lies outside the image or the buffer is too
+   *                                        short
    */
-  private void updatePixelsFromImageData() {
+  public void setRow(int y, int[] row) {
+    checkRow(y);
+    int[] pixels = pixels();
+    int offset = y * width;
+    for (int x = 0; x < width; x++) {
+      pixels[offset + x] = row[x] & 0xFFFFFF;
+    }
+  }
+
+  /**
+   * Gets the image data as a 3D array indexed as [channel][y][x]. The array is built on each call
+   * from the packed pixel storage, so changes to it are not reflected in the image.
+   *
+   * @return the 3D array representing the image data
+   */
+  public int[][][] getImageData() {
+    int[][][] imageData = new int[3][height][width];
+    int[] row = new int[width];
     for (int y = 0; y < height; y++) {
+      getRow(y, row);
       for (int x = 0; x < width; x++) {
-        pixels[y][x] = new Pixel(imageData[0][y][x], imageData[1][y][x], imageData[2][y][x]);
+        int rgb = row[x];
+        imageData[0][y][x] = (rgb >> 16) & 0xFF;
+        imageData[1][y][x] = (rgb >> 8) & 0xFF;
+        imageData[2][y][x] = rgb & 0xFF;
       }
     }
+    return imageData;
   }
 
   /**
@@ -148,22 +283,137 @@ public class Image {
    * @return the BufferedImage representation of this image.
    */
   public BufferedImage toBufferedImage() {
-    int width = getWidth();  // Get image width
-    int height = getHeight(); // Get image height
-
     BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
+    // A new TYPE_INT_ARGB image stores its rows one after another from index 0
+    int[] argb = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+    int[] row = new int[width];
     for (int y = 0; y < height; y++) {
+      getRow(y, row);
+      int offset = y * width;
       for (int x = 0; x < width; x++) {
-        Pixel pixel = getPixel(x, y); // Get the Pixel object
-        if (pixel != null) {
-          int argb = pixel.toARGB(); // Convert Pixel to ARGB
-          bufferedImage.setRGB(x, y, argb);
-        }
+        argb[offset + x] = 0xFF000000 | row[x];
       }
     }
-
     return bufferedImage;
   }
 
-}
\ No newline at end of file
+  /**
+   * Reads the pixel at the specified (x, y) position from the pixel array, or from the source if
+   * there is no array yet.
+   *
+   * @param x the x-coordinate of the pixel
+   * @param y the y-coordinate of the pixel
+   * @return the packed RGB value of the pixel
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
+   */
+  private int rgb(int x, int y) {
+    int index = index(x, y);
+    int[] pixels = data;
+    return pixels != null ? pixels[index] : source.getRGB(x, y);
+  }
+
+  /**
+   * Gets the pixel array for writing, first copying the pixels from the source if the image has
+   * no array yet.
+   *
+   * @return the pixel array
+   */
+  private int[] pixels() {
+    int[] pixels = data;
+    return pixels != null ? pixels : copySource();
+  }
+
+  /**
+   * Copies the pixels of the source into a new pixel array, once, even when rows are written from
+   * several threads. The array is published through the volatile field only once it is filled, so
+   * threads reading pixels without the lock see either no array or the complete copy.
+   *
+   * @return the pixel array
+   */
+  private synchronized int[] copySource() {
+    if (data == null) {
+      int[] pixels = new int[width * height];
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        source.getRow(y, row);
+        System.arraycopy(row, 0, pixels, y * width, width);
+      }
+      data = pixels;
+    }
+    return data;
+  }
+
+  /**
+   * Computes the offset of the specified (x, y) position in the packed pixel array, rejecting
+   * positions outside the image so that they cannot wrap into a neighbouring row.
+   *
+   * @param x the x-coordinate of the pixel
+   * @param y the y-coordinate of the pixel
+   * @return the offset of the pixel in the packed array
+   * @throws ArrayIndexOutOfBoundsException if the position lies outside the image
+   */
+  private int index(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height) {
+      throw new ArrayIndexOutOfBoundsException(
+          "Pixel (" + x + ", " + y + ") is outside a " + width + "x" + height + " image");
+    }
+    return y * width + x;
+  }
+
+  /**
+   * Rejects row indices outside the image.
+   *
+   * @param y the y-coordinate of the row
+   * @throws ArrayIndexOutOfBoundsException if the row lies outside the image
+   */
+  private void checkRow(int y) {
+    if (y < 0 || y >= height) {
+      throw new ArrayIndexOutOfBoundsException(
+          "Row " + y + " is outside a " + width + "x" + height + " image");
+    }
+  }
+
+  /**
+   * Packs the given channel values into a single 0xRRGGBB value, clamping each to [0, 255].
+   *
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   * @return the packed RGB value
+   */
+  private static int pack(int red, int green, int blue) {
+    return (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+  }
+
+  /**
+   * Clamps the given value to ensure it remains within the valid range of [0, 255].
+   *
+   * @param value the value to clamp
+   * @return the clamped value within [0, 255]
+   */
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  /**
+   * Computes the number of pixels in an image of the given dimensions, failing the same way an
+   * array allocation would for negative or oversized dimensions.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @return the number of pixels in the image
+   * @throws NegativeArraySizeException if either dimension is negative
+   * @throws OutOfMemoryError           if the pixel count does not fit in an array
+   */
+  private static int pixelCount(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new NegativeArraySizeException(width + "x" + height);
+    }
+    long count = (long) width * height;
+    if (count > Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("Requested array size exceeds VM limit");
+    }
+    return (int) count;
+  }
+
+}
@@ -0,0 +1,64 @@
+package model;
+
+/**
+ * This class represents how far one image is from another, as measured by
+ * {@link ImageProcessor#compare}: the mean squared error and peak signal-to-noise ratio of their
+ * channel values, and their structural similarity. See {@link ImageMetrics} for how each measure
+ * is defined.
+ *
+ * <p>Comparisons are immutable.
+ */
+public final class ImageComparison {
+
+  private final double meanSquaredError;
+  private final double structuralSimilarity;
+
+  /**
+   * Constructs a comparison.
+   *
+   * @param meanSquaredError     the mean squared error over all channel values
+   * @param structuralSimilarity the mean structural similarity index
+   */
+  public ImageComparison(double meanSquaredError, double structuralSimilarity) {
+    this.meanSquaredError = meanSquaredError;
+    this.structuralSimilarity = structuralSimilarity;
+  }
+
+  /**
+   * Gets the mean squared error.
+   *
+   * @return the mean squared error over all channel values, 0 for identical images
+   */
+  public double getMeanSquaredError() {
+    return meanSquaredError;
+  }
+
+  /**
+   * Gets the peak signal-to-noise ratio.
+   *
+   * @return the ratio in decibels, or positive infinity for identical images
+   */
+  public double getPeakSignalToNoiseRatio() {
+    return ImageMetrics.peakSignalToNoiseRatio(meanSquaredError);
+  }
+
+  /**
+   * Gets the structural similarity.
+   *
+   * @return the mean SSIM index, 1 for identical images
+   */
+  public double getStructuralSimilarity() {
+    return structuralSimilarity;
+  }
+
+  /**
+   * Describes the comparison.
+   *
+   * @return the three measures, rounded for display
+   */
+  @Override
+  public String toString() {
+    return String.format("MSE %.3f, PSNR %.2f dB, SSIM %.4f", meanSquaredError,
+        getPeakSignalToNoiseRatio(), structuralSimilarity);
+  }
+}
@@ -0,0 +1,249 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class measures how far one image is from another, as used to judge the result of a
+ * compression, a downscale or a levels adjustment against its source. The mean squared error is
+ * averaged over the red, green and blue values of every pixel, and the peak signal-to-noise ratio
+ * is derived from it for 8-bit channels.
+ *
+ * <p>The structural similarity (SSIM) compares the local means, variances and covariance of the
+ * two images in {@value #WINDOW} x {@value #WINDOW} windows placed every {@value #STEP} pixels,
+ * with the usual constants (0.01 x 255)^2 and (0.03 x 255)^2, and averages the index over every
+ * window and channel. Images smaller than a window along an axis use a single window as wide or
+ * tall as the image.
+ *
+ * <p>Both measures stream over the images a row at a time, holding only a few rows' worth of
+ * sums, and can be split among the threads of a {@link RowBandExecutor}. Partial results are
+ * combined in a fixed order, so the measures do not depend on the number of threads.
+ */
+public final class ImageMetrics {
+
+  private static final double PEAK = 255.0;
+  private static final int WINDOW = 8;
+  private static final int STEP = 4;
+  private static final double C1 = (0.01 * PEAK) * (0.01 * PEAK);
+  private static final double C2 = (0.03 * PEAK) * (0.03 * PEAK);
+  // Per column and channel: sum of x, sum of y, sum of x^2, sum of y^2, sum of x*y
+  private static final int STATISTICS = 5;
+
+  private ImageMetrics() {
+  }
+
+  /**
+   * Computes the mean squared error between two images of the same size.
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @return the mean of the squared differences of every channel value, 0 for identical images
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  public static double meanSquaredError(Image expected, Image actual) {
+    return meanSquaredError(expected, actual, RowBandExecutor.SEQUENTIAL);
+  }
+
+  /**
+   * Computes the mean squared error between two images of the same size, splitting the rows among
+   * the threads of the given executor.
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @param bands    the executor that runs the rows
+   * @return the mean of the squared differences of every channel value
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  static double meanSquaredError(Image expected, Image actual, RowBandExecutor bands) {
+    checkSameSize(expected, actual);
+    int width = expected.getWidth();
+    int height = expected.getHeight();
+    if (width == 0 || height == 0) {
+      return 0;
+    }
+    // Squared differences are integers, so the total is exact in any order
+    AtomicLong total = new AtomicLong();
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] expectedRow = new int[width];
+      int[] actualRow = new int[width];
+      long sum = 0;
+      for (int y = startY; y < endY; y++) {
+        expected.getRow(y, expectedRow);
+        actual.getRow(y, actualRow);
+        for (int x = 0; x < width; x++) {
+          int a = expectedRow[x];
+          int b = actualRow[x];
+          int red = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+          int green = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+          int blue = (a & 0xFF) - (b & 0xFF);
+          sum += red * red + green * green + blue * blue;
+        }
+      }
+      total.addAndGet(sum);
+    });
+    return (double) total.get() / (3.0 * width * height);
+  }
+
+  /**
+   * Computes the peak signal-to-noise ratio of an image against a reference of the same size.
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @return the ratio in decibels, or positive infinity for identical images
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  public static double peakSignalToNoiseRatio(Image expected, Image actual) {
+    return peakSignalToNoiseRatio(meanSquaredError(expected, actual));
+  }
+
+  /**
+   * Converts a mean squared error of 8-bit channel values to a peak signal-to-noise ratio.
+   *
+   * @param meanSquaredError the mean squared error
+   * @return the ratio in decibels, or positive infinity for an error of 0
+   */
+  public static double peakSignalToNoiseRatio(double meanSquaredError) {
+    if (meanSquaredError == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return 10 * Math.log10(PEAK * PEAK / meanSquaredError);
+  }
+
+  /**
+   * Computes the mean structural similarity of an image against a reference of the same size.
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @return the index, 1 for identical images and lower the less alike they are
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  public static double structuralSimilarity(Image expected, Image actual) {
+    return structuralSimilarity(expected, actual, RowBandExecutor.SEQUENTIAL);
+  }
+
+  /**
+   * Computes the mean structural similarity of an image against a reference of the same size,
+   * splitting the rows of windows among the threads of the given executor. Each row of windows is
+   * summed on its own, and the rows are added in order.
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @param bands    the executor that runs the rows of windows
+   * @return the index, 1 for identical images and lower the less alike they are
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  static double structuralSimilarity(Image expected, Image actual, RowBandExecutor bands) {
+    checkSameSize(expected, actual);
+    int width = expected.getWidth();
+    int height = expected.getHeight();
+    if (width == 0 || height == 0) {
+      return 1;
+    }
+    int windowWidth = Math.min(WINDOW, width);
+    int windowHeight = Math.min(WINDOW, height);
+    int across = (width - windowWidth) / STEP + 1;
+    int down = (height - windowHeight) / STEP + 1;
+    double[] rowTotals = new double[down];
+    bands.forEachBand(width * STEP, down, (startRow, endRow) -> {
+      int[] expectedRow = new int[width];
+      int[] actualRow = new int[width];
+      int[] columns = new int[width * 3 * STATISTICS];
+      for (int row = startRow; row < endRow; row++) {
+        sumColumns(expected, actual, row * STEP, windowHeight, expectedRow, actualRow, columns);
+        rowTotals[row] = sumWindows(columns, across, windowWidth, windowHeight);
+      }
+    });
+    double total = 0;
+    for (double rowTotal : rowTotals) {
+      total += rowTotal;
+    }
+    return total / (3.0 * across * down);
+  }
+
+  /**
+   * Sums the statistics of each column and channel over the rows of one row of windows.
+   *
+   * @param expected    the reference image
+   * @param actual      the image to measure
+   * @param top         the top row of the windows
+   * @param rows        the height of a window
+   * @param expectedRow space for a row of the reference image
+   * @param actualRow   space for a row of the measured image
+   * @param columns     receives the statistics of every column and channel
+   */
+  private static void sumColumns(Image expected, Image actual, int top, int rows,
+      int[] expectedRow, int[] actualRow, int[] columns) {
+    Arrays.fill(columns, 0);
+    int width = expectedRow.length;
+    for (int y = top; y < top + rows; y++) {
+      expected.getRow(y, expectedRow);
+      actual.getRow(y, actualRow);
+      for (int x = 0; x < width; x++) {
+        int base = x * 3 * STATISTICS;
+        for (int shift = 16, c = 0; shift >= 0; shift -= 8, c += STATISTICS) {
+          int a = (expectedRow[x] >> shift) & 0xFF;
+          int b = (actualRow[x] >> shift) & 0xFF;
+          columns[base + c] += a;
+          columns[base + c + 1] += b;
+          columns[base + c + 2] += a * a;
+          columns[base + c + 3] += b * b;
+          columns[base + c + 4] += a * b;
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds up the SSIM index of every window and channel along one row of windows.
+   *
+   * @param columns      the statistics of every column and channel over the rows of the windows
+   * @param across       the number of windows along the row
+   * @param windowWidth  the width of a window
+   * @param windowHeight the height of a window
+   * @return the sum of the indices
+   */
+  private static double sumWindows(int[] columns, int across, int windowWidth,
+      int windowHeight) {
+    double pixels = (double) windowWidth * windowHeight;
+    double total = 0;
+    for (int window = 0; window < across; window++) {
+      int left = window * STEP;
+      for (int c = 0; c < 3 * STATISTICS; c += STATISTICS) {
+        long sumA = 0;
+        long sumB = 0;
+        long sumAa = 0;
+        long sumBb = 0;
+        long sumAb = 0;
+        for (int x = left; x < left + windowWidth; x++) {
+          int base = x * 3 * STATISTICS + c;
+          sumA += columns[base];
+          sumB += columns[base + 1];
+          sumAa += columns[base + 2];
+          sumBb += columns[base + 3];
+          sumAb += columns[base + 4];
+        }
+        double meanA = sumA / pixels;
+        double meanB = sumB / pixels;
+        double varianceA = sumAa / pixels - meanA * meanA;
+        double varianceB = sumBb / pixels - meanB * meanB;
+        double covariance = sumAb / pixels - meanA * meanB;
+        total += (2 * meanA * meanB + C1) * (2 * covariance + C2)
+            / ((meanA * meanA + meanB * meanB + C1) * (varianceA + varianceB + C2));
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Checks that two images have the same size.
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  private static void checkSameSize(Image expected, Image actual) {
+    if (actual.getWidth() != expected.getWidth() || actual.getHeight() != expected.getHeight()) {
+      throw new IllegalArgumentException("Images must have the same dimensions.");
+    }
+  }
+}
@@ -88,6 +88,18 @@ public interface ImageProcessor {
    */
   Image applyFilter(Image image, double[][] kernel);
 
+  /**
+   * Applies a separable filter to the given image as a horizontal pass followed by a vertical pass.
+   * This is equivalent to applying the 2D kernel whose entries are vertical[i] * horizontal[j], at a
+   * cost proportional to the sum rather than the product of the kernel lengths.
+   *
+   * @param image      the image to apply the filter to
+   * @param horizontal the odd-length kernel applied along each row
+   * @param vertical   the odd-length kernel applied along each column
+   * @return a new Image with the filter applied
+   */
+  Image applySeparableFilter(Image image, double[] horizontal, double[] vertical);
+
   /**
    * Blurs the given image using a Gaussian blur filter.
    *
@@ -177,6 +189,74 @@ public interface ImageProcessor {
    */
   Image compress(Image image, int percentage);
 
+  /**
+   * Compresses the given image as {@link #compress(Image, int)} does, but splits it into square
+   * tiles and compresses each tile on its own, discarding the given percentage of the data of each
+   * tile. Memory use is bounded by the tile size rather than the image size, and tiles can be
+   * compressed in parallel.
+   *
+   * @param image      the image to compress
+   * @param percentage the percentage of data to reduce in each tile (0-100)
+   * @param tileSize   the width and height of a tile, in pixels
+   * @return a new Image representing the compressed version of the original
+   * @throws IllegalArgumentException if the tile size is less than 1
+   */
+  Image compress(Image image, int percentage, int tileSize);
+
+  /**
+   * Compresses the given image as {@link #compress(Image, int)} does, with the given options: the
+   * image can be compressed whole or in tiles, the wavelet coefficients can be held in double
+   * or single precision, and the result can keep its sparse coefficients for storage as .pvmw.
+   *
+   * @param image      the image to compress
+   * @param percentage the percentage of data to reduce, in the image or in each tile (0-100)
+   * @param options    how to compress the image
+   * @return a new Image representing the compressed version of the original
+   */
+  Image compress(Image image, int percentage, CompressionOptions options);
+
+  /**
+   * Compresses the given image at the percentage, from 0 to 99, found by bisection to be nearest
+   * the boundary of the given target. Quality falls and size shrinks as the percentage grows, so
+   * for a least PSNR this is the most compressed image that still meets it, and for a largest
+   * stored size it is the least compressed, and so best, image that fits.
+   *
+   * @param image   the image to compress
+   * @param target  the quality or size the compressed image must meet
+   * @param options how to compress the image; it must be compressed whole
+   * @return the compressed image, the chosen percentage, and its error against the original; if
+   *         no percentage meets the target, the nearest miss: 0% for a PSNR, 99% for a size
+   * @throws IllegalArgumentException if the options ask for tiles
+   */
+  CompressionResult compress(Image image, CompressionTarget target, CompressionOptions options);
+
+  /**
+   * Creates a preview of the given image at 1 / 2^levels of its size from its wavelet
+   * coefficients, inverting only the coarsest levels of the pyramid. Each preview pixel is the
+   * average of the block of pixels it covers. A compressed image is previewed from the
+   * coefficients that survived its compression.
+   *
+   * @param image  the image to preview
+   * @param levels the number of levels to skip: 0 for full size, 1 for half, 2 for a quarter
+   * @return a new Image of ceil(width / 2^levels) by ceil(height / 2^levels) pixels
+   * @throws IllegalArgumentException if the number of levels is negative, or the image was
+   *                                  compressed in tiles whose size is not a multiple of
+   *                                  2^levels
+   */
+  Image preview(Image image, int levels);
+
+  /**
+   * Measures how far an image is from a reference of the same size, such as the result of a
+   * compression, downscale or levels adjustment against its source: the mean squared error and
+   * PSNR of their channel values and their structural similarity (SSIM).
+   *
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @return the measures
+   * @throws IllegalArgumentException if the images differ in size
+   */
+  ImageComparison compare(Image expected, Image actual);
+
   /**
    * Generates a histogram image for the given image, displaying the frequency distribution of pixel
    * intensity values. The histogram includes separate frequency graphs for each color channel (red,
@@ -211,6 +291,28 @@ public interface ImageProcessor {
    */
   Image levelsAdjust(Image image, int shadowsValue, int midtonesValue, int highlightsValue);
 
+  /**
+   * Maps every channel of every pixel of the given image through a per-channel lookup table.
+   * Brightness, levels, color correction, and tone curves can all be expressed as a
+   * {@link LookupTable}.
+   *
+   * @param image the image to map
+   * @param table the lookup table to apply
+   * @return a new Image with the table applied
+   */
+  Image applyLookupTable(Image image, LookupTable table);
+
+  /**
+   * Applies a chain of per-pixel operations to the given image in a single pass, without creating
+   * an intermediate image for each operation. The result is identical to applying the operations
+   * one at a time.
+   *
+   * @param image    the image to process
+   * @param pipeline the operations to apply
+   * @return a new Image with every operation of the pipeline applied
+   */
+  Image applyPipeline(Image image, PointPipeline pipeline);
+
   /**
    * Combines the original and processed images into a single image with a split view.
    *
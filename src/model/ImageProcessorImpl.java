@@ -9,6 +9,40 @@ import java.util.Arrays;
  */
 public class ImageProcessorImpl implements ImageProcessor {
 
+  private final RowBandExecutor bands;
+
+  /**
+   * Constructs an ImageProcessorImpl that runs per-pixel operations on as many threads as there
+   * are available processors.
+   */
+  public ImageProcessorImpl() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs an ImageProcessorImpl that runs per-pixel operations on up to the given number of
+   * threads. Images are split into bands of rows processed in parallel, and images smaller than
+   * 64K pixels are processed sequentially. Results are identical for every parallelism level.
+   *
+   * @param parallelism the number of threads to use, where 1 means always sequential
+   * @throws IllegalArgumentException if parallelism is less than 1
+   */
+  public ImageProcessorImpl(int parallelism) {
+    this(parallelism, RowBandExecutor.DEFAULT_SEQUENTIAL_THRESHOLD);
+  }
+
+  /**
+   * Constructs an ImageProcessorImpl with the given parallelism and the number of pixels below
+   * which images are processed sequentially.
+   *
+   * @param parallelism         the number of threads to use, where 1 means always sequential
+   * @param sequentialThreshold the number of pixels below which images are processed sequentially
+   * @throws IllegalArgumentException if parallelism is less than 1 or the threshold is negative
+   */
+  ImageProcessorImpl(int parallelism, int sequentialThreshold) {
+    this.bands = new RowBandExecutor(parallelism, sequentialThreshold);
+  }
+
   /**
    * Visualizes the red component of the given image by setting the red value in each pixel while
    * setting green and blue to zero.
@@ -18,15 +52,7 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image visualizeRedComponent(Image image) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int redValue = pixel.getChannel(0);
-        result.setPixel(x, y, new Pixel(redValue, redValue, redValue));
-      }
-    }
-    return result;
+    return visualizeChannel(image, 16);
   }
 
   /**
@@ -38,15 +64,7 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image visualizeGreenComponent(Image image) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int greenValue = pixel.getChannel(1);
-        result.setPixel(x, y, new Pixel(greenValue, greenValue, greenValue));
-      }
-    }
-    return result;
+    return visualizeChannel(image, 8);
   }
 
   /**
@@ -58,14 +76,28 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image visualizeBlueComponent(Image image) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int blueValue = pixel.getChannel(2);
-        result.setPixel(x, y, new Pixel(blueValue, blueValue, blueValue));
+    return visualizeChannel(image, 0);
+  }
+
+  /**
+   * Builds a greyscale image from a single color channel of the given image.
+   *
+   * @param image the image to visualize a channel of
+   * @param shift the bit offset of the channel in a packed 0xRRGGBB value
+   * @return a new Image visualizing the channel
+   */
+  private Image visualizeChannel(Image image, int shift) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image result = new Image(width, height);
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        PointOps.channel(row, width, shift);
+        result.setRow(y, row);
       }
-    }
+    });
     return result;
   }
 
@@ -86,10 +118,10 @@ public class ImageProcessorImpl implements ImageProcessor {
 
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
-        int r = red.getPixel(x, y).getRed();
-        int g = green.getPixel(x, y).getGreen();
-        int b = blue.getPixel(x, y).getBlue();
-        result.setPixel(x, y, new Pixel(r, g, b));
+        int r = red.getRed(x, y);
+        int g = green.getGreen(x, y);
+        int b = blue.getBlue(x, y);
+        result.setRGB(x, y, r, g, b);
       }
     }
 
@@ -107,10 +139,14 @@ public class ImageProcessorImpl implements ImageProcessor {
     int width = image.getWidth();
     int height = image.getHeight();
     Image result = new Image(width, height);
+    int[] row = new int[width];
+    int[] flipped = new int[width];
     for (int y = 0; y < height; y++) {
+      image.getRow(y, row);
       for (int x = 0; x < width; x++) {
-        result.setPixel(width - 1 - x, y, image.getPixel(x, y));
+        flipped[width - 1 - x] = row[x];
       }
+      result.setRow(y, flipped);
     }
     return result;
   }
@@ -126,10 +162,10 @@ public class ImageProcessorImpl implements ImageProcessor {
     int width = image.getWidth();
     int height = image.getHeight();
     Image result = new Image(width, height);
+    int[] row = new int[width];
     for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        result.setPixel(x, height - 1 - y, image.getPixel(x, y));
-      }
+      image.getRow(y, row);
+      result.setRow(height - 1 - y, row);
     }
     return result;
   }
@@ -170,20 +206,23 @@ public class ImageProcessorImpl implements ImageProcessor {
     int height = image.getHeight();
     Image result = new Image(width, height);
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int r = clamp(pixel.getRed() + adjustment);
-        int g = clamp(pixel.getGreen() + adjustment);
-        int b = clamp(pixel.getBlue() + adjustment);
-        result.setPixel(x, y, new Pixel(r, g, b));
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        PointOps.brightness(row, width, adjustment);
+        result.setRow(y, row);
       }
-    }
+    });
     return result;
   }
 
   /**
-   * Applies a specified filter kernel to the given image.
+   * Applies a specified filter kernel to the given image. Kernels that factor exactly into a
+   * vertical and a horizontal 1D kernel on a binary grid, such as the Gaussian blur, are applied as
+   * two 1D passes, which gives the same output at a cost of O(2k) instead of O(k^2) per pixel.
+   * Kernels whose weights are binary fractions, such as blur and sharpen, are evaluated in integer
+   * fixed point, which is exact and gives the same output as double precision.
    *
    * @param image  the image to apply the filter to
    * @param kernel a 2D array representing the filter kernel
@@ -191,31 +230,42 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image applyFilter(Image image, double[][] kernel) {
+    return convolve(image, Convolution.of(kernel));
+  }
+
+  /**
+   * Applies a separable filter to the given image as a horizontal pass followed by a vertical pass,
+   * with clamp-to-edge borders. The result is that of applyFilter with the kernel whose entries are
+   * vertical[i] * horizontal[j], except for floating-point rounding when the weights are not exact
+   * binary fractions.
+   *
+   * @param image      the image to apply the filter to
+   * @param horizontal the odd-length kernel applied along each row
+   * @param vertical   the odd-length kernel applied along each column
+   * @return a new Image with the filter applied
+   * @throws IllegalArgumentException if either kernel is empty or has an even length
+   */
+  @Override
+  public Image applySeparableFilter(Image image, double[] horizontal, double[] vertical) {
+    if (horizontal.length % 2 == 0 || vertical.length % 2 == 0) {
+      throw new IllegalArgumentException("Separable kernels must have an odd, non-zero length.");
+    }
+    return convolve(image, Convolution.separable(horizontal, vertical));
+  }
+
+  /**
+   * Applies a prepared convolution to the given image, one band of rows at a time.
+   *
+   * @param image       the image to filter
+   * @param convolution the prepared convolution
+   * @return a new Image with the filter applied
+   */
+  private Image convolve(Image image, Convolution convolution) {
     int width = image.getWidth();
     int height = image.getHeight();
-    int kernelSize = kernel.length;
-    int kernelRadius = kernelSize / 2;
     Image result = new Image(width, height);
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        double sumR = 0;
-        double sumG = 0;
-        double sumB = 0;
-        for (int ky = -kernelRadius; ky <= kernelRadius; ky++) {
-          for (int kx = -kernelRadius; kx <= kernelRadius; kx++) {
-            int pixelX = Math.min(Math.max(x + kx, 0), width - 1);
-            int pixelY = Math.min(Math.max(y + ky, 0), height - 1);
-            Pixel pixel = image.getPixel(pixelX, pixelY);
-            double kernelValue = kernel[ky + kernelRadius][kx + kernelRadius];
-            sumR += pixel.getRed() * kernelValue;
-            sumG += pixel.getGreen() * kernelValue;
-            sumB += pixel.getBlue() * kernelValue;
-          }
-        }
-        result.setPixel(x, y, new Pixel(clamp((int) sumR), clamp((int) sumG), clamp((int) sumB)));
-      }
-    }
+    bands.forEachBand(width, height, (startY, endY) ->
+        convolution.apply(image, result, startY, endY));
     return result;
   }
 
@@ -266,23 +316,14 @@ public class ImageProcessorImpl implements ImageProcessor {
     int height = image.getHeight();
     Image result = new Image(width, height);
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int[] rgb = {pixel.getRed(), pixel.getGreen(), pixel.getBlue()};
-        int[] newRgb = new int[3];
-
-        for (int i = 0; i < 3; i++) {
-          double newColor = 0;
-          for (int j = 0; j < 3; j++) {
-            newColor += matrix[i][j] * rgb[j];
-          }
-          newRgb[i] = clamp((int) newColor);
-        }
-
-        result.setPixel(x, y, new Pixel(newRgb[0], newRgb[1], newRgb[2]));
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        PointOps.transform(row, width, matrix);
+        result.setRow(y, row);
       }
-    }
+    });
     return result;
   }
 
@@ -294,12 +335,7 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image toGreyscale(Image image) {
-    double[][] greyscaleMatrix = {
-        {0.2126, 0.7152, 0.0722},
-        {0.2126, 0.7152, 0.0722},
-        {0.2126, 0.7152, 0.0722}
-    };
-    return applyColorTransformation(image, greyscaleMatrix);
+    return applyColorTransformation(image, PointPipeline.GREYSCALE);
   }
 
   /**
@@ -310,12 +346,7 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image toSepia(Image image) {
-    double[][] sepiaMatrix = {
-        {0.393, 0.769, 0.189},
-        {0.349, 0.686, 0.168},
-        {0.272, 0.534, 0.131}
-    };
-    return applyColorTransformation(image, sepiaMatrix);
+    return applyColorTransformation(image, PointPipeline.SEPIA);
   }
 
   /**
@@ -327,15 +358,18 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image visualizeValue(Image image) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int maxRGB = Math.max(pixel.getChannel(0),
-            Math.max(pixel.getChannel(1), pixel.getChannel(2)));
-        result.setPixel(x, y, new Pixel(maxRGB, maxRGB, maxRGB));
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image result = new Image(width, height);
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      PointOps ops = new PointOps(width);
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        ops.value(row, width);
+        result.setRow(y, row);
       }
-    }
+    });
     return result;
   }
 
@@ -348,14 +382,17 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image visualizeIntensity(Image image) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int avg = (pixel.getChannel(0) + pixel.getChannel(1) + pixel.getChannel(2)) / 3;
-        result.setPixel(x, y, new Pixel(avg, avg, avg));
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image result = new Image(width, height);
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        PointOps.intensity(row, width);
+        result.setRow(y, row);
       }
-    }
+    });
     return result;
   }
 
@@ -368,15 +405,17 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image visualizeLuma(Image image) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int luma = (int) (0.2126 * pixel.getChannel(0) + 0.7152 * pixel.getChannel(1)
-            + 0.0722 * pixel.getChannel(2));
-        result.setPixel(x, y, new Pixel(luma, luma, luma));
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image result = new Image(width, height);
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        PointOps.luma(row, width);
+        result.setRow(y, row);
       }
-    }
+    });
     return result;
   }
 
@@ -407,211 +446,204 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image compress(Image image, int percentage) {
-    int width = image.getWidth();
-    int height = image.getHeight();
-    int size = nextPowerOfTwo(Math.max(width, height));
-    double[][][] paddedImage = padImage(image.getImageData(), size);
-    for (int c = 0; c < 3; c++) {
-      paddedImage[c] = haar2D(paddedImage[c], size);
-    }
-    applyThreshold(paddedImage, percentage);
-    for (int c = 0; c < 3; c++) {
-      paddedImage[c] = invHaar2D(paddedImage[c], size);
-    }
-    return createCompressedImage(paddedImage, width, height);
+    return compress(image, percentage, CompressionOptions.defaults());
   }
 
   /**
-   * Applies a 2D Haar Wavelet Transform to compress the specified 2D data. The transform is applied
-   * to each row and column, reducing spatial data redundancies.
+   * Compresses the given image tile by tile, in double precision.
    *
-   * @param data the 2D data array to be transformed
-   * @param size the size of the data (must be a power of 2)
-   * @return the transformed data after Haar Wavelet compression
+   * @param image      the original image to be compressed
+   * @param percentage the percentage of coefficients to discard in each tile
+   * @param tileSize   the width and height of a tile, in pixels
+   * @return a new Image with the specified compression applied
+   * @throws IllegalArgumentException if the tile size is less than 1
    */
-  private double[][] haar2D(double[][] data, int size) {
-    for (int step = size; step > 1; step /= 2) {
-      for (int i = 0; i < size; i++) {
-        data[i] = haar1D(data[i], step);
-      }
-      for (int j = 0; j < step; j++) {
-        double[] col = new double[step];
-        for (int i = 0; i < step; i++) {
-          col[i] = data[i][j];
-        }
-        col = haar1D(col, step);
-        for (int i = 0; i < step; i++) {
-          data[i][j] = col[i];
-        }
-      }
-    }
-    return data;
+  @Override
+  public Image compress(Image image, int percentage, int tileSize) {
+    return compress(image, percentage, CompressionOptions.defaults().tiles(tileSize));
   }
 
   /**
-   * Applies a 1D Haar Wavelet Transform on the data array to compress it by averaging pairs of
-   * values.
+   * Compresses the given image with the given options. A whole image is compressed as one region,
+   * with the rows and column strips of each level of the transform, and the thresholding, split
+   * among this processor's threads. A tiled image is compressed tile by tile: each tile is padded,
+   * transformed, thresholded, and inverted on its own, so the memory used per tile is bounded by
+   * the tile size whatever the size of the image, and tiles are compressed in parallel. The tiles
+   * along the right and bottom edges are cut to fit the image. The result is the same for every
+   * number of threads.
    *
-   * @param data   the array of data to transform
-   * @param length the length of the data to transform
-   * @return the transformed data after 1D Haar compression
-   */
-  private double[] haar1D(double[] data, int length) {
-    double[] temp = new double[length];
-    for (int i = 0; i < length; i += 2) {
-      double avg = (data[i] + data[i + 1]) / Math.sqrt(2);
-      double diff = (data[i] - data[i + 1]) / Math.sqrt(2);
-      temp[i / 2] = avg;
-      temp[length / 2 + i / 2] = diff;
-    }
-    System.arraycopy(temp, 0, data, 0, length);
-    return data;
-  }
-
-  /**
-   * Reverses a 2D Haar Wavelet Transform on the data to reconstruct the original spatial
-   * information.
+   * <p>The result is an ordinary image unless the options ask to keep its coefficients. Then a
+   * quantized copy of the thresholded coefficients is kept with it, so that
+   * {@link WaveletCoefficients#of(Image)} can store it as its sparse coefficients without
+   * compressing it again. The image itself is inverted from the unquantized coefficients, so the
+   * stored form matches it to within one level per channel.
    *
-   * @param data the 2D data array to invert
-   * @param size the size of the data (must be a power of 2)
-   * @return the reconstructed data after inverse Haar transform
+   * @param image      the original image to be compressed
+   * @param percentage the percentage of coefficients to discard, in the image or in each tile
+   * @param options    how to compress the image
+   * @return a new Image with the specified compression applied
    */
-  private double[][] invHaar2D(double[][] data, int size) {
-    for (int step = 2; step <= size; step *= 2) {
-      for (int j = 0; j < step; j++) {
-        double[] col = new double[step];
-        for (int i = 0; i < step; i++) {
-          col[i] = data[i][j];
-        }
-        col = invHaar1D(col, step);
-        for (int i = 0; i < step; i++) {
-          data[i][j] = col[i];
-        }
-      }
-      for (int i = 0; i < size; i++) {
-        data[i] = invHaar1D(data[i], step);
+  @Override
+  public Image compress(Image image, int percentage, CompressionOptions options) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    boolean singlePrecision = options.isSinglePrecision();
+    boolean keep = options.keepsCoefficients();
+    Image result = keep ? new CompressedImage(width, height) : new Image(width, height);
+    if (options.getTileSize() == 0) {
+      WaveletCompressor compressor = new WaveletCompressor(singlePrecision, bands);
+      compressor.transform(image, 0, 0, width, height, percentage);
+      WaveletCoefficients coefficients = keep
+          ? WaveletCoefficients.quantize(compressor, width, height, singlePrecision) : null;
+      compressor.reconstruct(result, 0, 0, width, height);
+      if (keep) {
+        // Kept only now, since writing the pixels forgets the coefficients
+        ((CompressedImage) result).keep(coefficients);
       }
+      return result;
     }
-    return data;
-  }
-
-  /**
-   * Reverses a 1D Haar Wavelet Transform to reconstruct original data values.
-   *
-   * @param data   the array of data to invert
-   * @param length the length of the data to invert
-   * @return the reconstructed data after 1D inverse Haar transform
-   */
-  private double[] invHaar1D(double[] data, int length) {
-    double[] temp = new double[length];
-    int halfLength = length / 2;
-    for (int i = 0; i < halfLength; i++) {
-      double avg = data[i];
-      double diff = data[halfLength + i];
-      temp[2 * i] = (avg + diff) / Math.sqrt(2);
-      temp[2 * i + 1] = (avg - diff) / Math.sqrt(2);
-    }
-    System.arraycopy(temp, 0, data, 0, length);
-    return data;
-  }
-
-  /**
-   * Applies a threshold to the transformed data to achieve lossy compression. Values below the
-   * calculated threshold (based on the specified percentage) are set to zero.
-   *
-   * @param data       the 3D data array representing image channels
-   * @param percentage the percentage of data to retain
-   */
-  private void applyThreshold(double[][][] data, int percentage) {
-    double[] allValues = getAllValues(data);
-    Arrays.sort(allValues);
-    int numToZero = (int) (allValues.length * percentage / 100.0);
-    double threshold = allValues[numToZero];
-
-    for (int c = 0; c < 3; c++) {
-      for (int i = 0; i < data[c].length; i++) {
-        for (int j = 0; j < data[c][i].length; j++) {
-          if (Math.abs(data[c][i][j]) < threshold) {
-            data[c][i][j] = 0;
+    int tileSize = options.getTileSize();
+    int tilesAcross = (width + tileSize - 1) / tileSize;
+    int tilesDown = (height + tileSize - 1) / tileSize;
+    int[][] indices = keep ? new int[3 * tilesAcross * tilesDown][] : null;
+    int[][] values = keep ? new int[3 * tilesAcross * tilesDown][] : null;
+    // Tiles are split among threads by index, as if each tile were a row of pixels.
+    bands.forEachBand(Math.min(tileSize, width) * Math.min(tileSize, height),
+        tilesAcross * tilesDown, (startTile, endTile) -> {
+          WaveletCompressor compressor = new WaveletCompressor(singlePrecision);
+          for (int tile = startTile; tile < endTile; tile++) {
+            int x0 = (tile % tilesAcross) * tileSize;
+            int y0 = (tile / tilesAcross) * tileSize;
+            int tileWidth = Math.min(tileSize, width - x0);
+            int tileHeight = Math.min(tileSize, height - y0);
+            compressor.transform(image, x0, y0, tileWidth, tileHeight, percentage);
+            if (keep) {
+              WaveletCoefficients.quantize(compressor, tile, indices, values);
+            }
+            compressor.reconstruct(result, x0, y0, tileWidth, tileHeight);
           }
-        }
-      }
+        });
+    if (keep) {
+      ((CompressedImage) result).keep(WaveletCoefficients.ofTiles(width, height, tileSize,
+          singlePrecision, indices, values));
     }
+    return result;
   }
 
   /**
-   * Pads the image data to the next power of two size, adding zeroes as necessary. Padding is
-   * needed for the Haar transform if the image dimensions are not a power of 2.
+   * Compresses the given image at the percentage nearest the boundary of the target. The image is
+   * padded and transformed once; each percentage tried only restores the transformed coefficients,
+   * thresholds them, inverts them, and measures the result, so a search of seven percentages costs
+   * far less than seven compressions. The coefficients are kept twice during the search. For a
+   * size target the chosen image keeps the sparse coefficients that were measured, so it is
+   * stored at the measured size; for a quality target it keeps them only if the options ask to,
+   * quantizing them once more at the chosen percentage.
    *
-   * @param imageData the original image data as a 3D array of pixel values
-   * @param size      the padded size (next power of two)
-   * @return a padded 3D array with each channel extended to the specified size
+   * @param image   the image to compress
+   * @param target  the quality or size the compressed image must meet
+   * @param options how to compress the image; it must be compressed whole
+   * @return the compressed image nearest the boundary of the target
+   * @throws IllegalArgumentException if the options ask for tiles
    */
-  private double[][][] padImage(int[][][] imageData, int size) {
-    double[][][] paddedImage = new double[3][size][size];
-    for (int c = 0; c < 3; c++) {
-      for (int i = 0; i < imageData[c].length; i++) {
-        for (int j = 0; j < imageData[c][i].length; j++) {
-          paddedImage[c][i][j] = imageData[c][i][j];
-        }
+  @Override
+  public CompressionResult compress(Image image, CompressionTarget target,
+      CompressionOptions options) {
+    if (options.getTileSize() != 0) {
+      throw new IllegalArgumentException("A compression target needs whole-image compression.");
+    }
+    WaveletCompressor compressor = new WaveletCompressor(options.isSinglePrecision(), bands);
+    compressor.analyze(image, 0, 0, image.getWidth(), image.getHeight());
+    // A quality target is met up to some percentage and a size target from some percentage on;
+    // the boundary lies between low and high, which close in on it
+    boolean metAbove = target.isMetByHigherPercentages();
+    int low = -1;
+    int high = 100;
+    CompressionResult best = null;
+    CompressionResult closest = null;
+    while (high - low > 1) {
+      int percentage = (low + high) >>> 1;
+      CompressionResult probe = probe(image, compressor, percentage, target, options);
+      if (probe.isTargetMet() != metAbove) {
+        low = percentage;
+      } else {
+        high = percentage;
       }
+      if (probe.isTargetMet()) {
+        best = probe;
+      } else {
+        closest = probe;
+      }
+    }
+    CompressionResult chosen = best != null ? best : closest;
+    CompressedImage chosenImage = (CompressedImage) chosen.getImage();
+    if (chosenImage.getCoefficients() == null && options.keepsCoefficients()) {
+      compressor.threshold(chosen.getPercentage());
+      chosenImage.keep(WaveletCoefficients.quantize(compressor, image.getWidth(),
+          image.getHeight(), options.isSinglePrecision()));
     }
-    return paddedImage;
+    return chosen;
   }
 
   /**
-   * Creates a new Image object from the compressed data, resizing it to the original dimensions.
+   * Compresses an analyzed image at one percentage and measures the result against the target.
    *
-   * @param data   the compressed data as a 3D array
-   * @param width  the original width of the image
-   * @param height the original height of the image
-   * @return a new Image constructed from the compressed data
+   * @param source     the image being compressed
+   * @param compressor the compressor that has analyzed the whole image
+   * @param percentage the percentage of coefficients to zero
+   * @param target     the target to measure against
+   * @param options    the options of the compression
+   * @return the compressed image and its measurements; the image keeps its coefficients only if
+   *         they were quantized to measure its size
    */
-  private Image createCompressedImage(double[][][] data, int width, int height) {
-    int[][][] compressedData = new int[3][height][width];
-    for (int c = 0; c < 3; c++) {
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          compressedData[c][i][j] = clamp((int) Math.round(data[c][i][j]));
-        }
-      }
+  private CompressionResult probe(Image source, WaveletCompressor compressor, int percentage,
+      CompressionTarget target, CompressionOptions options) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    compressor.threshold(percentage);
+    long size = -1;
+    WaveletCoefficients coefficients = null;
+    if (target.measuresSize()) {
+      coefficients = WaveletCoefficients.quantize(compressor, width, height,
+          options.isSinglePrecision());
+      size = target.sizeOf(coefficients);
     }
-    return new Image(compressedData, width, height);
+    CompressedImage result = new CompressedImage(width, height);
+    compressor.reconstruct(result, 0, 0, width, height);
+    result.keep(coefficients);
+    double meanSquaredError = ImageMetrics.meanSquaredError(source, result, bands);
+    return new CompressionResult(result, percentage, meanSquaredError, size,
+        target.isMetBy(ImageMetrics.peakSignalToNoiseRatio(meanSquaredError), size));
   }
 
   /**
-   * Calculates the next power of two greater than or equal to the given integer. This is useful for
-   * preparing data dimensions for Haar transforms.
+   * Creates a preview of the given image from its wavelet coefficients. A compressed image already
+   * holds its coefficients, so only the coarse levels are inverted; any other image is transformed
+   * losslessly first.
    *
-   * @param n the integer to find the next power of two for
-   * @return the next power of two
+   * @param image  the image to preview
+   * @param levels the number of levels to skip
+   * @return the preview
    */
-  private int nextPowerOfTwo(int n) {
-    return (int) Math.pow(2, Math.ceil(Math.log(n) / Math.log(2)));
+  @Override
+  public Image preview(Image image, int levels) {
+    return WaveletCoefficients.of(image).toImage(levels);
   }
 
   /**
-   * Retrieves all absolute values from the 3D data array and stores them in a single array. This is
-   * useful for threshold calculations during compression.
+   * Measures how far an image is from a reference, splitting the rows of each measure among this
+   * processor's threads. The result is the same for every number of threads.
    *
-   * @param data the 3D data array representing image channels
-   * @return an array of all absolute values from the data
+   * @param expected the reference image
+   * @param actual   the image to measure
+   * @return the mean squared error, PSNR and SSIM of the image
+   * @throws IllegalArgumentException if the images differ in size
    */
-  private double[] getAllValues(double[][][] data) {
-    int totalSize = data[0].length * data[0][0].length * 3;
-    double[] allValues = new double[totalSize];
-    int index = 0;
-    for (int c = 0; c < 3; c++) {
-      for (double[] row : data[c]) {
-        for (double val : row) {
-          allValues[index++] = Math.abs(val);
-        }
-      }
-    }
-    return allValues;
+  @Override
+  public ImageComparison compare(Image expected, Image actual) {
+    return new ImageComparison(ImageMetrics.meanSquaredError(expected, actual, bands),
+        ImageMetrics.structuralSimilarity(expected, actual, bands));
   }
 
-
   /**
    * Generates a histogram image that visualizes the distribution of pixel intensity values for each
    * color channel (red, green, and blue) in the given image. The histogram is a 256x256 image where
@@ -622,25 +654,17 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image generateHistogram(Image image) {
-    int[] redHistogram = new int[256];
-    int[] greenHistogram = new int[256];
-    int[] blueHistogram = new int[256];
-
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        redHistogram[pixel.getRed()]++;
-        greenHistogram[pixel.getGreen()]++;
-        blueHistogram[pixel.getBlue()]++;
-      }
-    }
+    int[][] histogram = calculateHistogram(image);
+    int[] redHistogram = histogram[0];
+    int[] greenHistogram = histogram[1];
+    int[] blueHistogram = histogram[2];
 
     Image histogramImage = new Image(256, 256);
 
+    int[] background = new int[256];
+    Arrays.fill(background, 0xFFFFFF);
     for (int y = 0; y < 256; y++) {
-      for (int x = 0; x < 256; x++) {
-        histogramImage.setPixel(x, y, new Pixel(255, 255, 255));
-      }
+      histogramImage.setRow(y, background);
     }
 
     drawGrid(histogramImage);
@@ -653,12 +677,9 @@ public class ImageProcessorImpl implements ImageProcessor {
         )
     );
 
-    drawHistogramLine(histogramImage, redHistogram, new Pixel(255, 0, 0),
-        maxFreq);
-    drawHistogramLine(histogramImage, greenHistogram, new Pixel(0, 255, 0),
-        maxFreq);
-    drawHistogramLine(histogramImage, blueHistogram, new Pixel(0, 0, 255),
-        maxFreq);
+    drawHistogramLine(histogramImage, redHistogram, 0xFF0000, maxFreq);
+    drawHistogramLine(histogramImage, greenHistogram, 0x00FF00, maxFreq);
+    drawHistogramLine(histogramImage, blueHistogram, 0x0000FF, maxFreq);
 
     return histogramImage;
   }
@@ -671,11 +692,11 @@ public class ImageProcessorImpl implements ImageProcessor {
    * @param image the Image on which to draw the grid
    */
   private void drawGrid(Image image) {
-    Pixel gridColor = new Pixel(220, 220, 220);
+    int gridColor = 0xDCDCDC;
     for (int i = 0; i < 256; i += 32) {
       for (int j = 0; j < 256; j++) {
-        image.setPixel(i, j, gridColor);
-        image.setPixel(j, i, gridColor);
+        image.setRGB(i, j, gridColor);
+        image.setRGB(j, i, gridColor);
       }
     }
   }
@@ -687,10 +708,10 @@ public class ImageProcessorImpl implements ImageProcessor {
    *
    * @param image     the histogram Image on which to draw the line graph
    * @param histogram the array of frequency values for the color channel
-   * @param color     the color of the line graph representing this channel
+   * @param color     the packed 0xRRGGBB color of the line graph representing this channel
    * @param maxFreq   the maximum frequency across all channels for scaling purposes
    */
-  private void drawHistogramLine(Image image, int[] histogram, Pixel color, int maxFreq) {
+  private void drawHistogramLine(Image image, int[] histogram, int color, int maxFreq) {
     int prevX = 0;
     int prevY = 255 - (histogram[0] * 255 / maxFreq);
 
@@ -711,9 +732,9 @@ public class ImageProcessorImpl implements ImageProcessor {
    * @param y1    the starting y-coordinate of the line
    * @param x2    the ending x-coordinate of the line
    * @param y2    the ending y-coordinate of the line
-   * @param color the color of the line
+   * @param color the packed 0xRRGGBB color of the line
    */
-  private void drawLine(Image image, int x1, int y1, int x2, int y2, Pixel color) {
+  private void drawLine(Image image, int x1, int y1, int x2, int y2, int color) {
     int dx = Math.abs(x2 - x1);
     int dy = Math.abs(y2 - y1);
     int sx = x1 < x2 ? 1 : -1;
@@ -721,7 +742,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     int err = dx - dy;
 
     while (true) {
-      image.setPixel(x1, y1, color);
+      image.setRGB(x1, y1, color);
       if (x1 == x2 && y1 == y2) {
         break;
       }
@@ -747,15 +768,16 @@ public class ImageProcessorImpl implements ImageProcessor {
   @Override
   public int[][] calculateHistogram(Image image) {
     int[][] histogram = new int[3][256]; // Red, Green, Blue channels
+    int width = image.getWidth();
+    int[] row = new int[width];
 
     for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y); // Get the Pixel object
-        if (pixel != null) {
-          histogram[0][pixel.getRed()]++;
-          histogram[1][pixel.getGreen()]++;
-          histogram[2][pixel.getBlue()]++;
-        }
+      image.getRow(y, row);
+      for (int x = 0; x < width; x++) {
+        int rgb = row[x];
+        histogram[0][(rgb >> 16) & 0xFF]++;
+        histogram[1][(rgb >> 8) & 0xFF]++;
+        histogram[2][rgb & 0xFF]++;
       }
     }
 
@@ -781,7 +803,8 @@ public class ImageProcessorImpl implements ImageProcessor {
     int[] greenCorrection = createCorrectionMap(peaks[1], averagePeak);
     int[] blueCorrection = createCorrectionMap(peaks[2], averagePeak);
 
-    return applyColorCorrection(image, redCorrection, greenCorrection, blueCorrection);
+    return applyLookupTable(image,
+        LookupTable.of(redCorrection, greenCorrection, blueCorrection));
   }
 
   /**
@@ -792,13 +815,11 @@ public class ImageProcessorImpl implements ImageProcessor {
    * @return a 3D array where each channel's histogram is stored in a 256-length array
    */
   private int[][][] calculateHistograms(Image image) {
+    int[][] histogram = calculateHistogram(image);
     int[][][] histograms = new int[3][256][1];
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        histograms[0][pixel.getRed()][0]++;
-        histograms[1][pixel.getGreen()][0]++;
-        histograms[2][pixel.getBlue()][0]++;
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 256; i++) {
+        histograms[c][i][0] = histogram[c][i];
       }
     }
     return histograms;
@@ -844,28 +865,51 @@ public class ImageProcessorImpl implements ImageProcessor {
   }
 
   /**
-   * Applies the color correction to the image using the provided correction maps for each color
-   * channel. Each pixel's color is adjusted based on the correction maps, producing a
-   * color-balanced image.
+   * Maps every channel of every pixel of the given image through a lookup table, in one pass over
+   * the packed pixels.
    *
-   * @param image           the original image to correct
-   * @param redCorrection   the correction map for the red channel
-   * @param greenCorrection the correction map for the green channel
-   * @param blueCorrection  the correction map for the blue channel
-   * @return a new Image with color-corrected values
+   * @param image the image to map
+   * @param table the per-channel lookup table
+   * @return a new Image with the table applied
    */
-  private Image applyColorCorrection(Image image, int[] redCorrection, int[] greenCorrection,
-      int[] blueCorrection) {
-    Image result = new Image(image.getWidth(), image.getHeight());
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int newRed = redCorrection[pixel.getRed()];
-        int newGreen = greenCorrection[pixel.getGreen()];
-        int newBlue = blueCorrection[pixel.getBlue()];
-        result.setPixel(x, y, new Pixel(newRed, newGreen, newBlue));
+  @Override
+  public Image applyLookupTable(Image image, LookupTable table) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image result = new Image(width, height);
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        table.apply(row, width);
+        result.setRow(y, row);
       }
-    }
+    });
+    return result;
+  }
+
+  /**
+   * Applies a chain of per-pixel operations to the given image, reading and writing each row once
+   * and running every step of the pipeline on it in between.
+   *
+   * @param image    the image to process
+   * @param pipeline the operations to apply
+   * @return a new Image with every operation of the pipeline applied
+   */
+  @Override
+  public Image applyPipeline(Image image, PointPipeline pipeline) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image result = new Image(width, height);
+    bands.forEachBand(width, height, (startY, endY) -> {
+      int[] row = new int[width];
+      PointOps ops = new PointOps(width);
+      for (int y = startY; y < endY; y++) {
+        image.getRow(y, row);
+        pipeline.apply(row, width, ops);
+        result.setRow(y, row);
+      }
+    });
     return result;
   }
 
@@ -874,8 +918,8 @@ public class ImageProcessorImpl implements ImageProcessor {
    * This function modifies each color channel to enhance contrast and brightness according to the
    * provided intensity points, producing a non-linear adjustment curve across the histogram. The
    * method calculates quadratic coefficients to fit the shadow, midtone, and highlight points. The
-   * resulting quadratic function is applied to each pixel's color channel, producing the adjusted
-   * image.
+   * resulting quadratic function is evaluated once for each of the 256 channel values into a
+   * {@link LookupTable}, which is then applied to every pixel.
    *
    * @param image the original image to adjust
    * @param b     the shadow (dark) intensity value, clamped to a range of 0-255
@@ -885,36 +929,7 @@ public class ImageProcessorImpl implements ImageProcessor {
    */
   @Override
   public Image levelsAdjust(Image image, int b, int m, int w) {
-    b = Math.max(0, Math.min(b, 255));
-    m = Math.max(b + 1, Math.min(m, w - 1));
-    w = Math.max(m + 1, Math.min(w, 255));
-
-    double coefficientA =
-        Math.pow(b, 2) * (m - w) - b * (Math.pow(m, 2) - Math.pow(w, 2)) + w * Math.pow(m, 2)
-            - m * Math.pow(w, 2);
-    double coefficientAa = -b * (128 - 255) + 128 * w - 255 * m;
-    double coefficientAb =
-        Math.pow(b, 2) * (128 - 255) + 255 * Math.pow(m, 2) - 128 * Math.pow(w, 2);
-    double coefficientAc =
-        Math.pow(b, 2) * (255 * m - 128 * w) - b * (255 * Math.pow(m, 2) - 128 * Math.pow(w, 2));
-
-    double a = coefficientAa / coefficientA;
-    double bb = coefficientAb / coefficientA;
-    double c = coefficientAc / coefficientA;
-
-    Image result = new Image(image.getWidth(), image.getHeight());
-
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        Pixel pixel = image.getPixel(x, y);
-        int newRed = adjustChannel(pixel.getRed(), a, bb, c);
-        int newGreen = adjustChannel(pixel.getGreen(), a, bb, c);
-        int newBlue = adjustChannel(pixel.getBlue(), a, bb, c);
-        result.setPixel(x, y, new Pixel(newRed, newGreen, newBlue));
-      }
-    }
-
-    return result;
+    return applyLookupTable(image, LookupTable.levels(b, m, w));
   }
 
   /**
@@ -935,35 +950,18 @@ public class ImageProcessorImpl implements ImageProcessor {
     int splitPosition = (width * splitPercentage) / 100;
 
     Image result = new Image(width, height);
+    int[] row = new int[width];
 
     for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        if (x < splitPosition) {
-          result.setPixel(x, y, processed.getPixel(x, y));
-        } else {
-          result.setPixel(x, y, original.getPixel(x, y));
-        }
+      original.getRow(y, row);
+      for (int x = 0; x < splitPosition && x < width; x++) {
+        row[x] = processed.getRGB(x, y);
       }
+      result.setRow(y, row);
     }
     return result;
   }
 
-  /**
-   * Adjusts a single color channel value using the quadratic function defined by coefficients a, b,
-   * and c. This function calculates the new intensity based on the original value and the levels
-   * adjustment curve.
-   *
-   * @param value the original intensity value of the color channel (0-255)
-   * @param a     the coefficient for the squared term in the adjustment function
-   * @param b     the coefficient for the linear term in the adjustment function
-   * @param c     the constant term in the adjustment function
-   * @return the adjusted intensity value, clamped between 0 and 255
-   */
-  private int adjustChannel(int value, double a, double b, double c) {
-    double adjustedValue = a * Math.pow(value, 2) + b * value + c;
-    return (int) Math.max(0, Math.min(255, Math.round(adjustedValue)));
-  }
-
   /**
    * Downscales the source image to the given width and height using bilinear interpolation.
    *
@@ -979,45 +977,45 @@ public class ImageProcessorImpl implements ImageProcessor {
 
     Image downscaledImage = new Image(targetWidth, targetHeight);
 
-    for (int y = 0; y < targetHeight; y++) {
-      for (int x = 0; x < targetWidth; x++) {
-        // Calculate the source coordinates
-        double srcX = (x + 0.5) * srcWidth / targetWidth - 0.5;
-        double srcY = (y + 0.5) * srcHeight / targetHeight - 0.5;
-
-        // Find the four nearest neighbors
-        int floorX = (int) Math.floor(srcX);
-        int ceilX = (int) Math.ceil(srcX);
-        int floorY = (int) Math.floor(srcY);
-        int ceilY = (int) Math.ceil(srcY);
-
-        // Clamp values to valid ranges
-        floorX = Math.max(0, Math.min(floorX, srcWidth - 1));
-        ceilX = Math.max(0, Math.min(ceilX, srcWidth - 1));
-        floorY = Math.max(0, Math.min(floorY, srcHeight - 1));
-        ceilY = Math.max(0, Math.min(ceilY, srcHeight - 1));
-
-        // Interpolate colors
-        double r = bilinearInterpolate(srcX, srcY,
-            sourceImage.getPixel(floorX, floorY).getRed(),
-            sourceImage.getPixel(ceilX, floorY).getRed(),
-            sourceImage.getPixel(floorX, ceilY).getRed(),
-            sourceImage.getPixel(ceilX, ceilY).getRed());
-        double g = bilinearInterpolate(srcX, srcY,
-            sourceImage.getPixel(floorX, floorY).getGreen(),
-            sourceImage.getPixel(ceilX, floorY).getGreen(),
-            sourceImage.getPixel(floorX, ceilY).getGreen(),
-            sourceImage.getPixel(ceilX, ceilY).getGreen());
-        double b = bilinearInterpolate(srcX, srcY,
-            sourceImage.getPixel(floorX, floorY).getBlue(),
-            sourceImage.getPixel(ceilX, floorY).getBlue(),
-            sourceImage.getPixel(floorX, ceilY).getBlue(),
-            sourceImage.getPixel(ceilX, ceilY).getBlue());
-
-        // Set the pixel color
-        downscaledImage.setPixel(x, y, new Pixel((int) r, (int) g, (int) b));
+    bands.forEachBand(targetWidth, targetHeight, (startY, endY) -> {
+      int[] row = new int[targetWidth];
+      for (int y = startY; y < endY; y++) {
+        for (int x = 0; x < targetWidth; x++) {
+          // Calculate the source coordinates
+          double srcX = (x + 0.5) * srcWidth / targetWidth - 0.5;
+          double srcY = (y + 0.5) * srcHeight / targetHeight - 0.5;
+
+          // Find the four nearest neighbors
+          int floorX = (int) Math.floor(srcX);
+          int ceilX = (int) Math.ceil(srcX);
+          int floorY = (int) Math.floor(srcY);
+          int ceilY = (int) Math.ceil(srcY);
+
+          // Clamp values to valid ranges
+          floorX = Math.max(0, Math.min(floorX, srcWidth - 1));
+          ceilX = Math.max(0, Math.min(ceilX, srcWidth - 1));
+          floorY = Math.max(0, Math.min(floorY, srcHeight - 1));
+          ceilY = Math.max(0, Math.min(ceilY, srcHeight - 1));
+
+          int q11 = sourceImage.getRGB(floorX, floorY);
+          int q21 = sourceImage.getRGB(ceilX, floorY);
+          int q12 = sourceImage.getRGB(floorX, ceilY);
+          int q22 = sourceImage.getRGB(ceilX, ceilY);
+
+          // Interpolate colors
+          double r = bilinearInterpolate(srcX, srcY, (q11 >> 16) & 0xFF, (q21 >> 16) & 0xFF,
+              (q12 >> 16) & 0xFF, (q22 >> 16) & 0xFF);
+          double g = bilinearInterpolate(srcX, srcY, (q11 >> 8) & 0xFF, (q21 >> 8) & 0xFF,
+              (q12 >> 8) & 0xFF, (q22 >> 8) & 0xFF);
+          double b = bilinearInterpolate(srcX, srcY, q11 & 0xFF, q21 & 0xFF, q12 & 0xFF,
+              q22 & 0xFF);
+
+          // Set the pixel color
+          row[x] = pack(clamp((int) r), clamp((int) g), clamp((int) b));
+        }
+        downscaledImage.setRow(y, row);
       }
-    }
+    });
 
     return downscaledImage;
   }
@@ -1061,7 +1059,9 @@ public class ImageProcessorImpl implements ImageProcessor {
       throw new IllegalArgumentException("Operation cannot be null or empty.");
     }
 
-    Image resultImage = new Image(sourceImage.getWidth(), sourceImage.getHeight());
+    int width = sourceImage.getWidth();
+    int height = sourceImage.getHeight();
+    Image resultImage = new Image(width, height);
     Image processedImage;
 
     // Perform the specified operation
@@ -1101,22 +1101,22 @@ public class ImageProcessorImpl implements ImageProcessor {
     }
 
     // Apply the mask to combine the source and processed images
-    for (int y = 0; y < sourceImage.getHeight(); y++) {
-      for (int x = 0; x < sourceImage.getWidth(); x++) {
-        try {
-          Pixel maskPixel = maskImage.getPixel(x, y);
-
-          // Allow a tolerance for "black" in the mask
-          if (maskPixel.getRed() < 10 && maskPixel.getGreen() < 10 && maskPixel.getBlue() < 10) {
-            resultImage.setPixel(x, y, processedImage.getPixel(x, y));
-          } else {
-            resultImage.setPixel(x, y, sourceImage.getPixel(x, y));
-          }
-        } catch (Exception e) {
-          throw new IllegalStateException(
-              "Error processing pixel at (" + x + ", " + y + "): " + e.getMessage());
+    int[] maskRow = new int[width];
+    int[] processedRow = new int[width];
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      maskImage.getRow(y, maskRow);
+      processedImage.getRow(y, processedRow);
+      sourceImage.getRow(y, row);
+      for (int x = 0; x < width; x++) {
+        int mask = maskRow[x];
+
+        // Allow a tolerance for "black" in the mask
+        if (((mask >> 16) & 0xFF) < 10 && ((mask >> 8) & 0xFF) < 10 && (mask & 0xFF) < 10) {
+          row[x] = processedRow[x];
         }
       }
+      resultImage.setRow(y, row);
     }
 
     return resultImage;
@@ -1131,4 +1131,16 @@ public class ImageProcessorImpl implements ImageProcessor {
   private int clamp(int value) {
     return Math.max(0, Math.min(255, value));
   }
+
+  /**
+   * Packs the given channel values, each already within [0, 255], into a single 0xRRGGBB value.
+   *
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   * @return the packed RGB value
+   */
+  private int pack(int red, int green, int blue) {
+    return (red << 16) | (green << 8) | blue;
+  }
 }
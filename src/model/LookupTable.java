@@ -0,0 +1,209 @@
+package model;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * This class represents a per-channel tone mapping: a table of 256 output values for each of the
+ * red, green, and blue channels, indexed by the input value of that channel. Any operation that
+ * maps each channel value independently of the rest of the image, such as brightness, levels,
+ * color correction, or a tone curve, can be built as a LookupTable and applied with
+ * {@link ImageProcessor#applyLookupTable(Image, LookupTable)} in a single pass over the packed
+ * pixels. Evaluating the mapping once per possible value rather than once per pixel makes the cost
+ * of the mapping itself independent of the image size.
+ *
+ * <p>Tables are immutable.
+ */
+public final class LookupTable {
+
+  private static final int SIZE = 256;
+
+  // The output values shifted into their position in a packed 0xRRGGBB pixel.
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  private LookupTable(int[] red, int[] green, int[] blue) {
+    this.red = new int[SIZE];
+    this.green = new int[SIZE];
+    this.blue = new int[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      this.red[i] = red[i] << 16;
+      this.green[i] = green[i] << 8;
+      this.blue[i] = blue[i];
+    }
+  }
+
+  /**
+   * Creates a table that maps each channel through its own array of output values.
+   *
+   * @param red   the 256 output values for the red channel, each within [0, 255]
+   * @param green the 256 output values for the green channel, each within [0, 255]
+   * @param blue  the 256 output values for the blue channel, each within [0, 255]
+   * @return the lookup table
+   * @throws IllegalArgumentException if an array does not have 256 entries or an entry is outside
+   *                                  [0, 255]
+   */
+  public static LookupTable of(int[] red, int[] green, int[] blue) {
+    checkMap(red, "red");
+    checkMap(green, "green");
+    checkMap(blue, "blue");
+    return new LookupTable(red, green, blue);
+  }
+
+  /**
+   * Creates a table that maps all three channels through the same array of output values.
+   *
+   * @param map the 256 output values, each within [0, 255]
+   * @return the lookup table
+   * @throws IllegalArgumentException if the array does not have 256 entries or an entry is outside
+   *                                  [0, 255]
+   */
+  public static LookupTable of(int[] map) {
+    return of(map, map, map);
+  }
+
+  /**
+   * Creates a table that maps all three channels through a tone curve, evaluating the curve once
+   * for each of the 256 input values. Outputs are clamped to [0, 255].
+   *
+   * @param curve the function from an input channel value to an output channel value
+   * @return the lookup table
+   */
+  public static LookupTable fromCurve(IntUnaryOperator curve) {
+    int[] map = new int[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      map[i] = clamp(curve.applyAsInt(i));
+    }
+    return new LookupTable(map, map, map);
+  }
+
+  /**
+   * Creates a table that leaves every value unchanged.
+   *
+   * @return the identity table
+   */
+  public static LookupTable identity() {
+    return fromCurve(value -> value);
+  }
+
+  /**
+   * Creates a table that adds the adjustment to every channel, clamping to [0, 255].
+   *
+   * @param adjustment the amount to add, negative to darken
+   * @return the brightness table
+   */
+  public static LookupTable brightness(int adjustment) {
+    return fromCurve(value -> (int) Math.max(0, Math.min(255, (long) value + adjustment)));
+  }
+
+  /**
+   * Creates the table for a levels adjustment: the quadratic curve through the shadow, midtone,
+   * and highlight points (b, 0), (m, 128), and (w, 255), rounded and clamped to [0, 255]. The
+   * points are first clamped so that 0 &lt;= b &lt; m &lt; w &lt;= 255.
+   *
+   * @param b the shadow (dark) intensity value
+   * @param m the midtone (middle) intensity value
+   * @param w the highlight (bright) intensity value
+   * @return the levels table
+   */
+  public static LookupTable levels(int b, int m, int w) {
+    b = Math.max(0, Math.min(b, 255));
+    m = Math.max(b + 1, Math.min(m, w - 1));
+    w = Math.max(m + 1, Math.min(w, 255));
+
+    double coefficientA =
+        Math.pow(b, 2) * (m - w) - b * (Math.pow(m, 2) - Math.pow(w, 2)) + w * Math.pow(m, 2)
+            - m * Math.pow(w, 2);
+    double coefficientAa = -b * (128 - 255) + 128 * w - 255 * m;
+    double coefficientAb =
+        Math.pow(b, 2) * (128 - 255) + 255 * Math.pow(m, 2) - 128 * Math.pow(w, 2);
+    double coefficientAc =
+        Math.pow(b, 2) * (255 * m - 128 * w) - b * (255 * Math.pow(m, 2) - 128 * Math.pow(w, 2));
+
+    double a = coefficientAa / coefficientA;
+    double bb = coefficientAb / coefficientA;
+    double c = coefficientAc / coefficientA;
+
+    return fromCurve(value -> {
+      double adjustedValue = a * Math.pow(value, 2) + bb * value + c;
+      return (int) Math.max(0, Math.min(255, Math.round(adjustedValue)));
+    });
+  }
+
+  /**
+   * Composes this table with another, giving the table that maps each value through this table
+   * and then through the next. Applying the composition gives exactly the same result as applying
+   * the two tables one after the other.
+   *
+   * @param next the table to apply second
+   * @return the composed table
+   */
+  public LookupTable andThen(LookupTable next) {
+    int[] composedRed = new int[SIZE];
+    int[] composedGreen = new int[SIZE];
+    int[] composedBlue = new int[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      composedRed[i] = next.getRed(getRed(i));
+      composedGreen[i] = next.getGreen(getGreen(i));
+      composedBlue[i] = next.getBlue(getBlue(i));
+    }
+    return new LookupTable(composedRed, composedGreen, composedBlue);
+  }
+
+  /**
+   * Gets the output value of the red channel for the given input value.
+   *
+   * @param value the input value, within [0, 255]
+   * @return the output value
+   */
+  public int getRed(int value) {
+    return red[value] >> 16;
+  }
+
+  /**
+   * Gets the output value of the green channel for the given input value.
+   *
+   * @param value the input value, within [0, 255]
+   * @return the output value
+   */
+  public int getGreen(int value) {
+    return green[value] >> 8;
+  }
+
+  /**
+   * Gets the output value of the blue channel for the given input value.
+   *
+   * @param value the input value, within [0, 255]
+   * @return the output value
+   */
+  public int getBlue(int value) {
+    return blue[value];
+  }
+
+  /**
+   * Maps every pixel of a row of packed 0xRRGGBB values in place.
+   *
+   * @param row   the packed pixels, replaced by the result
+   * @param width the number of pixels in the row
+   */
+  void apply(int[] row, int width) {
+    PointOps.lookup(row, width, red, green, blue);
+  }
+
+  private static void checkMap(int[] map, String channel) {
+    if (map.length != SIZE) {
+      throw new IllegalArgumentException(
+          "The " + channel + " lookup table must have " + SIZE + " entries.");
+    }
+    for (int value : map) {
+      if (value < 0 || value > 255) {
+        throw new IllegalArgumentException(
+            "The " + channel + " lookup table has a value outside [0, 255].");
+      }
+    }
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+}
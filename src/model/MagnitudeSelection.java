@@ -0,0 +1,152 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class finds order statistics of the magnitudes of an array of doubles without sorting or
+ * copying the array. It is used by {@link ImageProcessorImpl#compress} to find the threshold below
+ * which wavelet coefficients are dropped.
+ *
+ * <p>The magnitude of a finite double, read as a 64-bit integer with the sign bit cleared, orders
+ * the same way as the magnitude itself. The selection is therefore a radix select on those bits,
+ * most significant 16 bits first: each pass counts, among the values that share the bits already
+ * fixed, how many fall into each of the 65536 possible values of the next 16 bits, and fixes those
+ * bits to the bucket that holds the requested rank. Four passes fix all 64 bits, so the cost is
+ * linear in the length of the array, and the only memory used is one histogram. Floats are
+ * selected the same way on their 32 bits, in two passes.
+ *
+ * <p>The counting in each pass can be split among the threads of a {@link RowBandExecutor}, with
+ * the array read as rows of {@value #CHUNK} values. Each band counts into a histogram of its own,
+ * which is then added to the shared one; counts are integers, so the result does not depend on
+ * the order in which bands finish.
+ */
+final class MagnitudeSelection {
+
+  /**
+   * Counts the values of a range of the data into a histogram.
+   */
+  private interface CountTask {
+
+    void run(int[] histogram, int start, int end);
+  }
+
+  private static final int RADIX_BITS = 16;
+  private static final int BUCKETS = 1 << RADIX_BITS;
+  private static final int CHUNK = 4096;
+
+  private MagnitudeSelection() {
+  }
+
+  /**
+   * Finds the value that would be at the given index if the magnitudes of the first length values
+   * of the data were sorted in ascending order, the same value as sorting the absolute values and
+   * indexing the result.
+   *
+   * @param data   the values, none of which is NaN
+   * @param length the number of values, from the start of the array, to select among
+   * @param rank   the index in sorted order
+   * @param bands  the executor that runs the counting
+   * @return the magnitude at that index
+   * @throws IndexOutOfBoundsException if the rank is not within [0, length)
+   */
+  static double select(double[] data, int length, int rank, RowBandExecutor bands) {
+    if (rank < 0 || rank >= length) {
+      throw new IndexOutOfBoundsException("Rank " + rank + " is outside [0, " + length + ")");
+    }
+    int[] histogram = new int[BUCKETS];
+    long prefix = 0;
+    long prefixMask = 0;
+    int remaining = rank;
+    for (int shift = Long.SIZE - RADIX_BITS; shift >= 0; shift -= RADIX_BITS) {
+      Arrays.fill(histogram, 0);
+      long fixed = prefix;
+      long fixedMask = prefixMask;
+      int digit = shift;
+      count(length, histogram, bands, (part, start, end) -> {
+        for (int i = start; i < end; i++) {
+          long bits = Double.doubleToRawLongBits(data[i]) & Long.MAX_VALUE;
+          if ((bits & fixedMask) == fixed) {
+            part[(int) (bits >>> digit) & (BUCKETS - 1)]++;
+          }
+        }
+      });
+      int bucket = 0;
+      while (remaining >= histogram[bucket]) {
+        remaining -= histogram[bucket];
+        bucket++;
+      }
+      prefix |= (long) bucket << shift;
+      prefixMask |= (long) (BUCKETS - 1) << shift;
+    }
+    return Double.longBitsToDouble(prefix);
+  }
+
+  /**
+   * Finds the value that would be at the given index if the magnitudes of the first length values
+   * of the data were sorted in ascending order.
+   *
+   * @param data   the values, none of which is NaN
+   * @param length the number of values, from the start of the array, to select among
+   * @param rank   the index in sorted order
+   * @param bands  the executor that runs the counting
+   * @return the magnitude at that index
+   * @throws IndexOutOfBoundsException if the rank is not within [0, length)
+   */
+  static float select(float[] data, int length, int rank, RowBandExecutor bands) {
+    if (rank < 0 || rank >= length) {
+      throw new IndexOutOfBoundsException("Rank " + rank + " is outside [0, " + length + ")");
+    }
+    int[] histogram = new int[BUCKETS];
+    int prefix = 0;
+    int prefixMask = 0;
+    int remaining = rank;
+    for (int shift = Integer.SIZE - RADIX_BITS; shift >= 0; shift -= RADIX_BITS) {
+      Arrays.fill(histogram, 0);
+      int fixed = prefix;
+      int fixedMask = prefixMask;
+      int digit = shift;
+      count(length, histogram, bands, (part, start, end) -> {
+        for (int i = start; i < end; i++) {
+          int bits = Float.floatToRawIntBits(data[i]) & Integer.MAX_VALUE;
+          if ((bits & fixedMask) == fixed) {
+            part[(bits >>> digit) & (BUCKETS - 1)]++;
+          }
+        }
+      });
+      int bucket = 0;
+      while (remaining >= histogram[bucket]) {
+        remaining -= histogram[bucket];
+        bucket++;
+      }
+      prefix |= bucket << shift;
+      prefixMask |= (BUCKETS - 1) << shift;
+    }
+    return Float.intBitsToFloat(prefix);
+  }
+
+  /**
+   * Runs a counting task over the first length values, into the histogram directly when the
+   * executor would not split the work, or into a histogram per band that is added to it.
+   *
+   * @param length    the number of values to count
+   * @param histogram the histogram to count into
+   * @param bands     the executor that runs the counting
+   * @param task      the counting of a range of values
+   */
+  private static void count(int length, int[] histogram, RowBandExecutor bands, CountTask task) {
+    int chunks = (length + CHUNK - 1) / CHUNK;
+    if (bands.runsSequentially(CHUNK, chunks)) {
+      task.run(histogram, 0, length);
+      return;
+    }
+    bands.forEachBand(CHUNK, chunks, (startChunk, endChunk) -> {
+      int[] part = new int[BUCKETS];
+      task.run(part, startChunk * CHUNK, Math.min(length, endChunk * CHUNK));
+      synchronized (histogram) {
+        for (int b = 0; b < BUCKETS; b++) {
+          histogram[b] += part[b];
+        }
+      }
+    });
+  }
+}
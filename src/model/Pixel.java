@@ -92,4 +92,33 @@ public class Pixel {
     return (alpha << 24) | (red << 16) | (green << 8) | blue;
   }
 
+  /**
+   * Compares this pixel with another object. Two pixels are equal if their red, green, and blue
+   * values are all the same.
+   *
+   * @param o the object to compare with
+   * @return true if the other object is a pixel with the same channel values
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Pixel)) {
+      return false;
+    }
+    Pixel other = (Pixel) o;
+    return red == other.red && green == other.green && blue == other.blue;
+  }
+
+  /**
+   * Returns a hash code consistent with {@link #equals(Object)}.
+   *
+   * @return the hash code of this pixel
+   */
+  @Override
+  public int hashCode() {
+    return (red << 16) | (green << 8) | blue;
+  }
+
 }
@@ -0,0 +1,30 @@
+package model;
+
+/**
+ * This interface represents read-only pixel storage that an {@link Image} can read from instead of
+ * holding its own pixel array, such as a raster mapped from a file. The image reads pixels from the
+ * source on demand until one of its pixels is changed, and only then copies them onto the heap, so
+ * the source itself is never written.
+ *
+ * <p>Rows may be read from several threads at once, so implementations must allow concurrent
+ * reads. The image checks every position before reading it.
+ */
+public interface PixelSource {
+
+  /**
+   * Gets the pixel at the specified (x, y) position.
+   *
+   * @param x the x-coordinate of the pixel, within the image
+   * @param y the y-coordinate of the pixel, within the image
+   * @return the packed 0xRRGGBB value of the pixel
+   */
+  int getRGB(int x, int y);
+
+  /**
+   * Copies one row of pixels into the given buffer as packed 0xRRGGBB values.
+   *
+   * @param y   the y-coordinate of the row, within the image
+   * @param row the buffer receiving the packed row, at least as long as the image is wide
+   */
+  void getRow(int y, int[] row);
+}
@@ -0,0 +1,386 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents a chain of per-pixel operations (lookup tables, 3x3 color matrices, and
+ * channel visualizations) that {@link ImageProcessor#applyPipeline(Image, PointPipeline)}
+ * evaluates in a single pass over the image, without creating an image for each step. Each row is
+ * read once, every step is applied to it while it is in cache, and it is written once.
+ *
+ * <p>Pipelines are immutable; each method returns a new pipeline with one more step. Before it is
+ * applied, the chain is simplified where that is exact:
+ *
+ * <ul>
+ *   <li>adjacent lookup tables are composed into one table;</li>
+ *   <li>once a step produces grey pixels (a channel visualization, value, intensity, luma, or a
+ *   matrix whose rows are equal, such as greyscale), every later step only ever sees 256 possible
+ *   pixels, so all later steps are evaluated once for each grey level into a single lookup
+ *   table.</li>
+ * </ul>
+ *
+ * <p>Adjacent color matrices are not multiplied together, because each matrix step truncates and
+ * clamps its output, and the product would skip that rounding and change the result. They are
+ * applied back to back on the row instead. The result of a pipeline is therefore always identical
+ * to running its steps one at a time.
+ */
+public final class PointPipeline {
+
+  /**
+   * One step of a pipeline, applied in place to a row of packed 0xRRGGBB pixels.
+   */
+  private interface Step {
+
+    /**
+     * Applies the step to a row.
+     *
+     * @param row   the packed pixels, replaced by the result
+     * @param width the number of pixels in the row
+     * @param ops   the planar buffers of the band processing the row
+     */
+    void apply(int[] row, int width, PointOps ops);
+
+    /**
+     * Tells whether every pixel this step outputs is grey, whatever its input.
+     *
+     * @return true if the output is always grey
+     */
+    boolean producesGrey();
+  }
+
+  /**
+   * The color matrix of greyscale conversion. Every row holds the luma weights.
+   */
+  static final double[][] GREYSCALE = {
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722}
+  };
+
+  /**
+   * The color matrix of sepia toning.
+   */
+  static final double[][] SEPIA = {
+      {0.393, 0.769, 0.189},
+      {0.349, 0.686, 0.168},
+      {0.272, 0.534, 0.131}
+  };
+
+  private static final PointPipeline EMPTY = new PointPipeline(Collections.emptyList());
+
+  private final List<Step> steps;
+  private final List<Step> simplified;
+
+  private PointPipeline(List<Step> steps) {
+    this.steps = steps;
+    this.simplified = simplify(steps);
+  }
+
+  /**
+   * Gets the pipeline with no steps, which leaves every pixel unchanged.
+   *
+   * @return the empty pipeline
+   */
+  public static PointPipeline empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Joins pipelines end to end, giving the pipeline that runs the steps of each in turn. The
+   * chain is simplified once, however many pipelines are joined.
+   *
+   * @param pipelines the pipelines, in the order their steps run
+   * @return the joined pipeline
+   */
+  public static PointPipeline concat(List<PointPipeline> pipelines) {
+    List<Step> joined = new ArrayList<>();
+    for (PointPipeline pipeline : pipelines) {
+      joined.addAll(pipeline.steps);
+    }
+    return new PointPipeline(Collections.unmodifiableList(joined));
+  }
+
+  /**
+   * Adds a step that maps every channel through a lookup table.
+   *
+   * @param table the lookup table
+   * @return the extended pipeline
+   */
+  public PointPipeline lookup(LookupTable table) {
+    return then(new TableStep(table));
+  }
+
+  /**
+   * Adds a step that adds the adjustment to every channel, clamping to [0, 255].
+   *
+   * @param adjustment the amount to add, negative to darken
+   * @return the extended pipeline
+   */
+  public PointPipeline brightness(int adjustment) {
+    return lookup(LookupTable.brightness(adjustment));
+  }
+
+  /**
+   * Adds a step that applies a 3x3 color matrix, truncating and clamping each output channel as
+   * {@link ImageProcessor#applyColorTransformation(Image, double[][])} does.
+   *
+   * @param matrix the color matrix, where row i gives the weights of output channel i
+   * @return the extended pipeline
+   * @throws IllegalArgumentException if the matrix is not 3x3
+   */
+  public PointPipeline colorMatrix(double[][] matrix) {
+    if (matrix.length != 3 || matrix[0].length != 3 || matrix[1].length != 3
+        || matrix[2].length != 3) {
+      throw new IllegalArgumentException("A color matrix must be 3x3.");
+    }
+    double[][] copy = {matrix[0].clone(), matrix[1].clone(), matrix[2].clone()};
+    return then(new MatrixStep(copy));
+  }
+
+  /**
+   * Adds a step that converts every pixel to greyscale with the luma weights, as
+   * {@link ImageProcessor#toGreyscale(Image)} does.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline greyscale() {
+    return then(new MatrixStep(GREYSCALE));
+  }
+
+  /**
+   * Adds a step that converts every pixel to sepia tone, as
+   * {@link ImageProcessor#toSepia(Image)} does.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline sepia() {
+    return then(new MatrixStep(SEPIA));
+  }
+
+  /**
+   * Adds a step that replaces every pixel by a grey pixel of its red value.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline redComponent() {
+    return then(new GreyStep(GreyStep.RED));
+  }
+
+  /**
+   * Adds a step that replaces every pixel by a grey pixel of its green value.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline greenComponent() {
+    return then(new GreyStep(GreyStep.GREEN));
+  }
+
+  /**
+   * Adds a step that replaces every pixel by a grey pixel of its blue value.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline blueComponent() {
+    return then(new GreyStep(GreyStep.BLUE));
+  }
+
+  /**
+   * Adds a step that replaces every pixel by a grey pixel of its largest channel value.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline value() {
+    return then(new GreyStep(GreyStep.VALUE));
+  }
+
+  /**
+   * Adds a step that replaces every pixel by a grey pixel of the average of its channels.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline intensity() {
+    return then(new GreyStep(GreyStep.INTENSITY));
+  }
+
+  /**
+   * Adds a step that replaces every pixel by a grey pixel of its luma.
+   *
+   * @return the extended pipeline
+   */
+  public PointPipeline luma() {
+    return then(new GreyStep(GreyStep.LUMA));
+  }
+
+  /**
+   * Applies every step of the simplified pipeline, in order, to a row.
+   *
+   * @param row   the packed pixels, replaced by the result
+   * @param width the number of pixels in the row
+   * @param ops   the planar buffers of the band processing the row
+   */
+  void apply(int[] row, int width, PointOps ops) {
+    for (Step step : simplified) {
+      step.apply(row, width, ops);
+    }
+  }
+
+  /**
+   * Appends a step.
+   *
+   * @param step the step to append
+   * @return the extended pipeline
+   */
+  private PointPipeline then(Step step) {
+    List<Step> extended = new ArrayList<>(steps);
+    extended.add(step);
+    return new PointPipeline(Collections.unmodifiableList(extended));
+  }
+
+  /**
+   * Simplifies a chain of steps by composing adjacent lookup tables and by tabulating every step
+   * after the first one that produces grey pixels.
+   *
+   * @param steps the steps in the order they were added
+   * @return the equivalent, simplified steps
+   */
+  private static List<Step> simplify(List<Step> steps) {
+    List<Step> simplified = new ArrayList<>();
+    for (int i = 0; i < steps.size(); i++) {
+      Step step = steps.get(i);
+      Step last = simplified.isEmpty() ? null : simplified.get(simplified.size() - 1);
+      if (last instanceof TableStep && step instanceof TableStep) {
+        simplified.set(simplified.size() - 1,
+            new TableStep(((TableStep) last).table.andThen(((TableStep) step).table)));
+      } else {
+        simplified.add(step);
+      }
+      if (step.producesGrey() && i + 1 < steps.size()) {
+        simplified.add(new TableStep(tabulateGrey(steps.subList(i + 1, steps.size()))));
+        break;
+      }
+    }
+    return simplified;
+  }
+
+  /**
+   * Evaluates a chain of steps on each of the 256 grey pixels, giving the table that replaces the
+   * chain when its input is known to be grey.
+   *
+   * @param steps the steps to evaluate
+   * @return the table of outputs, indexed by grey level
+   */
+  private static LookupTable tabulateGrey(List<Step> steps) {
+    int[] greys = new int[256];
+    for (int i = 0; i < 256; i++) {
+      greys[i] = i * 0x010101;
+    }
+    PointOps ops = new PointOps(256);
+    for (Step step : steps) {
+      step.apply(greys, 256, ops);
+    }
+    int[] red = new int[256];
+    int[] green = new int[256];
+    int[] blue = new int[256];
+    for (int i = 0; i < 256; i++) {
+      red[i] = (greys[i] >> 16) & 0xFF;
+      green[i] = (greys[i] >> 8) & 0xFF;
+      blue[i] = greys[i] & 0xFF;
+    }
+    return LookupTable.of(red, green, blue);
+  }
+
+  /**
+   * A step that maps every channel through a lookup table.
+   */
+  private static final class TableStep implements Step {
+
+    private final LookupTable table;
+
+    TableStep(LookupTable table) {
+      this.table = table;
+    }
+
+    @Override
+    public void apply(int[] row, int width, PointOps ops) {
+      table.apply(row, width);
+    }
+
+    @Override
+    public boolean producesGrey() {
+      return false;
+    }
+  }
+
+  /**
+   * A step that applies a 3x3 color matrix.
+   */
+  private static final class MatrixStep implements Step {
+
+    private final double[][] matrix;
+
+    MatrixStep(double[][] matrix) {
+      this.matrix = matrix;
+    }
+
+    @Override
+    public void apply(int[] row, int width, PointOps ops) {
+      PointOps.transform(row, width, matrix);
+    }
+
+    @Override
+    public boolean producesGrey() {
+      return Arrays.equals(matrix[0], matrix[1]) && Arrays.equals(matrix[1], matrix[2]);
+    }
+  }
+
+  /**
+   * A step that replaces every pixel by a grey pixel computed from its channels.
+   */
+  private static final class GreyStep implements Step {
+
+    static final int RED = 0;
+    static final int GREEN = 1;
+    static final int BLUE = 2;
+    static final int VALUE = 3;
+    static final int INTENSITY = 4;
+    static final int LUMA = 5;
+
+    private final int kind;
+
+    GreyStep(int kind) {
+      this.kind = kind;
+    }
+
+    @Override
+    public void apply(int[] row, int width, PointOps ops) {
+      switch (kind) {
+        case RED:
+          PointOps.channel(row, width, 16);
+          break;
+        case GREEN:
+          PointOps.channel(row, width, 8);
+          break;
+        case BLUE:
+          PointOps.channel(row, width, 0);
+          break;
+        case VALUE:
+          ops.value(row, width);
+          break;
+        case INTENSITY:
+          PointOps.intensity(row, width);
+          break;
+        default:
+          PointOps.luma(row, width);
+          break;
+      }
+    }
+
+    @Override
+    public boolean producesGrey() {
+      return true;
+    }
+  }
+}
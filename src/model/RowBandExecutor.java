@@ -0,0 +1,148 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class runs per-row image work in parallel by splitting the rows of an image into horizontal
+ * bands and processing the bands on a {@link ForkJoinPool}. Every band covers a disjoint range of
+ * rows, so operations that compute each output row only from the source image produce exactly the
+ * same result as a sequential loop. Small images are processed sequentially on the calling thread,
+ * where the cost of forking would outweigh the work.
+ */
+class RowBandExecutor {
+
+  /**
+   * The work performed on one band of rows.
+   */
+  interface BandTask {
+
+    /**
+     * Processes the rows from startY (inclusive) to endY (exclusive).
+     *
+     * @param startY the first row of the band
+     * @param endY   the row after the last row of the band
+     */
+    void run(int startY, int endY);
+  }
+
+  /**
+   * The default number of pixels below which an image is processed sequentially.
+   */
+  static final int DEFAULT_SEQUENTIAL_THRESHOLD = 64 * 1024;
+
+  /**
+   * An executor that always runs on the calling thread.
+   */
+  static final RowBandExecutor SEQUENTIAL = new RowBandExecutor(1, DEFAULT_SEQUENTIAL_THRESHOLD);
+
+  private static final int BANDS_PER_THREAD = 4;
+
+  private final int parallelism;
+  private final int sequentialThreshold;
+  private ForkJoinPool pool;
+
+  /**
+   * Constructs a RowBandExecutor that uses up to the given number of threads.
+   *
+   * @param parallelism         the number of threads to use, where 1 means always sequential
+   * @param sequentialThreshold the number of pixels below which images are processed sequentially
+   * @throws IllegalArgumentException if parallelism is less than 1 or the threshold is negative
+   */
+  RowBandExecutor(int parallelism, int sequentialThreshold) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
+    if (sequentialThreshold < 0) {
+      throw new IllegalArgumentException("Sequential threshold cannot be negative.");
+    }
+    this.parallelism = parallelism;
+    this.sequentialThreshold = sequentialThreshold;
+  }
+
+  /**
+   * Gets the number of threads this executor uses.
+   *
+   * @return the parallelism level
+   */
+  int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Runs the task over all rows of an image with the given dimensions, either sequentially or split
+   * into bands processed in parallel. The call returns once every row has been processed, and all
+   * writes made by the task are visible to the caller.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @param task   the work to perform on each band
+   */
+  void forEachBand(int width, int height, BandTask task) {
+    if (runsSequentially(width, height)) {
+      task.run(0, height);
+      return;
+    }
+    int bandHeight = Math.max(1, (height + parallelism * BANDS_PER_THREAD - 1)
+        / (parallelism * BANDS_PER_THREAD));
+    pool().invoke(new Band(task, 0, height, bandHeight));
+  }
+
+  /**
+   * Tells whether {@link #forEachBand} would run the task for an image with the given dimensions
+   * as a single band on the calling thread. Tasks that need scratch space can then share one
+   * buffer when sequential and allocate one per band only when parallel.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @return true if the rows are processed sequentially
+   */
+  boolean runsSequentially(int width, int height) {
+    return parallelism == 1 || height < 2 || (long) width * height < sequentialThreshold;
+  }
+
+  /**
+   * Gets the pool used for parallel work, creating a dedicated pool on first use unless the common
+   * pool already has the requested parallelism.
+   *
+   * @return the pool to run bands on
+   */
+  private synchronized ForkJoinPool pool() {
+    if (pool == null) {
+      pool = ForkJoinPool.getCommonPoolParallelism() == parallelism
+          ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+    }
+    return pool;
+  }
+
+  /**
+   * A fork/join action that splits a range of rows in half until it is no taller than one band.
+   */
+  private static class Band extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BandTask task;
+    private final int startY;
+    private final int endY;
+    private final int bandHeight;
+
+    Band(BandTask task, int startY, int endY, int bandHeight) {
+      this.task = task;
+      this.startY = startY;
+      this.endY = endY;
+      this.bandHeight = bandHeight;
+    }
+
+    @Override
+    protected void compute() {
+      if (endY - startY <= bandHeight) {
+        task.run(startY, endY);
+        return;
+      }
+      int middle = (startY + endY) >>> 1;
+      invokeAll(new Band(task, startY, middle, bandHeight),
+          new Band(task, middle, endY, bandHeight));
+    }
+  }
+}
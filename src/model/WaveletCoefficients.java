@@ -0,0 +1,374 @@
+package model;
+
+/**
+ * This class represents an image as the sparse Haar wavelet coefficients it was compressed to by
+ * {@link ImageProcessor#compress(Image, int, CompressionOptions)}: only the coefficients that
+ * survived thresholding are kept, each as its index in its plane and its value quantized to a
+ * multiple of 1 / {@value #QUANTIZATION}. It is the form in which compressed images are stored on
+ * disk, so that the storage cost follows the compression percentage.
+ *
+ * <p>The image is divided into tiles as it was for compression, in row-major order; an image
+ * compressed whole is a single tile. Each tile has one list of coefficients per channel, indexed
+ * by tile * 3 + channel, with channels in red, green, blue order. The index of a coefficient is
+ * its position in the tile's plane, which is padded to a power of two along each axis and stored
+ * row by row.
+ *
+ * <p>Quantization moves each coefficient by at most 1 / {@value #QUANTIZATION}, too little to
+ * change a reconstructed channel value by more than one level, so {@link #toImage()} reproduces
+ * the compressed image to within one level per channel and an uncompressed image exactly.
+ *
+ * <p>Coefficients are immutable.
+ */
+public final class WaveletCoefficients {
+
+  /**
+   * The number of quantization steps per unit of a coefficient value.
+   */
+  public static final int QUANTIZATION = 64;
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final boolean singlePrecision;
+  private final int[][] indices;
+  private final int[][] values;
+
+  private WaveletCoefficients(int width, int height, int tileSize, boolean singlePrecision,
+      int[][] indices, int[][] values) {
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.singlePrecision = singlePrecision;
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Gets the coefficients of an image. If the image is the unmodified result of a compression,
+   * these are the coefficients it was reconstructed from, which are as sparse as the compression
+   * percentage makes them. Otherwise they are the coefficients of the whole image, uncompressed
+   * and in double precision, which reconstruct it exactly.
+   *
+   * @param image the image
+   * @return the coefficients of the image
+   */
+  public static WaveletCoefficients of(Image image) {
+    if (image instanceof CompressedImage) {
+      WaveletCoefficients coefficients = ((CompressedImage) image).getCoefficients();
+      if (coefficients != null) {
+        return coefficients;
+      }
+    }
+    return compute(image, 0, CompressionOptions.defaults());
+  }
+
+  /**
+   * Creates coefficients from their lists, as read back from storage. The arrays are copied.
+   *
+   * @param width           the width of the image
+   * @param height          the height of the image
+   * @param tileSize        the width and height of a tile, or 0 for a single tile
+   * @param singlePrecision true if the image is reconstructed in single precision
+   * @param indices         the ascending indices of the coefficients of each tile and channel
+   * @param values          the quantized values of the coefficients of each tile and channel
+   * @return the coefficients
+   * @throws IllegalArgumentException if a dimension or the tile size is negative, the number of
+   *                                  lists does not match the tiles, or an index is out of order
+   *                                  or outside its plane
+   */
+  public static WaveletCoefficients of(int width, int height, int tileSize,
+      boolean singlePrecision, int[][] indices, int[][] values) {
+    if (width < 0 || height < 0 || tileSize < 0) {
+      throw new IllegalArgumentException("Dimensions and tile size cannot be negative.");
+    }
+    int lists = 3 * tileCount(width, height, tileSize);
+    if (indices.length != lists || values.length != lists) {
+      throw new IllegalArgumentException("Expected " + lists + " coefficient lists.");
+    }
+    int[][] indexCopy = new int[lists][];
+    int[][] valueCopy = new int[lists][];
+    for (int list = 0; list < lists; list++) {
+      long plane = planeSize(width, height, tileSize, list / 3);
+      if (indices[list].length != values[list].length) {
+        throw new IllegalArgumentException("Each coefficient needs an index and a value.");
+      }
+      int previous = -1;
+      for (int index : indices[list]) {
+        if (index <= previous || index >= plane) {
+          throw new IllegalArgumentException("Coefficient index " + index
+              + " is out of order or outside its plane.");
+        }
+        previous = index;
+      }
+      indexCopy[list] = indices[list].clone();
+      valueCopy[list] = values[list].clone();
+    }
+    return new WaveletCoefficients(width, height, tileSize, singlePrecision, indexCopy, valueCopy);
+  }
+
+  /**
+   * Compresses an image and keeps its quantized, non-zero coefficients.
+   *
+   * @param source     the image to compress
+   * @param percentage the percentage of coefficients to zero, in the image or in each tile
+   * @param options    how the image is compressed
+   * @return the coefficients
+   */
+  static WaveletCoefficients compute(Image source, int percentage, CompressionOptions options) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int tileSize = options.getTileSize();
+    int tiles = tileCount(width, height, tileSize);
+    int[][] indices = new int[3 * tiles][];
+    int[][] values = new int[3 * tiles][];
+    WaveletCompressor compressor = new WaveletCompressor(options.isSinglePrecision());
+    for (int tile = 0; tile < tiles; tile++) {
+      int[] region = region(width, height, tileSize, tile);
+      compressor.transform(source, region[0], region[1], region[2], region[3], percentage);
+      quantize(compressor, tile, indices, values);
+    }
+    return new WaveletCoefficients(width, height, tileSize, options.isSinglePrecision(), indices,
+        values);
+  }
+
+  /**
+   * Keeps the quantized, non-zero coefficients held by a compressor that has transformed a whole
+   * image.
+   *
+   * @param compressor      the compressor holding the coefficients
+   * @param width           the width of the image
+   * @param height          the height of the image
+   * @param singlePrecision true if the compressor works in single precision
+   * @return the coefficients
+   */
+  static WaveletCoefficients quantize(WaveletCompressor compressor, int width, int height,
+      boolean singlePrecision) {
+    int[][] indices = new int[3][];
+    int[][] values = new int[3][];
+    quantize(compressor, 0, indices, values);
+    return new WaveletCoefficients(width, height, 0, singlePrecision, indices, values);
+  }
+
+  /**
+   * Quantizes the coefficients held by a compressor that has transformed one tile into the lists
+   * of that tile. Tiles fill disjoint lists, so they can be quantized by different threads.
+   *
+   * @param compressor the compressor holding the coefficients of the tile
+   * @param tile       the tile, in row-major order
+   * @param indices    the index lists of every tile and channel
+   * @param values     the value lists of every tile and channel
+   */
+  static void quantize(WaveletCompressor compressor, int tile, int[][] indices, int[][] values) {
+    for (int c = 0; c < 3; c++) {
+      int[][] sparse = compressor.quantize(c);
+      indices[3 * tile + c] = sparse[0];
+      values[3 * tile + c] = sparse[1];
+    }
+  }
+
+  /**
+   * Keeps lists of coefficients filled by
+   * {@link #quantize(WaveletCompressor, int, int[][], int[][])} for every tile. The arrays are not
+   * copied.
+   *
+   * @param width           the width of the image
+   * @param height          the height of the image
+   * @param tileSize        the width and height of a tile, or 0 for a single tile
+   * @param singlePrecision true if the image is reconstructed in single precision
+   * @param indices         the index lists of every tile and channel
+   * @param values          the value lists of every tile and channel
+   * @return the coefficients
+   */
+  static WaveletCoefficients ofTiles(int width, int height, int tileSize, boolean singlePrecision,
+      int[][] indices, int[][] values) {
+    return new WaveletCoefficients(width, height, tileSize, singlePrecision, indices, values);
+  }
+
+  /**
+   * Reconstructs the image from the coefficients. The image remembers its coefficients, so writing
+   * it back to storage does not transform it again.
+   *
+   * @return the reconstructed image
+   */
+  public Image toImage() {
+    CompressedImage image = new CompressedImage(width, height);
+    WaveletCompressor compressor = new WaveletCompressor(singlePrecision);
+    for (int tile = 0; tile < getTileCount(); tile++) {
+      int[] region = region(width, height, tileSize, tile);
+      compressor.clear(region[2], region[3], width);
+      for (int c = 0; c < 3; c++) {
+        compressor.load(c, indices[3 * tile + c], values[3 * tile + c]);
+      }
+      compressor.reconstruct(image, region[0], region[1], region[2], region[3]);
+    }
+    image.keep(this);
+    return image;
+  }
+
+  /**
+   * Reconstructs a preview of the image at 1 / 2^levels of its size, by inverting only the coarsest
+   * levels of the wavelet pyramid. Each preview pixel is the average of the block of
+   * 2^levels x 2^levels pixels it covers, so the preview needs neither the full inverse transform
+   * nor a separate downscale, and costs a fraction of {@link #toImage()}. Edge blocks cut by the
+   * image or a tile are averaged over the pixels they contain. Asking for more levels than the
+   * pyramid has gives the averages of whole tiles, or a single pixel for an image compressed whole.
+   *
+   * @param levels the number of levels to skip: 0 for full size, 1 for half, 2 for a quarter
+   * @return the preview, ceil(width / 2^levels) by ceil(height / 2^levels) pixels
+   * @throws IllegalArgumentException if the number of levels is negative, or the image was
+   *                                  compressed in tiles whose size is not a multiple of
+   *                                  2^levels
+   */
+  public Image toImage(int levels) {
+    if (levels < 0) {
+      throw new IllegalArgumentException("Preview levels cannot be negative.");
+    }
+    int scale = Math.min(levels, 30);
+    if (tileSize > 0 && tileSize % (1 << scale) != 0) {
+      throw new IllegalArgumentException("Tile size " + tileSize + " is not a multiple of "
+          + (1 << scale) + ", so tiles do not map to whole preview pixels.");
+    }
+    int block = 1 << scale;
+    Image preview = new Image((width + block - 1) >> scale, (height + block - 1) >> scale);
+    WaveletCompressor compressor = new WaveletCompressor(singlePrecision);
+    for (int tile = 0; tile < getTileCount(); tile++) {
+      int[] region = region(width, height, tileSize, tile);
+      compressor.clear(region[2], region[3], width);
+      for (int c = 0; c < 3; c++) {
+        compressor.load(c, indices[3 * tile + c], values[3 * tile + c]);
+      }
+      compressor.reconstructPreview(preview, region[0], region[1], region[2], region[3], scale);
+    }
+    return preview;
+  }
+
+  /**
+   * Gets the width of the image.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the height of the image.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gets the tile size the image was compressed with.
+   *
+   * @return the width and height of a tile, or 0 if the image was compressed whole
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Tells whether the image is reconstructed in single precision.
+   *
+   * @return true for floats, false for doubles
+   */
+  public boolean isSinglePrecision() {
+    return singlePrecision;
+  }
+
+  /**
+   * Gets the number of tiles.
+   *
+   * @return the number of tiles, 1 if the image was compressed whole
+   */
+  public int getTileCount() {
+    return tileCount(width, height, tileSize);
+  }
+
+  /**
+   * Gets the total number of stored coefficients.
+   *
+   * @return the number of non-zero coefficients over all tiles and channels
+   */
+  public long getCoefficientCount() {
+    long count = 0;
+    for (int[] list : indices) {
+      count += list.length;
+    }
+    return count;
+  }
+
+  /**
+   * Gets the indices of the coefficients of one channel of one tile.
+   *
+   * @param tile    the tile, in row-major order
+   * @param channel the channel, 0 for red, 1 for green, 2 for blue
+   * @return a copy of the ascending indices within the tile's plane
+   */
+  public int[] getIndices(int tile, int channel) {
+    return indices[3 * tile + channel].clone();
+  }
+
+  /**
+   * Gets the quantized values of the coefficients of one channel of one tile.
+   *
+   * @param tile    the tile, in row-major order
+   * @param channel the channel, 0 for red, 1 for green, 2 for blue
+   * @return a copy of the values, in multiples of 1 / {@value #QUANTIZATION}
+   */
+  public int[] getValues(int tile, int channel) {
+    return values[3 * tile + channel].clone();
+  }
+
+  /**
+   * Computes the number of coefficients in the plane of a tile: its width times its height, each
+   * padded to a power of two. No list of the tile can hold more coefficients than that.
+   *
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param tileSize the tile size, or 0 for a single tile
+   * @param tile     the tile, in row-major order
+   * @return the number of coefficients in the plane
+   */
+  public static long planeSize(int width, int height, int tileSize, int tile) {
+    int[] region = region(width, height, tileSize, tile);
+    return (long) WaveletCompressor.nextPowerOfTwo(region[2])
+        * WaveletCompressor.nextPowerOfTwo(region[3]);
+  }
+
+  /**
+   * Computes the number of tiles of an image.
+   *
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param tileSize the tile size, or 0 for a single tile
+   * @return the number of tiles
+   */
+  private static int tileCount(int width, int height, int tileSize) {
+    if (tileSize == 0) {
+      return 1;
+    }
+    return ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+  }
+
+  /**
+   * Computes the position and size of a tile, cut to fit the image.
+   *
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param tileSize the tile size, or 0 for a single tile
+   * @param tile     the tile, in row-major order
+   * @return the leftmost column, top row, width, and height of the tile
+   */
+  private static int[] region(int width, int height, int tileSize, int tile) {
+    if (tileSize == 0) {
+      return new int[]{0, 0, width, height};
+    }
+    int tilesAcross = (width + tileSize - 1) / tileSize;
+    int x0 = (tile % tilesAcross) * tileSize;
+    int y0 = (tile / tilesAcross) * tileSize;
+    return new int[]{x0, y0, Math.min(tileSize, width - x0), Math.min(tileSize, height - y0)};
+  }
+}
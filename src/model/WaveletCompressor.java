@@ -0,0 +1,443 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class performs the Haar wavelet compression of {@link ImageProcessorImpl#compress} on a
+ * rectangular region of an image: it pads the region to a power of two along each axis, transforms
+ * each channel, zeroes the given percentage of the coefficients with the smallest magnitudes, and
+ * writes the inverse transform of the rest back into the same region of a result image.
+ *
+ * <p>The whole image is one region; tiled compression compresses each tile as its own region. A
+ * compressor keeps its coefficient buffer, row buffer and transform between regions and only
+ * replaces them when a region needs larger ones, so compressing many tiles of the same size
+ * allocates once. An instance is not thread-safe; each thread uses its own.
+ *
+ * <p>A compressor given a {@link RowBandExecutor} splits the transform, the threshold search and
+ * the thresholding of a region among its threads, transforming the three channels together level
+ * by level. The result is bit-identical to that of a sequential compressor. Tiled compression
+ * already runs tiles in parallel, so its compressors are sequential.
+ *
+ * <p>Coefficients are held either in double precision, the default, or in single precision, which
+ * halves the memory and bandwidth of every step at the cost of rounding errors that can move a
+ * reconstructed channel value by a few levels, as measured by the tests.
+ */
+final class WaveletCompressor {
+
+  private final boolean singlePrecision;
+  private final RowBandExecutor bands;
+  private double[] coefficients = new double[0];
+  private float[] floatCoefficients = new float[0];
+  private double[] original;
+  private float[] floatOriginal;
+  private int[] row = new int[0];
+  private HaarWavelet wavelet;
+  private int waveletWidth;
+  private int waveletHeight;
+
+  /**
+   * Constructs a sequential compressor that holds coefficients in the given precision.
+   *
+   * @param singlePrecision true to use floats, false to use doubles
+   */
+  WaveletCompressor(boolean singlePrecision) {
+    this(singlePrecision, RowBandExecutor.SEQUENTIAL);
+  }
+
+  /**
+   * Constructs a compressor that holds coefficients in the given precision and splits its work
+   * among the threads of the given executor.
+   *
+   * @param singlePrecision true to use floats, false to use doubles
+   * @param bands           the executor that runs the transform and the thresholding
+   */
+  WaveletCompressor(boolean singlePrecision, RowBandExecutor bands) {
+    this.singlePrecision = singlePrecision;
+    this.bands = bands;
+  }
+
+  /**
+   * Pads a region of the source image, transforms it, and zeroes the given percentage of its
+   * coefficients, leaving the coefficients in this compressor.
+   *
+   * @param source     the image to compress
+   * @param x0         the leftmost column of the region
+   * @param y0         the top row of the region
+   * @param width      the width of the region
+   * @param height     the height of the region
+   * @param percentage the percentage of coefficients to zero
+   * @throws IndexOutOfBoundsException if the percentage is not within [0, 100)
+   */
+  void transform(Image source, int x0, int y0, int width, int height, int percentage) {
+    forward(source, x0, y0, width, height);
+    applyThreshold(3 * waveletWidth * waveletHeight, percentage);
+  }
+
+  /**
+   * Pads a region of the source image and transforms it, and keeps a copy of its coefficients so
+   * that {@link #threshold} can try any number of percentages without transforming it again. The
+   * copy doubles the memory this compressor holds until the next call.
+   *
+   * @param source the image to compress
+   * @param x0     the leftmost column of the region
+   * @param y0     the top row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   */
+  void analyze(Image source, int x0, int y0, int width, int height) {
+    forward(source, x0, y0, width, height);
+    int length = 3 * waveletWidth * waveletHeight;
+    if (singlePrecision) {
+      floatOriginal = Arrays.copyOf(floatCoefficients, length);
+    } else {
+      original = Arrays.copyOf(coefficients, length);
+    }
+  }
+
+  /**
+   * Restores the coefficients kept by the last call of {@link #analyze} and zeroes the given
+   * percentage of them, leaving the same coefficients {@link #transform} would.
+   *
+   * @param percentage the percentage of coefficients to zero
+   * @throws IndexOutOfBoundsException if the percentage is not within [0, 100)
+   */
+  void threshold(int percentage) {
+    int length = 3 * waveletWidth * waveletHeight;
+    if (singlePrecision) {
+      System.arraycopy(floatOriginal, 0, floatCoefficients, 0, length);
+    } else {
+      System.arraycopy(original, 0, coefficients, 0, length);
+    }
+    applyThreshold(length, percentage);
+  }
+
+  /**
+   * Inverts the coefficients in this compressor and writes the result into a region of the result
+   * image. The region must have the size given to the last call of {@link #transform} or
+   * {@link #clear}.
+   *
+   * @param result the image receiving the pixels
+   * @param x0     the leftmost column of the region
+   * @param y0     the top row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   */
+  void reconstruct(Image result, int x0, int y0, int width, int height) {
+    if (singlePrecision) {
+      wavelet.inverse(floatCoefficients, 3);
+    } else {
+      wavelet.inverse(coefficients, 3);
+    }
+    write(result, x0, y0, width, height, waveletWidth);
+  }
+
+  /**
+   * Inverts only the coarsest levels of the coefficients in this compressor and writes the
+   * approximation they give, at 1 / 2^levels of the region's size, into the matching region of a
+   * smaller result image. Each preview pixel is the average of the block of 2^levels x 2^levels
+   * pixels it covers, cut to the region; the finest levels, which hold the detail within the
+   * blocks, are never inverted. The region must have the size given to the last call of
+   * {@link #transform} or {@link #clear}, and its position must be a multiple of 2^levels.
+   *
+   * @param preview the image receiving the preview pixels
+   * @param x0      the leftmost column of the region in the full-size image
+   * @param y0      the top row of the region in the full-size image
+   * @param width   the width of the region in the full-size image
+   * @param height  the height of the region in the full-size image
+   * @param levels  the number of finest levels to skip, at most 30
+   */
+  void reconstructPreview(Image preview, int x0, int y0, int width, int height, int levels) {
+    if (singlePrecision) {
+      wavelet.inverse(floatCoefficients, 3, levels);
+    } else {
+      wavelet.inverse(coefficients, 3, levels);
+    }
+    int plane = waveletWidth * waveletHeight;
+    int block = 1 << levels;
+    int blockWidth = Math.min(block, waveletWidth);
+    int blockHeight = Math.min(block, waveletHeight);
+    double scale = Math.sqrt((double) blockWidth * blockHeight);
+    int previewWidth = (width + block - 1) >> levels;
+    int previewHeight = (height + block - 1) >> levels;
+    for (int by = 0; by < previewHeight; by++) {
+      int pixelsDown = Math.min(blockHeight, height - by * blockHeight);
+      for (int bx = 0; bx < previewWidth; bx++) {
+        int pixels = pixelsDown * Math.min(blockWidth, width - bx * blockWidth);
+        double factor = scale / pixels;
+        int index = by * waveletWidth + bx;
+        int red = average(index, factor);
+        int green = average(plane + index, factor);
+        int blue = average(2 * plane + index, factor);
+        preview.setRGB((x0 >> levels) + bx, (y0 >> levels) + by, (red << 16) | (green << 8) | blue);
+      }
+    }
+  }
+
+  /**
+   * Makes the coefficients of a region of the given size all zero, ready for {@link #load}.
+   *
+   * @param width      the width of the region
+   * @param height     the height of the region
+   * @param imageWidth the width of the whole image
+   */
+  void clear(int width, int height, int imageWidth) {
+    prepare(nextPowerOfTwo(width), nextPowerOfTwo(height), imageWidth);
+  }
+
+  /**
+   * Gets the non-zero coefficients of one channel, quantized to multiples of
+   * 1 / {@value WaveletCoefficients#QUANTIZATION}. Coefficients that round to zero are left out.
+   *
+   * @param channel the channel, 0 for red, 1 for green, 2 for blue
+   * @return the indices of the coefficients within the channel's plane, in ascending order, and
+   *         their quantized values
+   */
+  int[][] quantize(int channel) {
+    int plane = waveletWidth * waveletHeight;
+    int start = channel * plane;
+    int count = 0;
+    for (int i = 0; i < plane; i++) {
+      if (quantized(start + i) != 0) {
+        count++;
+      }
+    }
+    int[] indices = new int[count];
+    int[] values = new int[count];
+    int next = 0;
+    for (int i = 0; i < plane; i++) {
+      int value = quantized(start + i);
+      if (value != 0) {
+        indices[next] = i;
+        values[next] = value;
+        next++;
+      }
+    }
+    return new int[][]{indices, values};
+  }
+
+  /**
+   * Sets coefficients of one channel from quantized values, as returned by {@link #quantize}.
+   *
+   * @param channel the channel, 0 for red, 1 for green, 2 for blue
+   * @param indices the indices of the coefficients within the channel's plane
+   * @param values  the quantized values of the coefficients
+   */
+  void load(int channel, int[] indices, int[] values) {
+    int start = channel * waveletWidth * waveletHeight;
+    for (int i = 0; i < indices.length; i++) {
+      double value = (double) values[i] / WaveletCoefficients.QUANTIZATION;
+      if (singlePrecision) {
+        floatCoefficients[start + indices[i]] = (float) value;
+      } else {
+        coefficients[start + indices[i]] = value;
+      }
+    }
+  }
+
+  /**
+   * Makes sure the buffers and the transform fit a region padded to the given size, and clears the
+   * part of the coefficient buffer the region uses.
+   *
+   * @param paddedWidth  the padded width of the region
+   * @param paddedHeight the padded height of the region
+   * @param imageWidth   the width of the whole image
+   */
+  private void prepare(int paddedWidth, int paddedHeight, int imageWidth) {
+    int length = 3 * paddedWidth * paddedHeight;
+    if (singlePrecision && floatCoefficients.length < length) {
+      floatCoefficients = new float[length];
+    } else if (singlePrecision) {
+      Arrays.fill(floatCoefficients, 0, length, 0);
+    } else if (coefficients.length < length) {
+      coefficients = new double[length];
+    } else {
+      Arrays.fill(coefficients, 0, length, 0);
+    }
+    if (row.length < imageWidth) {
+      row = new int[imageWidth];
+    }
+    if (wavelet == null || waveletWidth != paddedWidth || waveletHeight != paddedHeight) {
+      wavelet = new HaarWavelet(paddedWidth, paddedHeight, singlePrecision, bands);
+      waveletWidth = paddedWidth;
+      waveletHeight = paddedHeight;
+    }
+  }
+
+  /**
+   * Pads a region of the source image into the coefficient buffer and transforms its channels.
+   *
+   * @param source the image to compress
+   * @param x0     the leftmost column of the region
+   * @param y0     the top row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   */
+  private void forward(Image source, int x0, int y0, int width, int height) {
+    clear(width, height, source.getWidth());
+    pad(source, x0, y0, width, height, waveletWidth);
+    if (singlePrecision) {
+      wavelet.forward(floatCoefficients, 3);
+    } else {
+      wavelet.forward(coefficients, 3);
+    }
+  }
+
+  /**
+   * Copies the channels of a region into the red, green and blue planes of the coefficient buffer,
+   * leaving the padding zero. A region as wide as the image is read a row at a time; a narrower one
+   * is read pixel by pixel.
+   *
+   * @param image       the source image
+   * @param x0          the leftmost column of the region
+   * @param y0          the top row of the region
+   * @param width       the width of the region
+   * @param height      the height of the region
+   * @param paddedWidth the padded width, which is the row stride of each plane
+   */
+  private void pad(Image image, int x0, int y0, int width, int height, int paddedWidth) {
+    int plane = paddedWidth * nextPowerOfTwo(height);
+    boolean wholeRows = width == image.getWidth();
+    for (int i = 0; i < height; i++) {
+      if (wholeRows) {
+        image.getRow(y0 + i, row);
+      }
+      int start = i * paddedWidth;
+      for (int j = 0; j < width; j++) {
+        int rgb = wholeRows ? row[j] : image.getRGB(x0 + j, y0 + i);
+        store(start + j, (rgb >> 16) & 0xFF);
+        store(plane + start + j, (rgb >> 8) & 0xFF);
+        store(2 * plane + start + j, rgb & 0xFF);
+      }
+    }
+  }
+
+  /**
+   * Zeroes every coefficient whose magnitude is below the magnitude at the given percentage of the
+   * coefficients in ascending order. The coefficients are zeroed a padded row at a time, in bands.
+   *
+   * @param length     the number of coefficients in use
+   * @param percentage the percentage of coefficients to zero
+   */
+  private void applyThreshold(int length, int percentage) {
+    int numToZero = (int) ((long) length * percentage / 100.0);
+    int rows = length / waveletWidth;
+    if (singlePrecision) {
+      float threshold = MagnitudeSelection.select(floatCoefficients, length, numToZero, bands);
+      bands.forEachBand(waveletWidth, rows, (startY, endY) -> {
+        for (int i = startY * waveletWidth; i < endY * waveletWidth; i++) {
+          if (Math.abs(floatCoefficients[i]) < threshold) {
+            floatCoefficients[i] = 0;
+          }
+        }
+      });
+    } else {
+      double threshold = MagnitudeSelection.select(coefficients, length, numToZero, bands);
+      bands.forEachBand(waveletWidth, rows, (startY, endY) -> {
+        for (int i = startY * waveletWidth; i < endY * waveletWidth; i++) {
+          if (Math.abs(coefficients[i]) < threshold) {
+            coefficients[i] = 0;
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Rounds and clamps the reconstructed planes into the region of the result image. A region as
+   * wide as the image is written a row at a time; a narrower one is merged into each row.
+   *
+   * @param result      the result image
+   * @param x0          the leftmost column of the region
+   * @param y0          the top row of the region
+   * @param width       the width of the region
+   * @param height      the height of the region
+   * @param paddedWidth the padded width, which is the row stride of each plane
+   */
+  private void write(Image result, int x0, int y0, int width, int height, int paddedWidth) {
+    int plane = paddedWidth * nextPowerOfTwo(height);
+    boolean wholeRows = width == result.getWidth();
+    for (int i = 0; i < height; i++) {
+      int start = i * paddedWidth;
+      for (int j = 0; j < width; j++) {
+        int red = load(start + j);
+        int green = load(plane + start + j);
+        int blue = load(2 * plane + start + j);
+        int rgb = (red << 16) | (green << 8) | blue;
+        if (wholeRows) {
+          row[j] = rgb;
+        } else {
+          result.setRGB(x0 + j, y0 + i, rgb);
+        }
+      }
+      if (wholeRows) {
+        result.setRow(y0 + i, row);
+      }
+    }
+  }
+
+  /**
+   * Quantizes a coefficient to the nearest multiple of
+   * 1 / {@value WaveletCoefficients#QUANTIZATION}, returned as the number of multiples.
+   *
+   * @param index the index of the coefficient
+   * @return the quantized value
+   */
+  private int quantized(int index) {
+    double value = singlePrecision ? floatCoefficients[index] : coefficients[index];
+    return (int) Math.round(value * WaveletCoefficients.QUANTIZATION);
+  }
+
+  /**
+   * Stores a channel value as a coefficient.
+   *
+   * @param index the index of the coefficient
+   * @param value the channel value
+   */
+  private void store(int index, int value) {
+    if (singlePrecision) {
+      floatCoefficients[index] = value;
+    } else {
+      coefficients[index] = value;
+    }
+  }
+
+  /**
+   * Rounds a reconstructed coefficient to the nearest channel value within [0, 255].
+   *
+   * @param index the index of the coefficient
+   * @return the channel value
+   */
+  private int load(int index) {
+    if (singlePrecision) {
+      return clamp(Math.round(floatCoefficients[index]));
+    }
+    return clamp((int) Math.round(coefficients[index]));
+  }
+
+  /**
+   * Turns the scaled sum of a block, as left by a partial inverse, into the average channel value
+   * of the block, rounded and clamped to [0, 255].
+   *
+   * @param index  the index of the coefficient holding the scaled sum
+   * @param factor the factor that turns the scaled sum into the average
+   * @return the channel value
+   */
+  private int average(int index, double factor) {
+    double value = singlePrecision ? floatCoefficients[index] : coefficients[index];
+    return clamp((int) Math.round(value * factor));
+  }
+
+  /**
+   * Calculates the next power of two greater than or equal to the given integer.
+   *
+   * @param n the integer to find the next power of two for
+   * @return the next power of two
+   */
+  static int nextPowerOfTwo(int n) {
+    return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+}
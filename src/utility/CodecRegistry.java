@@ -0,0 +1,125 @@
+package utility;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class keeps the image formats that can be read and written, and chooses among them. A file
+ * is read by the codec that recognizes its first {@value #HEADER_SIZE} bytes, whatever its name, so
+ * the format is known after one small read rather than a trial decode; only when no codec
+ * recognizes them is the file's extension used instead. A file is written in the format its
+ * extension names.
+ *
+ * <p>Codecs registered later are consulted first, so a codec can take over the magic numbers or
+ * extensions of a standard one. Registration may happen while other threads look codecs up.
+ */
+public class CodecRegistry {
+
+  /**
+   * The number of bytes read from the start of a file to choose its codec.
+   */
+  public static final int HEADER_SIZE = 16;
+
+  private final List<ImageCodec> codecs = new CopyOnWriteArrayList<>();
+
+  /**
+   * Constructs a registry with the standard codecs: plain PPM (.ppm), binary PGM (.pgm), binary
+   * PPM (.pnm), PVMW (.pvmw), and the PNG, JPEG, BMP, GIF and TIFF formats of ImageIO.
+   *
+   * @return the registry
+   */
+  public static CodecRegistry standard() {
+    CodecRegistry registry = new CodecRegistry();
+    registry.register(new ImageIOCodec("tiff", new byte[][] {{'I', 'I', 42, 0}, {'M', 'M', 0, 42}},
+        "tif", "tiff"));
+    registry.register(new ImageIOCodec("gif", new byte[][] {{'G', 'I', 'F', '8'}}, "gif"));
+    registry.register(new ImageIOCodec("bmp", new byte[][] {{'B', 'M'}}, "bmp"));
+    registry.register(new ImageIOCodec("jpeg", new byte[][] {{(byte) 0xFF, (byte) 0xD8,
+        (byte) 0xFF}}, "jpg", "jpeg"));
+    registry.register(new ImageIOCodec("png", new byte[][] {{(byte) 0x89, 'P', 'N', 'G', '\r', '\n',
+        0x1A, '\n'}}, "png"));
+    registry.register(new PvmwCodec());
+    registry.register(new NetpbmCodec('6', "pnm"));
+    registry.register(new NetpbmCodec('5', "pgm"));
+    registry.register(new NetpbmCodec('3', "ppm"));
+    return registry;
+  }
+
+  /**
+   * Adds a codec, to be consulted before every codec registered so far.
+   *
+   * @param codec the codec
+   */
+  public void register(ImageCodec codec) {
+    codecs.add(0, codec);
+  }
+
+  /**
+   * Finds the codec that recognizes the first bytes of a file.
+   *
+   * @param header the first bytes of the file
+   * @param length the number of bytes read
+   * @return the codec, or null if no codec recognizes them
+   */
+  public ImageCodec forHeader(byte[] header, int length) {
+    for (ImageCodec codec : codecs) {
+      if (codec.canRead(header, length)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the codec that writes files with the given extension.
+   *
+   * @param extension the extension, without the dot, in any case
+   * @return the codec, or null if no codec writes such files
+   */
+  public ImageCodec forExtension(String extension) {
+    String key = extension.toLowerCase();
+    for (ImageCodec codec : codecs) {
+      if (codec.getExtensions().contains(key)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the codec to read a file with, from its first bytes or else from its extension.
+   *
+   * @param filePath the path of the file
+   * @return the codec, or null if neither the contents nor the name of the file is recognized
+   * @throws IOException if the file cannot be read
+   */
+  public ImageCodec forFile(String filePath) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    int length = 0;
+    try (InputStream in = new FileInputStream(filePath)) {
+      int read;
+      while (length < header.length
+          && (read = in.read(header, length, header.length - length)) > 0) {
+        length += read;
+      }
+    }
+    ImageCodec codec = forHeader(header, length);
+    return codec != null ? codec : forExtension(extensionOf(filePath));
+  }
+
+  /**
+   * Gets the extension of a file name: the text after its last dot, if the dot is in the name
+   * rather than in a directory of the path.
+   *
+   * @param filePath the path of the file
+   * @return the extension, without the dot, or an empty string if the name has none
+   */
+  public static String extensionOf(String filePath) {
+    int dot = filePath.lastIndexOf('.');
+    int separator = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\'));
+    return dot > separator ? filePath.substring(dot + 1).toLowerCase() : "";
+  }
+}
@@ -0,0 +1,84 @@
+package utility;
+
+import model.Image;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This interface represents an image file format that {@link ImageUtil} can read and write through
+ * a {@link CodecRegistry}. A codec is chosen for reading by the first bytes of the file, its magic
+ * number, and for writing, or for reading a file whose first bytes no codec recognizes, by the
+ * extension of the file name.
+ *
+ * <p>A codec may be used from several threads, and for many files one after another, so any state
+ * it keeps between calls must be safe to share.
+ */
+public interface ImageCodec {
+
+  /**
+   * Gets the name of the format, for messages.
+   *
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Gets the lower-case file name extensions, without the dot, of files written in this format.
+   *
+   * @return the extensions
+   */
+  List<String> getExtensions();
+
+  /**
+   * Tells whether a file starting with the given bytes is in this format.
+   *
+   * @param header the first bytes of the file
+   * @param length the number of bytes read, which is less than the array length for short files
+   * @return true if this codec can read the file
+   */
+  boolean canRead(byte[] header, int length);
+
+  /**
+   * Reads an image file.
+   *
+   * @param filePath the path of the file
+   * @return the Image object, or null if reading fails
+   */
+  Image read(String filePath);
+
+  /**
+   * Reads an image file whose pixels may be read from the file only as they are used, when the
+   * format allows it. Codecs that cannot do so read the whole file.
+   *
+   * @param filePath the path of the file
+   * @return the Image object, or null if reading fails
+   */
+  default Image map(String filePath) {
+    return read(filePath);
+  }
+
+  /**
+   * Writes an image file.
+   *
+   * @param image    the Image object to write
+   * @param filePath the path to save the file
+   * @return true if the image is written, false if this format cannot be written
+   * @throws IOException if writing fails
+   */
+  boolean write(Image image, String filePath) throws IOException;
+
+  /**
+   * Writes an image file, in the binary variant of the format when one is asked for and the
+   * format has one. Formats without such a variant write the file as {@link #write} does.
+   *
+   * @param image    the Image object to write
+   * @param filePath the path to save the file
+   * @param binary   true to prefer the binary variant of the format
+   * @return true if the image is written, false if this format cannot be written
+   * @throws IOException if writing fails
+   */
+  default boolean write(Image image, String filePath, boolean binary) throws IOException {
+    return write(image, filePath);
+  }
+}
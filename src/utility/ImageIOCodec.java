@@ -0,0 +1,123 @@
+package utility;
+
+import model.Image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class is the codec of a format that ImageIO reads and writes, such as PNG or JPEG. Where
+ * {@link ImageIO#read(File)} and {@link ImageIO#write} look up and create a reader or writer for
+ * every file, this codec creates one of each per thread on first use and resets it after every
+ * file, so a batch of files pays the setup once per thread. Readers and writers are not
+ * thread-safe, so keeping one per thread lets threads read and write files at the same time
+ * without sharing any.
+ *
+ * <p>Pixels are converted with {@link OtherFormatHandler#toImage} and
+ * {@link OtherFormatHandler#toBufferedImage}, so files are read and written exactly as by
+ * {@link OtherFormatHandler}.
+ */
+final class ImageIOCodec implements ImageCodec {
+
+  private final String formatName;
+  private final byte[][] magicNumbers;
+  private final List<String> extensions;
+  private final ThreadLocal<ImageReader> readers = new ThreadLocal<>();
+  private final ThreadLocal<ImageWriter> writers = new ThreadLocal<>();
+
+  /**
+   * Constructs the codec of an ImageIO format.
+   *
+   * @param formatName   the ImageIO name of the format
+   * @param magicNumbers the byte sequences a file in the format may start with
+   * @param extensions   the extensions of files written in the format
+   */
+  ImageIOCodec(String formatName, byte[][] magicNumbers, String... extensions) {
+    this.formatName = formatName;
+    this.magicNumbers = magicNumbers;
+    this.extensions = Collections.unmodifiableList(Arrays.asList(extensions));
+  }
+
+  @Override
+  public String getName() {
+    return formatName.toUpperCase();
+  }
+
+  @Override
+  public List<String> getExtensions() {
+    return extensions;
+  }
+
+  @Override
+  public boolean canRead(byte[] header, int length) {
+    for (byte[] magic : magicNumbers) {
+      if (length >= magic.length
+          && Arrays.equals(Arrays.copyOf(header, magic.length), magic)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Image read(String filePath) {
+    try (ImageInputStream in = ImageIO.createImageInputStream(new File(filePath))) {
+      if (in == null) {
+        throw new IOException("Cannot open " + filePath);
+      }
+      ImageReader reader = readers.get();
+      if (reader == null) {
+        Iterator<ImageReader> found = ImageIO.getImageReadersByFormatName(formatName);
+        if (!found.hasNext()) {
+          throw new IOException("No reader for " + getName() + " images.");
+        }
+        reader = found.next();
+        readers.set(reader);
+      }
+      try {
+        reader.setInput(in, true, true);
+        return OtherFormatHandler.toImage(reader.read(0));
+      } finally {
+        reader.reset();
+      }
+    } catch (IOException e) {
+      System.out.println("Error reading image: " + e.getMessage());
+      return null;
+    }
+  }
+
+  @Override
+  public boolean write(Image image, String filePath) throws IOException {
+    ImageWriter writer = writers.get();
+    if (writer == null) {
+      Iterator<ImageWriter> found = ImageIO.getImageWritersByFormatName(formatName);
+      if (!found.hasNext()) {
+        return false;
+      }
+      writer = found.next();
+      writers.set(writer);
+    }
+    File file = new File(filePath);
+    // The output stream overwrites in place without truncating, so remove any old file first
+    file.delete();
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+      if (out == null) {
+        throw new IOException("Cannot create " + filePath);
+      }
+      writer.setOutput(out);
+      writer.write(OtherFormatHandler.toBufferedImage(image));
+    } finally {
+      writer.reset();
+    }
+    return true;
+  }
+}
@@ -4,10 +4,28 @@ import model.Image;
 
 /**
  * Utility class for handling image reading and writing operations. Supports multiple formats
- * including PPM, PNG, and JPG.
+ * including PPM, PGM, PNG, JPG, BMP, GIF and TIFF, and PVMW for storing compressed images as
+ * wavelet coefficients, through the codecs of a {@link CodecRegistry}.
+ *
+ * <p>A file is read in the format its first bytes name, whatever its extension, and in the format
+ * its extension names only when its first bytes are not recognized. Files named .ppm, .pgm or
+ * .pnm are written as plain PPM (P3), binary PGM (P5) and binary PPM (P6) respectively, unless
+ * binary output is asked for, which writes .ppm files as binary PPM (P6) too. Further formats can
+ * be added with {@link #registerCodec(ImageCodec)}.
  */
 public class ImageUtil {
 
+  private static final CodecRegistry CODECS = CodecRegistry.standard();
+
+  /**
+   * Adds a codec for reading and writing images, consulted before the codecs registered so far.
+   *
+   * @param codec the codec
+   */
+  public static void registerCodec(ImageCodec codec) {
+    CODECS.register(codec);
+  }
+
   /**
    * Reads an image from the specified file path.
    *
@@ -15,24 +33,32 @@ public class ImageUtil {
    * @return the Image object, or null if an error occurs or the format is unsupported
    */
   public static Image readImage(String filePath) {
+    return readImage(filePath, false);
+  }
+
+  /**
+   * Reads an image from the specified file path, optionally mapping it into memory. A mapped
+   * binary PPM or PGM file is not read until its pixels are used, and then only the parts of the
+   * file holding them; the file must not be changed or replaced while the image is in use. Files
+   * of other formats are read in full either way.
+   *
+   * @param filePath the path of the image file to read
+   * @param mapped   true to map binary PPM and PGM files instead of reading them
+   * @return the Image object, or null if an error occurs or the format is unsupported
+   */
+  public static Image readImage(String filePath, boolean mapped) {
     if (filePath == null || filePath.trim().isEmpty()) {
       System.out.println("Error: File path cannot be null or empty.");
       return null;
     }
 
-    String extension = filePath.substring(filePath.lastIndexOf('.') + 1).toLowerCase();
     try {
-      switch (extension) {
-        case "ppm":
-          return PPMHandler.readPPM(filePath);
-        case "png":
-        case "jpg":
-        case "jpeg":
-          return OtherFormatHandler.readImage(filePath);
-        default:
-          System.out.println("Unsupported file format: " + extension);
-          return null;
+      ImageCodec codec = CODECS.forFile(filePath);
+      if (codec == null) {
+        System.out.println("Unsupported file format: " + CodecRegistry.extensionOf(filePath));
+        return null;
       }
+      return mapped ? codec.map(filePath) : codec.read(filePath);
     } catch (Exception e) {
       System.out.println("Error reading image: " + e.getMessage());
       return null;
@@ -40,13 +66,27 @@ public class ImageUtil {
   }
 
   /**
-   * Writes an image to the specified file path.
+   * Writes an image to the specified file path, in the format its extension names.
    *
    * @param image    the Image object to write
    * @param filePath the path to save the image
    * @return true if the image is written successfully, false otherwise
    */
   public static boolean writeImage(Image image, String filePath) {
+    return writeImage(image, filePath, false);
+  }
+
+  /**
+   * Writes an image to the specified file path, in the format its extension names, optionally in
+   * the binary variant of that format. A .ppm file written in binary holds binary PPM (P6) rather
+   * than plain PPM (P3); formats without a binary variant ignore the option.
+   *
+   * @param image    the Image object to write
+   * @param filePath the path to save the image
+   * @param binary   true to write the binary variant of the format
+   * @return true if the image is written successfully, false otherwise
+   */
+  public static boolean writeImage(Image image, String filePath, boolean binary) {
     if (image == null) {
       System.out.println("Error: Image object cannot be null.");
       return false;
@@ -56,20 +96,14 @@ public class ImageUtil {
       return false;
     }
 
-    String extension = filePath.substring(filePath.lastIndexOf('.') + 1).toLowerCase();
+    String extension = CodecRegistry.extensionOf(filePath);
+    ImageCodec codec = CODECS.forExtension(extension);
+    if (codec == null) {
+      System.out.println("Unsupported file format: " + extension);
+      return false;
+    }
     try {
-      switch (extension) {
-        case "ppm":
-          PPMHandler.writePPM(image, filePath);
-          return true;
-        case "png":
-        case "jpg":
-        case "jpeg":
-          return OtherFormatHandler.writeImage(image, filePath);
-        default:
-          System.out.println("Unsupported file format: " + extension);
-          return false;
-      }
+      return codec.write(image, filePath, binary);
     } catch (Exception e) {
       System.out.println("Error writing image: " + e.getMessage());
       return false;
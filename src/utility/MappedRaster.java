@@ -0,0 +1,115 @@
+package utility;
+
+import model.PixelSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class reads the pixels of a binary PPM (P6) or PGM (P5) raster straight from the file,
+ * through read-only mappings of it. Nothing is read when the raster is mapped; the operating
+ * system pages the file in as pixels are read, and can drop the pages again under memory
+ * pressure, so a raster far larger than the heap can be opened at once.
+ *
+ * <p>A single mapping cannot exceed 2 GB, so the raster is mapped in regions of whole rows of at
+ * most {@value #REGION_SIZE} bytes. Pixels are read with absolute gets, which leave the mappings
+ * unchanged, so any number of threads can read at once. The mappings stay valid after the channel
+ * is closed.
+ */
+final class MappedRaster implements PixelSource {
+
+  private static final int REGION_SIZE = 1 << 30;
+
+  private final int width;
+  private final int channels;
+  private final int bytesPerSample;
+  private final int rowBytes;
+  private final int rowsPerRegion;
+  private final MappedByteBuffer[] regions;
+  // The scaled level of every sample value, or null when samples are already 0-255
+  private final int[] levels;
+
+  /**
+   * Maps the raster of a binary PPM or PGM file.
+   *
+   * @param channel       the open file
+   * @param offset        the position of the raster in the file, just after the header
+   * @param width         the width of the image
+   * @param height        the height of the image
+   * @param channels      the number of samples per pixel, 1 for grey or 3 for color
+   * @param maxColorValue the maximum color value of the file, from 1 to 65535
+   * @throws IOException if the file is too short to hold the raster, or cannot be mapped
+   */
+  MappedRaster(FileChannel channel, long offset, int width, int height, int channels,
+      int maxColorValue) throws IOException {
+    this.width = width;
+    this.channels = channels;
+    this.bytesPerSample = maxColorValue > 255 ? 2 : 1;
+    this.rowBytes = PPMHandler.rowBytes(width, channels, bytesPerSample);
+    if (offset + (long) rowBytes * height > channel.size()) {
+      throw new EOFException("Truncated PPM file.");
+    }
+    this.rowsPerRegion = Math.max(1, REGION_SIZE / Math.max(1, rowBytes));
+    this.regions = new MappedByteBuffer[(height + rowsPerRegion - 1) / rowsPerRegion];
+    for (int region = 0; region < regions.length; region++) {
+      int rows = Math.min(rowsPerRegion, height - region * rowsPerRegion);
+      regions[region] = channel.map(FileChannel.MapMode.READ_ONLY,
+          offset + (long) region * rowsPerRegion * rowBytes, (long) rows * rowBytes);
+    }
+    if (channels == 3 && maxColorValue == 255) {
+      this.levels = null;
+    } else {
+      // Samples above the maximum cannot be rejected without reading the whole raster, so they
+      // read as 255
+      int[] scaled = PPMHandler.scaleTable(maxColorValue);
+      this.levels = new int[bytesPerSample == 2 ? 65536 : 256];
+      Arrays.fill(levels, 255);
+      System.arraycopy(scaled, 0, levels, 0, scaled.length);
+    }
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    return pixel(regions[y / rowsPerRegion],
+        (y % rowsPerRegion) * rowBytes + x * channels * bytesPerSample);
+  }
+
+  @Override
+  public void getRow(int y, int[] row) {
+    MappedByteBuffer region = regions[y / rowsPerRegion];
+    int start = (y % rowsPerRegion) * rowBytes;
+    int pixelBytes = channels * bytesPerSample;
+    if (levels == null) {
+      for (int x = 0, i = start; x < width; x++, i += 3) {
+        row[x] = ((region.get(i) & 0xFF) << 16) | ((region.get(i + 1) & 0xFF) << 8)
+            | (region.get(i + 2) & 0xFF);
+      }
+      return;
+    }
+    for (int x = 0, i = start; x < width; x++, i += pixelBytes) {
+      row[x] = pixel(region, i);
+    }
+  }
+
+  /**
+   * Reads the pixel whose samples start at the given position of a region.
+   *
+   * @param region the mapped region
+   * @param index  the position of the pixel's first sample in the region
+   * @return the packed 0xRRGGBB value of the pixel
+   */
+  private int pixel(MappedByteBuffer region, int index) {
+    int rgb = 0;
+    for (int c = 0; c < channels; c++, index += bytesPerSample) {
+      int value = region.get(index) & 0xFF;
+      if (bytesPerSample == 2) {
+        value = (value << 8) | (region.get(index + 1) & 0xFF);
+      }
+      rgb = (rgb << 8) | (levels == null ? value : levels[value]);
+    }
+    return channels == 1 ? rgb * 0x010101 : rgb;
+  }
+}
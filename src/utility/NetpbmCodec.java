@@ -0,0 +1,84 @@
+package utility;
+
+import model.Image;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the codec of one netpbm format: plain PPM (P3), binary PGM (P5) or binary PPM
+ * (P6). Files of all three are read by {@link PPMHandler#readPPM(String)}, which handles each by
+ * its magic number, and binary files can be mapped into memory; the codec only decides which of
+ * them a file is written as. A plain PPM file asked to be written in binary is written as binary
+ * PPM (P6), which is what most netpbm tools expect of a .ppm file.
+ */
+final class NetpbmCodec implements ImageCodec {
+
+  private final char format;
+  private final List<String> extensions;
+
+  /**
+   * Constructs the codec of a netpbm format.
+   *
+   * @param format    the digit of the magic number: '3', '5' or '6'
+   * @param extension the extension of files written in the format
+   */
+  NetpbmCodec(char format, String extension) {
+    this.format = format;
+    this.extensions = Collections.singletonList(extension);
+  }
+
+  @Override
+  public String getName() {
+    return "P" + format;
+  }
+
+  @Override
+  public List<String> getExtensions() {
+    return extensions;
+  }
+
+  /**
+   * Recognizes 'P', the format digit, and whitespace or the start of a comment.
+   */
+  @Override
+  public boolean canRead(byte[] header, int length) {
+    if (length < 3 || header[0] != 'P' || header[1] != format) {
+      return false;
+    }
+    int c = header[2];
+    return c == '#' || c == ' ' || (c >= '\t' && c <= '\r');
+  }
+
+  @Override
+  public Image read(String filePath) {
+    return PPMHandler.readPPM(filePath);
+  }
+
+  @Override
+  public Image map(String filePath) {
+    return PPMHandler.mapPPM(filePath);
+  }
+
+  @Override
+  public boolean write(Image image, String filePath) throws IOException {
+    if (format == '3') {
+      PPMHandler.writePPM(image, filePath);
+    } else if (format == '5') {
+      PPMHandler.writePGM(image, filePath);
+    } else {
+      PPMHandler.writeBinaryPPM(image, filePath);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean write(Image image, String filePath, boolean binary) throws IOException {
+    if (binary && format == '3') {
+      PPMHandler.writeBinaryPPM(image, filePath);
+      return true;
+    }
+    return write(image, filePath);
+  }
+}
@@ -1,15 +1,26 @@
 package utility;
 
 import model.Image;
-import model.Pixel;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 
 /**
  * Handles reading and writing of images in non-PPM formats (e.g., PNG, JPG).
+ *
+ * <p>Pixels are moved between the decoded BufferedImage and the Image a row at a time. The
+ * layouts ImageIO usually decodes to, packed ints (TYPE_INT_RGB, TYPE_INT_ARGB) and interleaved
+ * bytes (TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR), are read straight from the raster's data array, whose
+ * values need no color conversion; other layouts go through the bulk
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. Images are written from a
+ * TYPE_INT_RGB image whose data array is filled directly.
  */
 public class OtherFormatHandler {
 
@@ -25,21 +36,7 @@ public class OtherFormatHandler {
       if (bufferedImage == null) {
         throw new IOException("Invalid image format or corrupted file.");
       }
-      int width = bufferedImage.getWidth();
-      int height = bufferedImage.getHeight();
-      Image image = new Image(width, height);
-
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          int rgb = bufferedImage.getRGB(x, y);
-          int red = (rgb >> 16) & 0xFF;
-          int green = (rgb >> 8) & 0xFF;
-          int blue = rgb & 0xFF;
-          image.setPixel(x, y, new Pixel(red, green, blue));
-        }
-      }
-
-      return image;
+      return toImage(bufferedImage);
     } catch (IOException e) {
       System.out.println("Error reading image: " + e.getMessage());
       return null;
@@ -55,15 +52,7 @@ public class OtherFormatHandler {
    */
   public static boolean writeImage(Image image, String filename) {
     try {
-      BufferedImage bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(),
-          BufferedImage.TYPE_INT_RGB);
-      for (int y = 0; y < image.getHeight(); y++) {
-        for (int x = 0; x < image.getWidth(); x++) {
-          Pixel pixel = image.getPixel(x, y);
-          int rgb = (pixel.getRed() << 16) | (pixel.getGreen() << 8) | pixel.getBlue();
-          bufferedImage.setRGB(x, y, rgb);
-        }
-      }
+      BufferedImage bufferedImage = toBufferedImage(image);
       String format = filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
       return ImageIO.write(bufferedImage, format, new File(filename));
     } catch (IOException e) {
@@ -71,4 +60,82 @@ public class OtherFormatHandler {
       return false;
     }
   }
+
+  /**
+   * Copies the pixels of an Image into a new opaque TYPE_INT_RGB BufferedImage, which every
+   * ImageIO writer accepts.
+   *
+   * @param image the image to convert
+   * @return the BufferedImage
+   */
+  static BufferedImage toBufferedImage(Image image) {
+    int width = image.getWidth();
+    BufferedImage bufferedImage = new BufferedImage(width, image.getHeight(),
+        BufferedImage.TYPE_INT_RGB);
+    // A new TYPE_INT_RGB image stores its rows one after another from index 0
+    int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+    int[] row = new int[width];
+    for (int y = 0; y < image.getHeight(); y++) {
+      image.getRow(y, row);
+      System.arraycopy(row, 0, data, y * width, width);
+    }
+    return bufferedImage;
+  }
+
+  /**
+   * Converts a BufferedImage to the Image model, dropping any alpha.
+   *
+   * @param bufferedImage the image to convert
+   * @return the Image
+   */
+  public static Image toImage(BufferedImage bufferedImage) {
+    int width = bufferedImage.getWidth();
+    int height = bufferedImage.getHeight();
+    Image image = new Image(width, height);
+    int[] row = new int[width];
+    int type = bufferedImage.getType();
+    WritableRaster raster = bufferedImage.getRaster();
+    // Position of the image's top-left sample in the data array
+    int left = -raster.getSampleModelTranslateX();
+    int top = -raster.getSampleModelTranslateY();
+
+    if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+        && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+        && raster.getDataBuffer() instanceof DataBufferInt) {
+      DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+      int[] data = buffer.getData();
+      int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+      int offset = buffer.getOffset() + top * stride + left;
+      for (int y = 0; y < height; y++) {
+        // setRow drops the alpha byte
+        System.arraycopy(data, offset + y * stride, row, 0, width);
+        image.setRow(y, row);
+      }
+    } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+        && raster.getSampleModel() instanceof ComponentSampleModel
+        && raster.getDataBuffer() instanceof DataBufferByte) {
+      DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+      ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+      byte[] data = buffer.getData();
+      int stride = model.getScanlineStride();
+      int pixelStride = model.getPixelStride();
+      // Bands are red, green, blue (and alpha), wherever they lie within a pixel
+      int[] bands = model.getBandOffsets();
+      int offset = buffer.getOffset() + top * stride + left * pixelStride;
+      for (int y = 0; y < height; y++) {
+        int i = offset + y * stride;
+        for (int x = 0; x < width; x++, i += pixelStride) {
+          row[x] = ((data[i + bands[0]] & 0xFF) << 16) | ((data[i + bands[1]] & 0xFF) << 8)
+              | (data[i + bands[2]] & 0xFF);
+        }
+        image.setRow(y, row);
+      }
+    } else {
+      for (int y = 0; y < height; y++) {
+        bufferedImage.getRGB(0, y, width, 1, row, 0, width);
+        image.setRow(y, row);
+      }
+    }
+    return image;
+  }
 }
@@ -3,43 +3,77 @@ package utility;
 import model.Image;
 import model.Pixel;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
+import java.io.EOFException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
- * Handles reading and writing of PPM (Portable Pixmap) format images.
+ * Handles reading and writing of the netpbm formats: plain (P3) and binary (P6) PPM color images,
+ * and binary (P5) PGM grey images. A file is read according to its magic number, whatever its
+ * extension. Grey images are read with equal red, green and blue values.
+ *
+ * <p>Plain files are read by a tokenizer that scans the raw bytes of the file through a buffer,
+ * so values may be laid out with any whitespace, several to a line, and comments may appear
+ * wherever whitespace may. Channel values are parsed straight from their digits into a row of
+ * packed pixels, without creating a String for each one.
+ *
+ * <p>The raster of a binary file is moved between the file and a row buffer in bulk through a
+ * {@link FileChannel}, one or two big-endian bytes per sample depending on whether the maximum
+ * color value exceeds 255, and only the bytes of each row are unpacked or packed.
+ *
+ * <p>Channel values are scaled from the file's maximum color value to 255 when read, and from 255
+ * to the requested maximum color value when written.
  */
 public class PPMHandler {
 
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_COLOR_VALUE = 65535;
+  private static final String COMMENT = "# Created by Image Processor\n";
+
   /**
-   * Reads a PPM image file and converts it to the Image model.
+   * Reads a PPM or PGM image file and converts it to the Image model.
    *
-   * @param filePath the path to the PPM file
+   * @param filePath the path to the P3, P5 or P6 file
    * @return the Image object, or null if reading fails
    */
   public static Image readPPM(String filePath) {
-    try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-      String magicNumber = br.readLine();
-      if (!magicNumber.equals("P3")) {
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      Tokenizer tokens = new Tokenizer(channel);
+      int format = tokens.nextMagic();
+      if (format != '3' && format != '5' && format != '6') {
         throw new IOException("Invalid PPM file format.");
       }
+      int width = tokens.nextInt("width");
+      int height = tokens.nextInt("height");
+      int maxColorValue = tokens.nextMaxColorValue();
 
-      br.readLine(); // Skip the comment line
-      String[] dimensions = br.readLine().split(" ");
-      int width = Integer.parseInt(dimensions[0]);
-      int height = Integer.parseInt(dimensions[1]);
-      int maxColorValue = Integer.parseInt(br.readLine()); // Max color value (e.g., 255)
-
+      int[] levels = scaleTable(maxColorValue);
       Image image = new Image(width, height);
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          int red = Integer.parseInt(br.readLine());
-          int green = Integer.parseInt(br.readLine());
-          int blue = Integer.parseInt(br.readLine());
-          image.setPixel(x, y, new Pixel(red, green, blue));
+      int[] row = new int[width];
+      if (format == '3') {
+        int[] samples = new int[3 * width];
+        for (int y = 0; y < height; y++) {
+          tokens.nextSamples(samples, levels);
+          for (int x = 0; x < width; x++) {
+            row[x] = (samples[3 * x] << 16) | (samples[3 * x + 1] << 8) | samples[3 * x + 2];
+          }
+          image.setRow(y, row);
+        }
+      } else {
+        int channels = format == '5' ? 1 : 3;
+        int bytesPerSample = maxColorValue > 255 ? 2 : 1;
+        byte[] raster = new byte[rowBytes(width, channels, bytesPerSample)];
+        for (int y = 0; y < height; y++) {
+          tokens.readFully(raster);
+          unpackRow(raster, channels, bytesPerSample, levels, row);
+          image.setRow(y, row);
         }
       }
 
@@ -50,6 +84,111 @@ public class PPMHandler {
     }
   }
 
+  /**
+   * Maps a binary PPM or PGM image file into memory and returns an image that reads its pixels
+   * straight from the mapping, so that only the header is read now and the raster is paged in by
+   * the operating system as pixels are used. The image copies its pixels onto the heap only if
+   * they are changed. The file must not be changed or replaced while the image is in use.
+   *
+   * <p>Plain (P3) files cannot be mapped and are read as by {@link #readPPM(String)}. Samples of a
+   * mapped file are not checked against the maximum color value; larger samples read as 255.
+   *
+   * @param filePath the path to the P3, P5 or P6 file
+   * @return the Image object, or null if reading fails
+   */
+  public static Image mapPPM(String filePath) {
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      Tokenizer tokens = new Tokenizer(channel);
+      int format = tokens.nextMagic();
+      if (format == '3') {
+        return readPPM(filePath);
+      }
+      if (format != '5' && format != '6') {
+        throw new IOException("Invalid PPM file format.");
+      }
+      int width = tokens.nextInt("width");
+      int height = tokens.nextInt("height");
+      int maxColorValue = tokens.nextMaxColorValue();
+      MappedRaster raster = new MappedRaster(channel, tokens.offset(), width, height,
+          format == '5' ? 1 : 3, maxColorValue);
+      return new Image(width, height, raster);
+    } catch (IOException e) {
+      System.out.println("Error reading PPM file: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Computes the number of bytes in a row of a binary raster.
+   *
+   * @param width          the width of the image
+   * @param channels       the number of samples per pixel
+   * @param bytesPerSample the number of bytes per sample
+   * @return the number of bytes
+   * @throws IOException if a row would not fit in an array
+   */
+  static int rowBytes(int width, int channels, int bytesPerSample) throws IOException {
+    long bytes = (long) width * channels * bytesPerSample;
+    if (bytes > Integer.MAX_VALUE - 8) {
+      throw new IOException("PPM image is too wide.");
+    }
+    return (int) bytes;
+  }
+
+  /**
+   * Unpacks a row of a binary raster into packed pixels, scaling each sample to [0, 255].
+   *
+   * @param raster         the bytes of the row
+   * @param channels       the number of samples per pixel, 1 for grey or 3 for color
+   * @param bytesPerSample 1, or 2 for big-endian samples when the maximum color value exceeds 255
+   * @param levels         the scaled level of each sample value the file may hold
+   * @param row            receives the packed pixels
+   * @throws IOException if a sample exceeds the maximum color value
+   */
+  private static void unpackRow(byte[] raster, int channels, int bytesPerSample, int[] levels,
+      int[] row) throws IOException {
+    if (channels == 3 && levels.length == 256) {
+      // Samples of 0-255 need no scaling or checking
+      for (int x = 0, i = 0; x < row.length; x++, i += 3) {
+        row[x] = ((raster[i] & 0xFF) << 16) | ((raster[i + 1] & 0xFF) << 8)
+            | (raster[i + 2] & 0xFF);
+      }
+      return;
+    }
+    int i = 0;
+    for (int x = 0; x < row.length; x++) {
+      int rgb = 0;
+      for (int c = 0; c < channels; c++) {
+        int value = raster[i] & 0xFF;
+        if (bytesPerSample == 2) {
+          value = (value << 8) | (raster[i + 1] & 0xFF);
+        }
+        i += bytesPerSample;
+        if (value >= levels.length) {
+          throw new IOException("PPM channel value " + value + " exceeds the maximum color value "
+              + (levels.length - 1) + ".");
+        }
+        rgb = (rgb << 8) | levels[value];
+      }
+      row[x] = channels == 1 ? rgb * 0x010101 : rgb;
+    }
+  }
+
+  /**
+   * Builds the table that maps each channel value of a file to the range [0, 255], rounding to
+   * the nearest level.
+   *
+   * @param maxColorValue the maximum color value of the file
+   * @return the table, indexed by channel value from 0 to maxColorValue
+   */
+  static int[] scaleTable(int maxColorValue) {
+    int[] levels = new int[maxColorValue + 1];
+    for (int value = 0; value <= maxColorValue; value++) {
+      levels[value] = (value * 255 + maxColorValue / 2) / maxColorValue;
+    }
+    return levels;
+  }
+
   /**
    * Writes an Image object to a PPM file.
    *
@@ -60,7 +199,7 @@ public class PPMHandler {
   public static void writePPM(Image image, String filePath) throws IOException {
     try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
       bw.write("P3\n");
-      bw.write("# Created by Image Processor\n");
+      bw.write(COMMENT);
       bw.write(image.getWidth() + " " + image.getHeight() + "\n");
       bw.write("255\n");
 
@@ -74,4 +213,394 @@ public class PPMHandler {
       }
     }
   }
+
+  /**
+   * Writes an Image object to a binary (P6) PPM file with a maximum color value of 255.
+   *
+   * @param image    the Image object to write
+   * @param filePath the path to save the PPM file
+   * @throws IOException if writing fails
+   */
+  public static void writeBinaryPPM(Image image, String filePath) throws IOException {
+    writeBinaryPPM(image, filePath, 255);
+  }
+
+  /**
+   * Writes an Image object to a binary (P6) PPM file with the given maximum color value, using two
+   * bytes per sample when it exceeds 255.
+   *
+   * @param image         the Image object to write
+   * @param filePath      the path to save the PPM file
+   * @param maxColorValue the maximum color value, from 1 to 65535
+   * @throws IOException              if writing fails
+   * @throws IllegalArgumentException if the maximum color value is out of range
+   */
+  public static void writeBinaryPPM(Image image, String filePath, int maxColorValue)
+      throws IOException {
+    writeBinary(image, filePath, 3, maxColorValue);
+  }
+
+  /**
+   * Writes an Image object to a binary (P5) PGM file with a maximum color value of 255.
+   *
+   * @param image    the Image object to write
+   * @param filePath the path to save the PGM file
+   * @throws IOException if writing fails
+   */
+  public static void writePGM(Image image, String filePath) throws IOException {
+    writePGM(image, filePath, 255);
+  }
+
+  /**
+   * Writes an Image object to a binary (P5) PGM file with the given maximum color value, using two
+   * bytes per sample when it exceeds 255. Grey pixels keep their value; other pixels are stored as
+   * their Rec. 709 luma, rounded.
+   *
+   * @param image         the Image object to write
+   * @param filePath      the path to save the PGM file
+   * @param maxColorValue the maximum color value, from 1 to 65535
+   * @throws IOException              if writing fails
+   * @throws IllegalArgumentException if the maximum color value is out of range
+   */
+  public static void writePGM(Image image, String filePath, int maxColorValue)
+      throws IOException {
+    writeBinary(image, filePath, 1, maxColorValue);
+  }
+
+  /**
+   * Writes an Image object to a binary netpbm file, packing rows of samples into a buffer that is
+   * written to a {@link FileChannel} whenever it fills.
+   *
+   * @param image         the Image object to write
+   * @param filePath      the path to save the file
+   * @param channels      1 to write a P5 grey image, 3 to write a P6 color image
+   * @param maxColorValue the maximum color value, from 1 to 65535
+   * @throws IOException              if writing fails
+   * @throws IllegalArgumentException if the maximum color value is out of range
+   */
+  private static void writeBinary(Image image, String filePath, int channels, int maxColorValue)
+      throws IOException {
+    if (maxColorValue < 1 || maxColorValue > MAX_COLOR_VALUE) {
+      throw new IllegalArgumentException("Invalid maximum color value: " + maxColorValue);
+    }
+    int width = image.getWidth();
+    int bytesPerSample = maxColorValue > 255 ? 2 : 1;
+    int[] levels = new int[256];
+    for (int value = 0; value < 256; value++) {
+      levels[value] = (value * maxColorValue + 127) / 255;
+    }
+    String header = (channels == 1 ? "P5\n" : "P6\n") + COMMENT + width + " "
+        + image.getHeight() + "\n" + maxColorValue + "\n";
+    ByteBuffer buffer = ByteBuffer.allocate(
+        Math.max(BUFFER_SIZE, rowBytes(width, channels, bytesPerSample)));
+    buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+    int[] row = new int[width];
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (int y = 0; y < image.getHeight(); y++) {
+        if (buffer.remaining() < rowBytes(width, channels, bytesPerSample)) {
+          writeAll(channel, buffer);
+        }
+        image.getRow(y, row);
+        packRow(row, channels, bytesPerSample, levels, buffer);
+      }
+      writeAll(channel, buffer);
+    }
+  }
+
+  /**
+   * Packs a row of pixels into the samples of a binary raster.
+   *
+   * @param row            the packed pixels
+   * @param channels       1 for the luma of each pixel, 3 for its red, green and blue values
+   * @param bytesPerSample 1, or 2 for big-endian samples
+   * @param levels         the sample value of each level from 0 to 255
+   * @param buffer         receives the samples
+   */
+  private static void packRow(int[] row, int channels, int bytesPerSample, int[] levels,
+      ByteBuffer buffer) {
+    for (int rgb : row) {
+      int red = (rgb >> 16) & 0xFF;
+      int green = (rgb >> 8) & 0xFF;
+      int blue = rgb & 0xFF;
+      if (channels == 1) {
+        int grey = (2126 * red + 7152 * green + 722 * blue + 5000) / 10000;
+        putSample(buffer, levels[grey], bytesPerSample);
+      } else {
+        putSample(buffer, levels[red], bytesPerSample);
+        putSample(buffer, levels[green], bytesPerSample);
+        putSample(buffer, levels[blue], bytesPerSample);
+      }
+    }
+  }
+
+  /**
+   * Puts one sample into a buffer.
+   *
+   * @param buffer         the buffer
+   * @param value          the sample value
+   * @param bytesPerSample 1, or 2 for a big-endian sample
+   */
+  private static void putSample(ByteBuffer buffer, int value, int bytesPerSample) {
+    if (bytesPerSample == 2) {
+      buffer.putShort((short) value);
+    } else {
+      buffer.put((byte) value);
+    }
+  }
+
+  /**
+   * Writes the contents of a buffer to a channel and empties the buffer.
+   *
+   * @param channel the channel
+   * @param buffer  the buffer, with its contents before its position
+   * @throws IOException if writing fails
+   */
+  private static void writeAll(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Splits the bytes of a PPM file into the unsigned decimal numbers of its header and raster,
+   * skipping whitespace and comments that run from '#' to the end of the line. Each number must
+   * be followed by whitespace, a comment or the end of the file.
+   */
+  private static final class Tokenizer {
+
+    private final ReadableByteChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+    private long start;
+    private int position;
+    private int limit;
+
+    /**
+     * Constructs a tokenizer over the given channel, which it reads in blocks of
+     * {@value #BUFFER_SIZE} bytes.
+     *
+     * @param channel the channel to read
+     */
+    Tokenizer(ReadableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Reads the next byte.
+     *
+     * @return the byte, from 0 to 255, or -1 at the end of the file
+     * @throws IOException if reading fails
+     */
+    int read() throws IOException {
+      if (position == limit) {
+        start += limit;
+        wrapper.clear();
+        limit = Math.max(0, channel.read(wrapper));
+        position = 0;
+        if (limit == 0) {
+          return -1;
+        }
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Reads the magic number at the start of the file: 'P' and a digit, followed by whitespace or
+     * a comment.
+     *
+     * @return the digit, or -1 if the file does not start with a magic number
+     * @throws IOException if reading fails
+     */
+    int nextMagic() throws IOException {
+      if (read() != 'P') {
+        return -1;
+      }
+      int format = read();
+      int c = read();
+      if (c == '#') {
+        skipComment();
+      } else if (!isWhitespace(c)) {
+        return -1;
+      }
+      return format >= '0' && format <= '9' ? format : -1;
+    }
+
+    /**
+     * Fills an array with the next bytes of the file, taking what remains in the buffer first and
+     * reading the rest straight from the channel.
+     *
+     * @param bytes the array to fill
+     * @throws IOException if the file ends first
+     */
+    void readFully(byte[] bytes) throws IOException {
+      int buffered = Math.min(limit - position, bytes.length);
+      System.arraycopy(buffer, position, bytes, 0, buffered);
+      position += buffered;
+      ByteBuffer rest = ByteBuffer.wrap(bytes, buffered, bytes.length - buffered);
+      while (rest.hasRemaining()) {
+        if (channel.read(rest) < 0) {
+          throw new EOFException("Truncated PPM file.");
+        }
+      }
+    }
+
+    /**
+     * Reads the next number.
+     *
+     * @param name what the number is, for error messages
+     * @return the number
+     * @throws IOException if the file ends before the number, or the next token is not a number
+     *                     that fits in an int
+     */
+    int nextInt(String name) throws IOException {
+      int c = skipSeparators();
+      if (c < '0' || c > '9') {
+        throw new IOException(c < 0 ? "Truncated PPM file: missing " + name + "."
+            : "Invalid PPM " + name + ".");
+      }
+      int value = 0;
+      while (c >= '0' && c <= '9') {
+        if (value > (Integer.MAX_VALUE - (c - '0')) / 10) {
+          throw new IOException("PPM " + name + " is too large.");
+        }
+        value = value * 10 + (c - '0');
+        c = read();
+      }
+      if (c == '#') {
+        skipComment();
+      } else if (c >= 0 && !isWhitespace(c)) {
+        throw new IOException("Invalid PPM " + name + ".");
+      }
+      return value;
+    }
+
+    /**
+     * Reads the maximum color value of the header.
+     *
+     * @return the maximum color value, from 1 to 65535
+     * @throws IOException if the next token is not a number in that range
+     */
+    int nextMaxColorValue() throws IOException {
+      int maxColorValue = nextInt("maximum color value");
+      if (maxColorValue < 1 || maxColorValue > MAX_COLOR_VALUE) {
+        throw new IOException("Invalid PPM maximum color value: " + maxColorValue);
+      }
+      return maxColorValue;
+    }
+
+    /**
+     * Gets the position in the file of the next byte to be read.
+     *
+     * @return the number of bytes read so far
+     */
+    long offset() {
+      return start + position;
+    }
+
+    /**
+     * Reads channel values and scales them to [0, 255], filling the given array. Values that lie
+     * wholly within the buffer, preceded only by whitespace and followed by whitespace, are parsed
+     * from local copies of the buffer state; any other value, such as one split by a refill or
+     * next to a comment, is read a byte at a time.
+     *
+     * @param samples receives the scaled values
+     * @param levels  the scaled level of each channel value the file may hold
+     * @throws IOException if a token is not a number, or exceeds the maximum color value
+     */
+    void nextSamples(int[] samples, int[] levels) throws IOException {
+      byte[] bytes = buffer;
+      int count = samples.length;
+      int i = 0;
+      while (i < count) {
+        int end = limit;
+        int p = position;
+        while (i < count) {
+          int q = p;
+          while (q < end && isWhitespace(bytes[q])) {
+            q++;
+          }
+          int value = 0;
+          int digits = 0;
+          while (q < end && digits < 9) {
+            int digit = bytes[q] - '0';
+            if (digit < 0 || digit > 9) {
+              break;
+            }
+            value = value * 10 + digit;
+            digits++;
+            q++;
+          }
+          if (digits == 0 || q == end || !isWhitespace(bytes[q]) || value >= levels.length) {
+            break;
+          }
+          samples[i++] = levels[value];
+          p = q + 1;
+        }
+        position = p;
+        if (i < count) {
+          samples[i++] = nextSample(levels);
+        }
+      }
+    }
+
+    /**
+     * Reads the next channel value and scales it to [0, 255].
+     *
+     * @param levels the scaled level of each channel value the file may hold
+     * @return the scaled value
+     * @throws IOException if the next token is not a number, or exceeds the maximum color value
+     */
+    int nextSample(int[] levels) throws IOException {
+      int value = nextInt("channel value");
+      if (value >= levels.length) {
+        throw new IOException("PPM channel value " + value + " exceeds the maximum color value "
+            + (levels.length - 1) + ".");
+      }
+      return levels[value];
+    }
+
+    /**
+     * Skips whitespace and comments.
+     *
+     * @return the first byte after them, or -1 at the end of the file
+     * @throws IOException if reading fails
+     */
+    private int skipSeparators() throws IOException {
+      int c = read();
+      while (true) {
+        if (c == '#') {
+          skipComment();
+        } else if (!isWhitespace(c)) {
+          return c;
+        }
+        c = read();
+      }
+    }
+
+    /**
+     * Skips the rest of a comment, up to and including the end of its line.
+     *
+     * @throws IOException if reading fails
+     */
+    private void skipComment() throws IOException {
+      int c;
+      do {
+        c = read();
+      } while (c >= 0 && c != '\n' && c != '\r');
+    }
+
+    /**
+     * Tells whether a byte is whitespace in a PPM file: space, tab, line feed, vertical tab, form
+     * feed or carriage return.
+     *
+     * @param c the byte
+     * @return true if it is whitespace
+     */
+    private static boolean isWhitespace(int c) {
+      return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+  }
 }
@@ -0,0 +1,222 @@
+package utility;
+
+import model.Image;
+import model.WaveletCoefficients;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Handles reading and writing of PVMW (wavelet) files, which store an image as the sparse Haar
+ * wavelet coefficients of {@link WaveletCoefficients}. A compressed image is stored with only the
+ * coefficients its compression kept, so the file shrinks with the compression percentage; any
+ * other image is stored losslessly.
+ *
+ * <p>The file starts with the four bytes "PVMW", a version byte (1), a flags byte (bit 0 set for
+ * single precision), and the width, height and tile size as big-endian ints. The rest is a
+ * Deflate stream holding, for each tile and then each channel, the number of coefficients followed
+ * by each coefficient as the gap from the previous index (the index itself for the first, minus
+ * one otherwise) and the quantized value, zigzag encoded. All numbers in the stream are unsigned
+ * LEB128 varints, so the many small gaps and values of a sparse image take one byte each before
+ * Deflate.
+ */
+public class PVMWHandler {
+
+  private static final byte[] MAGIC = {'P', 'V', 'M', 'W'};
+  private static final int VERSION = 1;
+  private static final int SINGLE_PRECISION = 1;
+
+  /**
+   * Reads a PVMW file and reconstructs the image it stores.
+   *
+   * @param filePath the path to the PVMW file
+   * @return the Image object, or null if reading fails
+   */
+  public static Image readPVMW(String filePath) {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(filePath)))) {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != VERSION) {
+        throw new IOException("Invalid PVMW file format.");
+      }
+      boolean singlePrecision = (in.readUnsignedByte() & SINGLE_PRECISION) != 0;
+      int width = in.readInt();
+      int height = in.readInt();
+      int tileSize = in.readInt();
+      if (width < 0 || height < 0 || tileSize < 0) {
+        throw new IOException("Invalid PVMW dimensions.");
+      }
+      long tiles = 1;
+      if (tileSize > 0) {
+        tiles = ((width + (long) tileSize - 1) / tileSize)
+            * ((height + (long) tileSize - 1) / tileSize);
+      }
+      if (tiles > Integer.MAX_VALUE / 3) {
+        throw new IOException("Invalid PVMW tile size.");
+      }
+      int lists = 3 * (int) tiles;
+      int[][] indices = new int[lists][];
+      int[][] values = new int[lists][];
+      InputStream body = new BufferedInputStream(new InflaterInputStream(in));
+      for (int list = 0; list < lists; list++) {
+        int count = readVarint(body);
+        if (count < 0 || count > WaveletCoefficients.planeSize(width, height, tileSize, list / 3)) {
+          throw new IOException("Invalid PVMW coefficient count.");
+        }
+        indices[list] = new int[count];
+        values[list] = new int[count];
+        int index = -1;
+        for (int i = 0; i < count; i++) {
+          index += readVarint(body) + 1;
+          indices[list][i] = index;
+          int zigzag = readVarint(body);
+          values[list][i] = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+      }
+      return WaveletCoefficients.of(width, height, tileSize, singlePrecision, indices, values)
+          .toImage();
+    } catch (IOException | IllegalArgumentException e) {
+      System.out.println("Error reading PVMW file: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Writes an Image object to a PVMW file, as the coefficients of its compression if it is the
+   * unmodified result of one, and losslessly otherwise.
+   *
+   * @param image    the Image object to write
+   * @param filePath the path to save the PVMW file
+   * @throws IOException if writing fails
+   */
+  public static void writePVMW(Image image, String filePath) throws IOException {
+    WaveletCoefficients coefficients = WaveletCoefficients.of(image);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath))) {
+      write(coefficients, out);
+    }
+  }
+
+  /**
+   * Computes the size of the PVMW file that would store the given coefficients, without writing
+   * it.
+   *
+   * @param coefficients the coefficients
+   * @return the size of the file in bytes
+   */
+  public static long encodedSize(WaveletCoefficients coefficients) {
+    long[] count = new long[1];
+    OutputStream counter = new OutputStream() {
+      @Override
+      public void write(int b) {
+        count[0]++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        count[0] += len;
+      }
+    };
+    try {
+      write(coefficients, counter);
+    } catch (IOException e) {
+      throw new IllegalStateException("Counting bytes cannot fail.", e);
+    }
+    return count[0];
+  }
+
+  /**
+   * Writes coefficients in the PVMW format.
+   *
+   * @param coefficients the coefficients
+   * @param stream       the stream to write to, which is flushed but not closed
+   * @throws IOException if writing fails
+   */
+  private static void write(WaveletCoefficients coefficients, OutputStream stream)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(stream);
+    out.write(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(coefficients.isSinglePrecision() ? SINGLE_PRECISION : 0);
+    out.writeInt(coefficients.getWidth());
+    out.writeInt(coefficients.getHeight());
+    out.writeInt(coefficients.getTileSize());
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 64 * 1024);
+      OutputStream body = new BufferedOutputStream(deflated, 64 * 1024);
+      for (int tile = 0; tile < coefficients.getTileCount(); tile++) {
+        for (int channel = 0; channel < 3; channel++) {
+          int[] indices = coefficients.getIndices(tile, channel);
+          int[] values = coefficients.getValues(tile, channel);
+          writeVarint(body, indices.length);
+          int previous = -1;
+          for (int i = 0; i < indices.length; i++) {
+            writeVarint(body, indices[i] - previous - 1);
+            previous = indices[i];
+            writeVarint(body, (values[i] << 1) ^ (values[i] >> 31));
+          }
+        }
+      }
+      body.flush();
+      deflated.finish();
+      out.flush();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Writes a number as an unsigned LEB128 varint: seven bits per byte, least significant first,
+   * with the high bit set on every byte but the last.
+   *
+   * @param out   the stream to write to
+   * @param value the number, read as unsigned
+   * @throws IOException if writing fails
+   */
+  private static void writeVarint(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Reads an unsigned LEB128 varint.
+   *
+   * @param in the stream to read from
+   * @return the number
+   * @throws IOException if the stream ends or the varint does not fit in 32 bits
+   */
+  private static int readVarint(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated PVMW file.");
+      }
+      if (shift == 28 && b > 0x0F) {
+        // The fifth byte holds the top four bits and must be the last
+        break;
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid PVMW varint.");
+  }
+}
@@ -0,0 +1,41 @@
+package utility;
+
+import model.Image;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the codec of PVMW files, the sparse wavelet coefficients handled by
+ * {@link PVMWHandler}, which start with the bytes "PVMW".
+ */
+final class PvmwCodec implements ImageCodec {
+
+  @Override
+  public String getName() {
+    return "PVMW";
+  }
+
+  @Override
+  public List<String> getExtensions() {
+    return Collections.singletonList("pvmw");
+  }
+
+  @Override
+  public boolean canRead(byte[] header, int length) {
+    return length >= 4 && header[0] == 'P' && header[1] == 'V' && header[2] == 'M'
+        && header[3] == 'W';
+  }
+
+  @Override
+  public Image read(String filePath) {
+    return PVMWHandler.readPVMW(filePath);
+  }
+
+  @Override
+  public boolean write(Image image, String filePath) throws IOException {
+    PVMWHandler.writePVMW(image, filePath);
+    return true;
+  }
+}
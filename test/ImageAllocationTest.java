@@ -0,0 +1,116 @@
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import model.Image;
+import model.ImageProcessor;
+import model.ImageProcessorImpl;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class contains JUnit test cases that count the bytes allocated by full-image operations in
+ * ImageProcessorImpl. Each operation may allocate its result image and a few row buffers, but an
+ * operation that creates an object for every pixel exceeds the budget and fails.
+ */
+public class ImageAllocationTest {
+
+  private static final int SIZE = 512;
+  private static final long ROW_BUFFER_ALLOWANCE = 256 * 1024;
+
+  private ImageProcessor processor;
+  private Image image;
+  private com.sun.management.ThreadMXBean threads;
+
+  /**
+   * Sets up a 512x512 gradient image and checks that the JVM can report per-thread allocation. The
+   * processor runs sequentially so that all allocation happens on the measured thread.
+   */
+  @Before
+  public void setUp() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    processor = new ImageProcessorImpl(1);
+    image = new Image(SIZE, SIZE);
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        image.setRGB(x, y, x % 256, y % 256, (x + y) % 256);
+      }
+    }
+  }
+
+  /**
+   * Runs the operation once to warm it up, then measures a second run and checks that it allocated
+   * no more than the given number of images plus a fixed allowance for row buffers.
+   *
+   * @param name   the name of the operation, used in the failure message
+   * @param images the number of full-size images the operation is expected to allocate
+   * @param op     the operation to measure
+   */
+  private void assertNoPerPixelAllocation(String name, int images, Supplier<Image> op) {
+    op.get();
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    op.get();
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    long budget = images * (4L * SIZE * SIZE + 64) + ROW_BUFFER_ALLOWANCE;
+    assertTrue(name + " allocated " + allocated + " bytes, budget " + budget,
+        allocated <= budget);
+  }
+
+  @Test
+  public void testChannelVisualizationsDoNotAllocatePerPixel() {
+    assertNoPerPixelAllocation("red-component", 1, () -> processor.visualizeRedComponent(image));
+    assertNoPerPixelAllocation("green-component", 1,
+        () -> processor.visualizeGreenComponent(image));
+    assertNoPerPixelAllocation("blue-component", 1, () -> processor.visualizeBlueComponent(image));
+    assertNoPerPixelAllocation("value-component", 1, () -> processor.visualizeValue(image));
+    assertNoPerPixelAllocation("intensity-component", 1,
+        () -> processor.visualizeIntensity(image));
+    assertNoPerPixelAllocation("luma-component", 1, () -> processor.visualizeLuma(image));
+    assertNoPerPixelAllocation("rgb-split", 3, () -> processor.splitChannels(image)[0]);
+  }
+
+  @Test
+  public void testGeometryDoesNotAllocatePerPixel() {
+    assertNoPerPixelAllocation("horizontal-flip", 1, () -> processor.flipHorizontal(image));
+    assertNoPerPixelAllocation("vertical-flip", 1, () -> processor.flipVertical(image));
+    assertNoPerPixelAllocation("downscale", 1,
+        () -> processor.downscaleImage(image, SIZE / 2, SIZE / 3));
+    assertNoPerPixelAllocation("rgb-combine", 1,
+        () -> processor.combineChannels(image, image, image));
+  }
+
+  @Test
+  public void testPointOperationsDoNotAllocatePerPixel() {
+    assertNoPerPixelAllocation("brighten", 1, () -> processor.brightness(image, 40));
+    assertNoPerPixelAllocation("darken", 1, () -> processor.darkness(image, 40));
+    assertNoPerPixelAllocation("greyscale", 1, () -> processor.toGreyscale(image));
+    assertNoPerPixelAllocation("sepia", 1, () -> processor.toSepia(image));
+    assertNoPerPixelAllocation("color-correct", 1, () -> processor.colorCorrect(image));
+    assertNoPerPixelAllocation("levels-adjust", 1,
+        () -> processor.levelsAdjust(image, 20, 128, 230));
+  }
+
+  @Test
+  public void testFiltersDoNotAllocatePerPixel() {
+    assertNoPerPixelAllocation("blur", 1, () -> processor.blur(image));
+    assertNoPerPixelAllocation("sharpen", 1, () -> processor.sharpen(image));
+  }
+
+  @Test
+  public void testCompositingDoesNotAllocatePerPixel() {
+    Image processed = processor.blur(image);
+    Image mask = new Image(SIZE, SIZE);
+    assertNoPerPixelAllocation("split", 1,
+        () -> processor.applySplitView(image, processed, 50));
+    assertNoPerPixelAllocation("partial", 2, () -> processor.applyWithMask(image, mask, "sepia"));
+    assertNoPerPixelAllocation("histogram", 1, () -> processor.generateHistogram(image));
+  }
+
+}
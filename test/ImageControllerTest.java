@@ -1,14 +1,27 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import controller.ImageController;
+import model.CompressionOptions;
+import model.CompressionResult;
+import model.CompressionTarget;
 import model.Image;
+import model.ImageComparison;
 import model.ImageProcessor;
+import model.ImageProcessorImpl;
+import model.LookupTable;
+import model.PointPipeline;
 import view.ImageView;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -62,6 +75,7 @@ public class ImageControllerTest {
     public double[][] lastKernel;
     public double[][] lastColorTransformation;
     public int lastSplitPercentage;
+    public CompressionOptions lastCompressionOptions;
 
 
     @Override
@@ -121,6 +135,12 @@ public class ImageControllerTest {
       return new Image(1, 1);
     }
 
+    @Override
+    public Image applySeparableFilter(Image image, double[] horizontal, double[] vertical) {
+      lastOperation = "ApplySeparableFilter";
+      return new Image(1, 1);
+    }
+
     @Override
     public Image blur(Image image) {
       lastOperation = "Blur";
@@ -182,6 +202,40 @@ public class ImageControllerTest {
       return new Image(1, 1);
     }
 
+    @Override
+    public Image compress(Image image, int percentage, int tileSize) {
+      lastOperation = "CompressTiled " + percentage + " " + tileSize;
+      return new Image(1, 1);
+    }
+
+    @Override
+    public Image compress(Image image, int percentage, CompressionOptions options) {
+      lastOperation = "CompressWithOptions " + percentage + " " + options.getTileSize() + " "
+          + options.isSinglePrecision();
+      lastCompressionOptions = options;
+      return new Image(1, 1);
+    }
+
+    @Override
+    public CompressionResult compress(Image image, CompressionTarget target,
+        CompressionOptions options) {
+      lastOperation = "CompressToTarget " + target + " " + options.isSinglePrecision();
+      lastCompressionOptions = options;
+      return new CompressionResult(new Image(1, 1), 42, 1.5, -1, true);
+    }
+
+    @Override
+    public ImageComparison compare(Image expected, Image actual) {
+      lastOperation = "Compare";
+      return new ImageComparison(2.0, 0.9);
+    }
+
+    @Override
+    public Image preview(Image image, int levels) {
+      lastOperation = "Preview " + levels;
+      return new Image(1, 1);
+    }
+
     @Override
     public Image generateHistogram(Image image) {
       lastOperation = "GenerateHistogram";
@@ -200,6 +254,18 @@ public class ImageControllerTest {
       return new Image(1, 1);
     }
 
+    @Override
+    public Image applyLookupTable(Image image, LookupTable table) {
+      lastOperation = "ApplyLookupTable";
+      return new Image(1, 1);
+    }
+
+    @Override
+    public Image applyPipeline(Image image, PointPipeline pipeline) {
+      lastOperation = "ApplyPipeline";
+      return new Image(1, 1);
+    }
+
     @Override
     public Image applySplitView(Image original, Image processed, int splitPercentage) {
       lastOperation = "SplitView";
@@ -2523,5 +2589,406 @@ public class ImageControllerTest {
     assertTrue(testView.lastError.contains("Invalid file path"));
   }
 
+  /**
+   * Writes a small PPM image to a temporary file.
+   *
+   * @return the path of the file
+   * @throws IOException if the file cannot be written
+   */
+  private String writeTestPpm() throws IOException {
+    File file = File.createTempFile("lazy", ".ppm");
+    file.deleteOnExit();
+    StringBuilder ppm = new StringBuilder("P3\n# lazy test\n4 3\n255\n");
+    for (int i = 0; i < 12; i++) {
+      ppm.append(i * 20).append('\n').append(255 - i * 20).append('\n').append(i * 7).append('\n');
+    }
+    Files.write(file.toPath(), ppm.toString().getBytes(StandardCharsets.US_ASCII));
+    return file.getPath();
+  }
+
+  /**
+   * Tests that in lazy mode an operation only runs when its result is saved, and runs only once.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLazyOperationRunsOnSave() throws IOException {
+    controller = new ImageController(testView, testProcessor, true);
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("brighten 20 img bright");
+    assertEquals("", testProcessor.lastOperation);
+    assertTrue(testView.lastMessage.contains("completed"));
+
+    File output = File.createTempFile("lazy-out", ".ppm");
+    output.deleteOnExit();
+    controller.execute("save " + output.getPath() + " bright");
+    assertEquals("Brightness", testProcessor.lastOperation);
+    assertEquals(20, testProcessor.lastBrightnessAdjustment);
+
+    testProcessor.lastOperation = "";
+    controller.execute("save " + output.getPath() + " bright");
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that in lazy mode an intermediate image that is never used is never computed.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLazyUnusedIntermediateIsNotComputed() throws IOException {
+    controller = new ImageController(testView, testProcessor, true);
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("blur img unused");
+    assertEquals("", testProcessor.lastOperation);
+    controller.execute("sepia img used");
+    File output = File.createTempFile("lazy-out", ".ppm");
+    output.deleteOnExit();
+    controller.execute("save " + output.getPath() + " used");
+    assertEquals("Sepia", testProcessor.lastOperation);
+    assertNull(testProcessor.lastKernel);
+  }
+
+  /**
+   * Tests that in lazy mode invalid arguments are still reported when the command runs.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLazyModeReportsMissingSourceImmediately() throws IOException {
+    controller = new ImageController(testView, testProcessor, true);
+    controller.execute("blur missing out");
+    assertTrue(testView.lastError.contains("not found"));
+  }
+
+  /**
+   * Tests that a script run lazily saves exactly the same files as when run eagerly, including
+   * when a result reuses the name of its source.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLazyScriptMatchesEagerScript() throws IOException {
+    String input = writeTestPpm();
+    byte[][] saved = new byte[2][];
+    for (int mode = 0; mode < 2; mode++) {
+      ImageController scriptController =
+          new ImageController(testView, new ImageProcessorImpl(1), mode == 1);
+      File output = File.createTempFile("lazy-script", ".ppm");
+      output.deleteOnExit();
+      scriptController.execute("load " + input + " img");
+      scriptController.execute("brighten 30 img img");
+      scriptController.execute("sepia img toned");
+      scriptController.execute("blur img img");
+      scriptController.execute("levels-adjust 10 120 240 toned img");
+      scriptController.execute("horizontal-flip img flipped");
+      scriptController.execute("save " + output.getPath() + " flipped");
+      saved[mode] = Files.readAllBytes(output.toPath());
+    }
+    assertArrayEquals(saved[0], saved[1]);
+  }
+
+  /**
+   * Tests that a lazy script can chain thousands of operations on one name, which are evaluated
+   * without a call per operation on the stack, and saves what an eager script saves.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLazyLongInPlaceChain() throws IOException {
+    String input = writeTestPpm();
+    byte[][] saved = new byte[2][];
+    for (int mode = 0; mode < 2; mode++) {
+      ImageController scriptController =
+          new ImageController(testView, new ImageProcessorImpl(1), mode == 1);
+      File output = File.createTempFile("lazy-chain", ".ppm");
+      output.deleteOnExit();
+      scriptController.execute("load " + input + " img");
+      for (int i = 0; i < 20000; i++) {
+        scriptController.execute("brighten " + (i % 2 == 0 ? 1 : -1) + " img img");
+      }
+      scriptController.execute("save " + output.getPath() + " img");
+      saved[mode] = Files.readAllBytes(output.toPath());
+    }
+    assertArrayEquals(saved[0], saved[1]);
+  }
+
+  /**
+   * Tests that a lazy script chaining per-pixel operations computes the chain in a single pass,
+   * and saves what an eager script, which makes a pass per operation, saves.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLazyPointOperationsAreFused() throws IOException {
+    /**
+     * A processor that counts the passes made over images by per-pixel operations.
+     */
+    class CountingProcessor extends ImageProcessorImpl {
+
+      private int passes;
+
+      CountingProcessor() {
+        super(1);
+      }
+
+      @Override
+      public Image brightness(Image image, int adjustment) {
+        passes++;
+        return super.brightness(image, adjustment);
+      }
+
+      @Override
+      public Image levelsAdjust(Image image, int b, int m, int w) {
+        passes++;
+        return super.levelsAdjust(image, b, m, w);
+      }
+
+      @Override
+      public Image toGreyscale(Image image) {
+        passes++;
+        return super.toGreyscale(image);
+      }
+
+      @Override
+      public Image toSepia(Image image) {
+        passes++;
+        return super.toSepia(image);
+      }
+
+      @Override
+      public Image applyPipeline(Image image, PointPipeline pipeline) {
+        passes++;
+        return super.applyPipeline(image, pipeline);
+      }
+    }
+
+    String input = writeTestPpm();
+    byte[][] saved = new byte[2][];
+    int[] passes = new int[2];
+    for (int mode = 0; mode < 2; mode++) {
+      CountingProcessor counting = new CountingProcessor();
+      ImageController scriptController = new ImageController(testView, counting, mode == 1);
+      File output = File.createTempFile("lazy-fused", ".ppm");
+      output.deleteOnExit();
+      scriptController.execute("load " + input + " img");
+      scriptController.execute("brighten 30 img img");
+      scriptController.execute("levels-adjust 10 120 240 img img");
+      scriptController.execute("sepia img toned");
+      scriptController.execute("greyscale toned grey");
+      scriptController.execute("save " + output.getPath() + " grey");
+      saved[mode] = Files.readAllBytes(output.toPath());
+      passes[mode] = counting.passes;
+    }
+    assertArrayEquals(saved[0], saved[1]);
+    assertEquals(4, passes[0]);
+    assertEquals(1, passes[1]);
+  }
+
+  /**
+   * Tests that the tiles option of compress selects tiled compression with the given tile size.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testTiledCompression() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("compress 60 img tiled tiles=128");
+    assertEquals("CompressWithOptions 60 128 false", testProcessor.lastOperation);
+
+    controller.execute("compress 60 img whole");
+    assertEquals("Compress", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that compress rejects unknown options and tile sizes below 1.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testTiledCompressionRejectsBadOptions() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("compress 60 img tiled blocks=128");
+    assertTrue(testView.lastError.contains("Unknown compress option"));
+
+    controller.execute("compress 60 img tiled tiles=0");
+    assertTrue(testView.lastError.contains("Tile size"));
+
+    controller.execute("compress 50 img tiled tiles=abc");
+    assertEquals("Invalid tile size: tiles=abc", testView.lastError);
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that compress through processImage takes only the percentage, so extra values are
+   * ignored rather than read as options.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testProcessImageCompressIgnoresExtraValues() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.processImage("img", "out", "compress", 50, 256);
+    assertEquals("Compress", testProcessor.lastOperation);
+    assertTrue(testView.lastMessage.contains("completed"));
+  }
+
+  /**
+   * Tests that the precision option of compress selects single or double precision, alone or with
+   * tiles.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testCompressionPrecisionOption() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("compress 30 img out precision=float");
+    assertEquals("CompressWithOptions 30 0 true", testProcessor.lastOperation);
+
+    controller.execute("compress 30 img out precision=float tiles=64");
+    assertEquals("CompressWithOptions 30 64 true", testProcessor.lastOperation);
+
+    controller.execute("compress 30 img out tiles=64 precision=double");
+    assertEquals("CompressWithOptions 30 64 false", testProcessor.lastOperation);
+
+    testProcessor.lastOperation = "";
+    controller.execute("compress 30 img out precision=half");
+    assertTrue(testView.lastError.contains("Unknown compress option"));
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that compress keeps the coefficients of its result only when the coefficients option
+   * asks for it, with a percentage or a target.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testCompressionCoefficientsOption() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("compress 90 img out tiles=64");
+    assertFalse(testProcessor.lastCompressionOptions.keepsCoefficients());
+
+    controller.execute("compress 90 img out coefficients=keep tiles=64 precision=float");
+    assertEquals("CompressWithOptions 90 64 true", testProcessor.lastOperation);
+    assertTrue(testProcessor.lastCompressionOptions.keepsCoefficients());
+
+    controller.execute("compress 90 img out coefficients=discard");
+    assertFalse(testProcessor.lastCompressionOptions.keepsCoefficients());
+
+    controller.execute("compress psnr=30 img out coefficients=keep");
+    assertTrue(testProcessor.lastCompressionOptions.keepsCoefficients());
+
+    testProcessor.lastOperation = "";
+    controller.execute("compress 90 img out coefficients=some");
+    assertTrue(testView.lastError.contains("Unknown compress option"));
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that preview passes its number of levels to the processor and rejects bad levels.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testPreview() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("preview 2 img thumb");
+    assertEquals("Preview 2", testProcessor.lastOperation);
+
+    testProcessor.lastOperation = "";
+    controller.execute("preview -1 img thumb");
+    assertTrue(testView.lastError.contains("levels"));
+    controller.execute("preview half img thumb");
+    assertTrue(testView.lastError.contains("Invalid preview levels"));
+    controller.execute("preview 2 img");
+    assertTrue(testView.lastError.contains("Usage: preview"));
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that compress accepts a PSNR or size target in place of the percentage and reports the
+   * chosen percentage.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testCompressToTarget() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("compress psnr=35 img out");
+    assertEquals("CompressToTarget PSNR >= 35.0 dB false", testProcessor.lastOperation);
+    assertTrue(testView.lastMessage.contains("42%"));
+    assertTrue(testView.lastMessage.contains("out"));
+
+    controller.execute("compress size=200 img out precision=float");
+    assertEquals("CompressToTarget size <= 204800 bytes true", testProcessor.lastOperation);
+
+    testProcessor.lastOperation = "";
+    controller.execute("compress psnr=loud img out");
+    assertTrue(testView.lastError.contains("Invalid compression target"));
+    controller.execute("compress size=200 img out tiles=64");
+    assertTrue(testView.lastError.contains("Unknown option"));
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that compare reports the measures of one image against another.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testCompare() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    controller.execute("load " + writeTestPpm() + " other");
+    controller.execute("compare img other");
+    assertEquals("Compare", testProcessor.lastOperation);
+    assertTrue(testView.lastMessage.contains("SSIM 0.9000"));
+    assertTrue(testView.lastMessage.contains("PSNR"));
+
+    testProcessor.lastOperation = "";
+    controller.execute("compare img missing");
+    assertTrue(testView.lastError.contains("'missing' not found"));
+    controller.execute("compare img");
+    assertTrue(testView.lastError.contains("Usage: compare"));
+    assertEquals("", testProcessor.lastOperation);
+  }
+
+  /**
+   * Tests that load can map a file into memory, and rejects other options.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testLoadMapped() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img mapped");
+    assertTrue(testView.lastMessage.contains("Image loaded"));
+    controller.execute("brighten 10 img bright");
+    assertEquals("Brightness", testProcessor.lastOperation);
+
+    testView.lastMessage = "";
+    controller.execute("load " + writeTestPpm() + " other quickly");
+    assertTrue(testView.lastError.contains("Unknown option for load: quickly"));
+    assertEquals("", testView.lastMessage);
+  }
+
+  /**
+   * Tests that save can write a .ppm file as binary PPM, and rejects other options.
+   *
+   * @throws IOException if an I/O error occurs.
+   */
+  @Test
+  public void testSaveBinary() throws IOException {
+    controller.execute("load " + writeTestPpm() + " img");
+    File output = File.createTempFile("binary", ".ppm");
+    output.deleteOnExit();
+    controller.execute("save " + output.getPath() + " img binary");
+    assertTrue(testView.lastMessage.contains("Image saved"));
+    byte[] saved = Files.readAllBytes(output.toPath());
+    assertEquals("P6", new String(saved, 0, 2, StandardCharsets.US_ASCII));
 
+    testView.lastMessage = "";
+    controller.execute("save " + output.getPath() + " img compact");
+    assertTrue(testView.lastError.contains("Unknown option for save: compact"));
+    assertEquals("", testView.lastMessage);
+  }
 }
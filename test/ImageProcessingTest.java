@@ -1,11 +1,22 @@
 import org.junit.Before;
 import org.junit.Test;
+import model.CompressionOptions;
+import model.CompressionResult;
+import model.CompressionTarget;
 import model.Image;
+import model.ImageComparison;
+import model.ImageMetrics;
 import model.ImageProcessor;
 import model.ImageProcessorImpl;
+import model.LookupTable;
+import model.PointPipeline;
 import model.Pixel;
+import model.PixelSource;
+import model.WaveletCoefficients;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -2344,4 +2355,1174 @@ public class ImageProcessingTest {
     Image result = processor.applyWithMask(largeImage, largeMask, "red");
     assertNotNull(result);
   }
-}
\ No newline at end of file
+
+  /**
+   * Creates an image filled with reproducible pseudo-random colors.
+   */
+  private Image createRandomImage(int width, int height, long seed) {
+    java.util.Random random = new java.util.Random(seed);
+    Image image = new Image(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Asserts that two images have the same dimensions and identical pixel values.
+   */
+  private void assertSameImage(String message, Image expected, Image actual) {
+    assertEquals(message + " width", expected.getWidth(), actual.getWidth());
+    assertEquals(message + " height", expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(message + " at (" + x + ", " + y + ")", expected.getRGB(x, y),
+            actual.getRGB(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests that operations split into parallel row bands produce exactly the same pixels as the
+   * sequential processor. The image is large enough to be split into bands.
+   */
+  @Test
+  public void testParallelOperationsMatchSequential() {
+    Image image = createRandomImage(331, 257, 42);
+    ImageProcessor sequential = new ImageProcessorImpl(1);
+    ImageProcessor parallel = new ImageProcessorImpl(4);
+
+    assertSameImage("blur", sequential.blur(image), parallel.blur(image));
+    assertSameImage("sharpen", sequential.sharpen(image), parallel.sharpen(image));
+    assertSameImage("sepia", sequential.toSepia(image), parallel.toSepia(image));
+    assertSameImage("brighten", sequential.brightness(image, 30), parallel.brightness(image, 30));
+    assertSameImage("levels", sequential.levelsAdjust(image, 10, 120, 240),
+        parallel.levelsAdjust(image, 10, 120, 240));
+    assertSameImage("color-correct", sequential.colorCorrect(image), parallel.colorCorrect(image));
+    // 320x240 is above the sequential threshold, so the output rows are split into bands too
+    assertSameImage("downscale", sequential.downscaleImage(image, 320, 240),
+        parallel.downscaleImage(image, 320, 240));
+    assertSameImage("red", sequential.visualizeRedComponent(image),
+        parallel.visualizeRedComponent(image));
+    assertSameImage("value", sequential.visualizeValue(image), parallel.visualizeValue(image));
+    assertSameImage("intensity", sequential.visualizeIntensity(image),
+        parallel.visualizeIntensity(image));
+    assertSameImage("luma", sequential.visualizeLuma(image), parallel.visualizeLuma(image));
+  }
+
+  /**
+   * Tests that a processor cannot be created with fewer than one thread.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    new ImageProcessorImpl(0);
+  }
+
+  /**
+   * Applies a kernel with the straightforward clamp-to-edge 2D loop, as a reference for the
+   * optimized convolution paths.
+   */
+  private Image referenceFilter(Image image, double[][] kernel) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int radius = kernel.length / 2;
+    Image result = new Image(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double sumR = 0;
+        double sumG = 0;
+        double sumB = 0;
+        for (int ky = -radius; ky <= radius; ky++) {
+          for (int kx = -radius; kx <= radius; kx++) {
+            Pixel pixel = image.getPixel(Math.min(Math.max(x + kx, 0), width - 1),
+                Math.min(Math.max(y + ky, 0), height - 1));
+            double weight = kernel[ky + radius][kx + radius];
+            sumR += pixel.getRed() * weight;
+            sumG += pixel.getGreen() * weight;
+            sumB += pixel.getBlue() * weight;
+          }
+        }
+        result.setPixel(x, y, new Pixel((int) sumR, (int) sumG, (int) sumB));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Tests that the separable blur matches the full 2D convolution, including the clamped borders
+   * of an image narrower and shorter than typical tiles.
+   */
+  @Test
+  public void testSeparableBlurMatchesReference() {
+    double[][] blurKernel = {
+        {1 / 16.0, 1 / 8.0, 1 / 16.0},
+        {1 / 8.0, 1 / 4.0, 1 / 8.0},
+        {1 / 16.0, 1 / 8.0, 1 / 16.0}
+    };
+    for (Image image : new Image[]{createRandomImage(37, 23, 1), createRandomImage(1, 5, 2),
+        createRandomImage(6, 1, 3), createRandomImage(2, 2, 4)}) {
+      assertSameImage("blur", referenceFilter(image, blurKernel), processor.blur(image));
+    }
+  }
+
+  /**
+   * Tests that a 5x5 binomial kernel is applied as two passes with exactly the same output as the
+   * full 2D convolution.
+   */
+  @Test
+  public void testSeparableBinomialKernelMatchesReference() {
+    double[] binomial = {1, 4, 6, 4, 1};
+    double[][] kernel = new double[5][5];
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 5; j++) {
+        kernel[i][j] = binomial[i] * binomial[j] / 256.0;
+      }
+    }
+    Image image = createRandomImage(41, 19, 5);
+    assertSameImage("binomial", referenceFilter(image, kernel),
+        processor.applyFilter(image, kernel));
+  }
+
+  /**
+   * Tests that an explicit pair of 1D kernels gives the same result as their outer product.
+   */
+  @Test
+  public void testApplySeparableFilterMatchesOuterProduct() {
+    double[] horizontal = {-1, 0, 1};
+    double[] vertical = {1 / 4.0, 1 / 2.0, 1 / 4.0};
+    double[][] kernel = new double[3][3];
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        kernel[i][j] = vertical[i] * horizontal[j];
+      }
+    }
+    Image image = createRandomImage(29, 17, 6);
+    assertSameImage("sobel", referenceFilter(image, kernel),
+        processor.applySeparableFilter(image, horizontal, vertical));
+  }
+
+  /**
+   * Tests that separable kernels with an even length are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testApplySeparableFilterRejectsEvenLength() {
+    processor.applySeparableFilter(testImage, new double[]{0.5, 0.5}, new double[]{1});
+  }
+
+  /**
+   * Tests that the built-in sharpen kernel, evaluated in fixed point, matches the double-precision
+   * reference, including negative sums that truncate toward zero.
+   */
+  @Test
+  public void testFixedPointSharpenMatchesReference() {
+    double[][] sharpenKernel = {
+        {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
+        {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+        {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
+        {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+        {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}
+    };
+    Image image = createRandomImage(37, 23, 7);
+    assertSameImage("sharpen", referenceFilter(image, sharpenKernel), processor.sharpen(image));
+  }
+
+  /**
+   * Tests that user kernels with binary-fraction, non-separable, and non-dyadic weights all match
+   * the double-precision reference.
+   */
+  @Test
+  public void testUserKernelsMatchReference() {
+    double[][][] kernels = {
+        {{0, -1 / 2.0, 0}, {-1 / 2.0, 3, -1 / 2.0}, {0, -1 / 2.0, 0}},
+        {{1 / 9.0, 1 / 9.0, 1 / 9.0}, {1 / 9.0, 1 / 9.0, 1 / 9.0}, {1 / 9.0, 1 / 9.0, 1 / 9.0}},
+        {{3 / 1024.0, -7 / 64.0, 1 / 3.0}, {0.75, 1.5, -0.25}, {-1 / 32.0, 5, -2}},
+        {{1e6}}
+    };
+    Image image = createRandomImage(31, 27, 8);
+    for (int i = 0; i < kernels.length; i++) {
+      assertSameImage("kernel " + i, referenceFilter(image, kernels[i]),
+          processor.applyFilter(image, kernels[i]));
+    }
+  }
+
+  /**
+   * Tests that separable kernels whose fixed-point sums would overflow an int fall back to double
+   * precision and still match the reference.
+   */
+  @Test
+  public void testLargeSeparableWeightsMatchReference() {
+    double[] horizontal = {1000, 3000, 1000};
+    double[] vertical = {2000, -1 / 1024.0, 2000};
+    double[][] kernel = new double[3][3];
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        kernel[i][j] = vertical[i] * horizontal[j];
+      }
+    }
+    Image image = createRandomImage(13, 11, 9);
+    assertSameImage("large", referenceFilter(image, kernel),
+        processor.applySeparableFilter(image, horizontal, vertical));
+  }
+
+  /**
+   * Tests that the clamp-to-edge borders are unchanged on images narrower and shorter than the
+   * kernel, where every pixel is a border pixel, for each way a kernel can be evaluated.
+   */
+  @Test
+  public void testFilterBordersMatchReference() {
+    double[][] wide = new double[7][7];
+    double[][] boxed = new double[3][3];
+    for (int i = 0; i < 7; i++) {
+      for (int j = 0; j < 7; j++) {
+        wide[i][j] = (i * 7 + j - 20) / 64.0;
+      }
+    }
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        boxed[i][j] = 1 / 9.0;
+      }
+    }
+    double[][] blurKernel = {
+        {1 / 16.0, 1 / 8.0, 1 / 16.0},
+        {1 / 8.0, 1 / 4.0, 1 / 8.0},
+        {1 / 16.0, 1 / 8.0, 1 / 16.0}
+    };
+    double[][][] kernels = {blurKernel, boxed, wide};
+    for (int width = 1; width <= 9; width++) {
+      for (int height = 1; height <= 9; height += 4) {
+        Image image = createRandomImage(width, height, width * 31 + height);
+        String size = width + "x" + height;
+        assertSameImage("blur " + size, referenceFilter(image, blurKernel), processor.blur(image));
+        for (int i = 0; i < kernels.length; i++) {
+          assertSameImage("kernel " + i + " " + size, referenceFilter(image, kernels[i]),
+              processor.applyFilter(image, kernels[i]));
+        }
+        assertSameImage("separable " + size, referenceFilter(image, new double[][]{
+                {-1 / 4.0, 0, 1 / 4.0}, {-1 / 2.0, 0, 1 / 2.0}, {-1 / 4.0, 0, 1 / 4.0}}),
+            processor.applySeparableFilter(image, new double[]{-1, 0, 1},
+                new double[]{1 / 4.0, 1 / 2.0, 1 / 4.0}));
+      }
+    }
+  }
+
+  /**
+   * Tests that the planar point operations give, for every pixel, exactly the result of their
+   * per-pixel formulas, on a row width that is not a multiple of any SIMD vector length.
+   */
+  @Test
+  public void testPointOperationsMatchPerPixelFormulas() {
+    Image image = createRandomImage(67, 45, 11);
+    double[][] sepia = {
+        {0.393, 0.769, 0.189},
+        {0.349, 0.686, 0.168},
+        {0.272, 0.534, 0.131}
+    };
+    Image brighter = processor.brightness(image, 37);
+    Image darker = processor.darkness(image, 91);
+    Image sepiaTone = processor.toSepia(image);
+    Image value = processor.visualizeValue(image);
+    Image intensity = processor.visualizeIntensity(image);
+    Image luma = processor.visualizeLuma(image);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int r = image.getRed(x, y);
+        int g = image.getGreen(x, y);
+        int b = image.getBlue(x, y);
+        String at = " at (" + x + ", " + y + ")";
+        assertEquals("brighten" + at, Math.min(255, r + 37), brighter.getRed(x, y));
+        assertEquals("brighten" + at, Math.min(255, g + 37), brighter.getGreen(x, y));
+        assertEquals("brighten" + at, Math.min(255, b + 37), brighter.getBlue(x, y));
+        assertEquals("darken" + at, Math.max(0, b - 91), darker.getBlue(x, y));
+        for (int c = 0; c < 3; c++) {
+          int expected = Math.max(0, Math.min(255,
+              (int) (sepia[c][0] * r + sepia[c][1] * g + sepia[c][2] * b)));
+          int actual = (sepiaTone.getRGB(x, y) >> (16 - 8 * c)) & 0xFF;
+          assertEquals("sepia channel " + c + at, expected, actual);
+        }
+        assertEquals("value" + at, Math.max(r, Math.max(g, b)), value.getGreen(x, y));
+        assertEquals("intensity" + at, (r + g + b) / 3, intensity.getBlue(x, y));
+        assertEquals("luma" + at, (int) (0.2126 * r + 0.7152 * g + 0.0722 * b),
+            luma.getRed(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests brightness for every channel value against a range of adjustments, including those that
+   * saturate every channel, so that each lane of the packed arithmetic carries and borrows
+   * independently.
+   */
+  @Test
+  public void testBrightnessSaturatesEveryChannelValue() {
+    Image image = new Image(256, 1);
+    for (int x = 0; x < 256; x++) {
+      image.setRGB(x, 0, x, 255 - x, (x * 7) % 256);
+    }
+    int[] adjustments = {0, 1, -1, 100, -100, 254, -254, 255, -255, 300, -300};
+    for (int adjustment : adjustments) {
+      Image adjusted = processor.brightness(image, adjustment);
+      for (int x = 0; x < 256; x++) {
+        String at = "adjustment " + adjustment + " at " + x;
+        assertEquals(at, Math.max(0, Math.min(255, x + adjustment)), adjusted.getRed(x, 0));
+        assertEquals(at, Math.max(0, Math.min(255, 255 - x + adjustment)),
+            adjusted.getGreen(x, 0));
+        assertEquals(at, Math.max(0, Math.min(255, (x * 7) % 256 + adjustment)),
+            adjusted.getBlue(x, 0));
+      }
+    }
+  }
+
+  /**
+   * Tests intensity for every possible channel sum.
+   */
+  @Test
+  public void testIntensityForEveryChannelSum() {
+    Image image = new Image(766, 1);
+    for (int sum = 0; sum <= 765; sum++) {
+      int r = Math.min(sum, 255);
+      int g = Math.min(sum - r, 255);
+      image.setRGB(sum, 0, r, g, sum - r - g);
+    }
+    Image intensity = processor.visualizeIntensity(image);
+    for (int sum = 0; sum <= 765; sum++) {
+      assertEquals("sum " + sum, sum / 3, intensity.getRed(sum, 0));
+    }
+  }
+
+  /**
+   * Tests that a per-channel lookup table maps each channel through its own table.
+   */
+  @Test
+  public void testApplyLookupTableMapsEachChannel() {
+    int[] invert = new int[256];
+    int[] half = new int[256];
+    int[] constant = new int[256];
+    for (int i = 0; i < 256; i++) {
+      invert[i] = 255 - i;
+      half[i] = i / 2;
+      constant[i] = 77;
+    }
+    Image image = createRandomImage(23, 19, 12);
+    Image mapped = processor.applyLookupTable(image, LookupTable.of(invert, half, constant));
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        assertEquals(255 - image.getRed(x, y), mapped.getRed(x, y));
+        assertEquals(image.getGreen(x, y) / 2, mapped.getGreen(x, y));
+        assertEquals(77, mapped.getBlue(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests that brightness and the identity expressed as lookup tables match the direct operations.
+   */
+  @Test
+  public void testLookupTableBrightnessMatchesBrightness() {
+    Image image = createRandomImage(31, 17, 13);
+    assertSameImage("brighten", processor.brightness(image, 45),
+        processor.applyLookupTable(image, LookupTable.brightness(45)));
+    assertSameImage("darken", processor.darkness(image, 60),
+        processor.applyLookupTable(image, LookupTable.brightness(-60)));
+    assertSameImage("identity", image,
+        processor.applyLookupTable(image, LookupTable.identity()));
+  }
+
+  /**
+   * Tests that levels adjustment through its lookup table matches the quadratic curve evaluated
+   * directly for every pixel.
+   */
+  @Test
+  public void testLevelsAdjustMatchesQuadraticCurve() {
+    Image image = createRandomImage(29, 21, 14);
+    int b = 20;
+    int m = 100;
+    int w = 230;
+    double coefficientA = b * b * (double) (m - w) - b * ((double) m * m - (double) w * w)
+        + w * (double) m * m - m * (double) w * w;
+    double a = (-b * (128 - 255) + 128 * w - 255 * m) / coefficientA;
+    double bb = (b * (double) b * (128 - 255) + 255 * (double) m * m - 128 * (double) w * w)
+        / coefficientA;
+    double c = (b * (double) b * (255 * m - 128 * w) - b * (255 * (double) m * m
+        - 128 * (double) w * w)) / coefficientA;
+    Image adjusted = processor.levelsAdjust(image, b, m, w);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int value = image.getGreen(x, y);
+        long expected = Math.max(0, Math.min(255, Math.round(a * value * value + bb * value + c)));
+        assertEquals("at (" + x + ", " + y + ")", expected, adjusted.getGreen(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests that tone curves are clamped to the channel range.
+   */
+  @Test
+  public void testLookupTableFromCurveClamps() {
+    LookupTable table = LookupTable.fromCurve(value -> 3 * value - 200);
+    assertEquals(0, table.getRed(0));
+    assertEquals(0, table.getGreen(66));
+    assertEquals(1, table.getBlue(67));
+    assertEquals(255, table.getRed(255));
+  }
+
+  /**
+   * Tests that lookup tables of the wrong length are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testLookupTableRejectsWrongLength() {
+    LookupTable.of(new int[255]);
+  }
+
+  /**
+   * Tests that lookup tables with values outside the channel range are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testLookupTableRejectsOutOfRangeValues() {
+    int[] map = new int[256];
+    map[10] = 256;
+    LookupTable.of(map);
+  }
+
+  /**
+   * Tests that a chain of point operations run as one pipeline gives exactly the image produced by
+   * running each operation on its own.
+   */
+  @Test
+  public void testPipelineMatchesStepByStep() {
+    Image image = createRandomImage(53, 37, 15);
+    double[][] sepia = {
+        {0.393, 0.769, 0.189},
+        {0.349, 0.686, 0.168},
+        {0.272, 0.534, 0.131}
+    };
+    double[][] greyscale = {
+        {0.2126, 0.7152, 0.0722},
+        {0.2126, 0.7152, 0.0722},
+        {0.2126, 0.7152, 0.0722}
+    };
+
+    Image expected = processor.toSepia(processor.toGreyscale(
+        processor.levelsAdjust(processor.brightness(image, 20), 20, 128, 230)));
+    PointPipeline pipeline = PointPipeline.empty().brightness(20)
+        .lookup(LookupTable.levels(20, 128, 230)).colorMatrix(greyscale).colorMatrix(sepia);
+    assertSameImage("brighten, levels, greyscale, sepia", expected,
+        processor.applyPipeline(image, pipeline));
+
+    expected = processor.darkness(processor.toSepia(processor.toSepia(image)), 30);
+    pipeline = PointPipeline.empty().colorMatrix(sepia).colorMatrix(sepia).brightness(-30);
+    assertSameImage("sepia, sepia, darken", expected, processor.applyPipeline(image, pipeline));
+
+    expected = processor.visualizeValue(processor.visualizeLuma(
+        processor.brightness(processor.visualizeRedComponent(image), 50)));
+    pipeline = PointPipeline.empty().redComponent().brightness(50).luma().value();
+    assertSameImage("red, brighten, luma, value", expected,
+        processor.applyPipeline(image, pipeline));
+
+    pipeline = PointPipeline.empty().colorMatrix(sepia).intensity().greenComponent();
+    assertSameImage("sepia, intensity, green", processor.visualizeGreenComponent(
+        processor.visualizeIntensity(processor.toSepia(image))),
+        processor.applyPipeline(image, pipeline));
+
+    assertSameImage("empty", image, processor.applyPipeline(image, PointPipeline.empty()));
+  }
+
+  /**
+   * Tests that a color matrix step must be 3x3.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPipelineRejectsNonSquareMatrix() {
+    PointPipeline.empty().colorMatrix(new double[][]{{1, 0}, {0, 1}});
+  }
+
+  /**
+   * Compresses an image with the straightforward per-row and per-column Haar transform, padding
+   * each axis to a power of two, as a reference for the optimized wavelet.
+   */
+  private Image referenceCompress(Image image, int percentage) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int paddedWidth = 1;
+    while (paddedWidth < width) {
+      paddedWidth *= 2;
+    }
+    int paddedHeight = 1;
+    while (paddedHeight < height) {
+      paddedHeight *= 2;
+    }
+    int levels = Integer.numberOfTrailingZeros(Math.max(paddedWidth, paddedHeight));
+    double[][][] data = new double[3][paddedHeight][paddedWidth];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        Pixel pixel = image.getPixel(x, y);
+        data[0][y][x] = pixel.getRed();
+        data[1][y][x] = pixel.getGreen();
+        data[2][y][x] = pixel.getBlue();
+      }
+    }
+    double[] all = new double[3 * paddedWidth * paddedHeight];
+    int index = 0;
+    for (int c = 0; c < 3; c++) {
+      for (int level = 0; level < levels; level++) {
+        int stepX = Math.max(1, paddedWidth >> level);
+        int stepY = Math.max(1, paddedHeight >> level);
+        for (int i = 0; i < paddedHeight && stepX > 1; i++) {
+          referenceHaar(data[c][i], stepX, false);
+        }
+        for (int j = 0; j < stepX && stepY > 1; j++) {
+          double[] column = new double[stepY];
+          for (int i = 0; i < stepY; i++) {
+            column[i] = data[c][i][j];
+          }
+          referenceHaar(column, stepY, false);
+          for (int i = 0; i < stepY; i++) {
+            data[c][i][j] = column[i];
+          }
+        }
+      }
+      for (double[] row : data[c]) {
+        for (double value : row) {
+          all[index++] = Math.abs(value);
+        }
+      }
+    }
+    java.util.Arrays.sort(all);
+    double threshold = all[(int) (all.length * percentage / 100.0)];
+    Image result = new Image(width, height);
+    int[] channels = new int[3];
+    for (int c = 0; c < 3; c++) {
+      for (double[] row : data[c]) {
+        for (int j = 0; j < paddedWidth; j++) {
+          if (Math.abs(row[j]) < threshold) {
+            row[j] = 0;
+          }
+        }
+      }
+      for (int level = levels - 1; level >= 0; level--) {
+        int stepX = Math.max(1, paddedWidth >> level);
+        int stepY = Math.max(1, paddedHeight >> level);
+        for (int j = 0; j < stepX && stepY > 1; j++) {
+          double[] column = new double[stepY];
+          for (int i = 0; i < stepY; i++) {
+            column[i] = data[c][i][j];
+          }
+          referenceHaar(column, stepY, true);
+          for (int i = 0; i < stepY; i++) {
+            data[c][i][j] = column[i];
+          }
+        }
+        for (int i = 0; i < paddedHeight && stepX > 1; i++) {
+          referenceHaar(data[c][i], stepX, true);
+        }
+      }
+    }
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        for (int c = 0; c < 3; c++) {
+          channels[c] = (int) Math.max(0, Math.min(255, Math.round(data[c][y][x])));
+        }
+        result.setPixel(x, y, new Pixel(channels[0], channels[1], channels[2]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Applies one level of the 1D Haar transform, or of its inverse, to the first length values.
+   */
+  private void referenceHaar(double[] data, int length, boolean inverse) {
+    double[] temp = new double[length];
+    int half = length / 2;
+    for (int i = 0; i < half; i++) {
+      if (inverse) {
+        temp[2 * i] = (data[i] + data[half + i]) / Math.sqrt(2);
+        temp[2 * i + 1] = (data[i] - data[half + i]) / Math.sqrt(2);
+      } else {
+        temp[i] = (data[2 * i] + data[2 * i + 1]) / Math.sqrt(2);
+        temp[half + i] = (data[2 * i] - data[2 * i + 1]) / Math.sqrt(2);
+      }
+    }
+    System.arraycopy(temp, 0, data, 0, length);
+  }
+
+  /**
+   * Tests that compression gives exactly the result of the per-row and per-column Haar transform,
+   * for planes narrower and wider than the strips the columns are transformed in, and for wide,
+   * tall, and single-row or single-column images.
+   */
+  @Test
+  public void testCompressMatchesReference() {
+    int[][] sizes = {{1, 1}, {5, 3}, {64, 64}, {100, 37}, {130, 200}, {300, 20}, {7, 90},
+        {33, 1}, {1, 17}};
+    for (int[] size : sizes) {
+      Image image = createRandomImage(size[0], size[1], size[0] * 31L + size[1]);
+      for (int percentage : new int[]{0, 10, 50, 90, 99}) {
+        assertSameImage(size[0] + "x" + size[1] + " at " + percentage + "%",
+            referenceCompress(image, percentage), processor.compress(image, percentage));
+      }
+    }
+  }
+
+  /**
+   * Tests that the compression threshold is found correctly when many coefficients share the same
+   * magnitude, as in flat and patterned images, and when the rank falls among them.
+   */
+  @Test
+  public void testCompressThresholdWithRepeatedCoefficients() {
+    Image flat = new Image(24, 24);
+    Image pattern = new Image(40, 24);
+    for (int y = 0; y < 24; y++) {
+      for (int x = 0; x < 24; x++) {
+        flat.setPixel(x, y, new Pixel(90, 90, 90));
+      }
+      for (int x = 0; x < 40; x++) {
+        pattern.setPixel(x, y, (x / 3 + y / 5) % 2 == 0 ? new Pixel(255, 0, 30)
+            : new Pixel(10, 200, 30));
+      }
+    }
+    for (int percentage = 0; percentage < 100; percentage += 7) {
+      assertSameImage("flat at " + percentage + "%", referenceCompress(flat, percentage),
+          processor.compress(flat, percentage));
+      assertSameImage("pattern at " + percentage + "%", referenceCompress(pattern, percentage),
+          processor.compress(pattern, percentage));
+    }
+  }
+
+  /**
+   * Tests that tiled compression compresses each tile, including the cut tiles along the right and
+   * bottom edges, exactly as the whole-image compression would compress that tile on its own.
+   */
+  @Test
+  public void testTiledCompressMatchesPerTileReference() {
+    Image image = createRandomImage(150, 90, 14);
+    int tileSize = 64;
+    Image tiled = processor.compress(image, 70, tileSize);
+    for (int y0 = 0; y0 < 90; y0 += tileSize) {
+      for (int x0 = 0; x0 < 150; x0 += tileSize) {
+        int tileWidth = Math.min(tileSize, 150 - x0);
+        int tileHeight = Math.min(tileSize, 90 - y0);
+        Image tile = new Image(tileWidth, tileHeight);
+        for (int y = 0; y < tileHeight; y++) {
+          for (int x = 0; x < tileWidth; x++) {
+            tile.setRGB(x, y, image.getRGB(x0 + x, y0 + y));
+          }
+        }
+        Image expected = referenceCompress(tile, 70);
+        for (int y = 0; y < tileHeight; y++) {
+          for (int x = 0; x < tileWidth; x++) {
+            assertEquals("tile at (" + x0 + ", " + y0 + "), pixel (" + x + ", " + y + ")",
+                expected.getRGB(x, y), tiled.getRGB(x0 + x, y0 + y));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that a single tile covering the image gives the whole-image compression, and that tiled
+   * compression gives the same result on one thread and on several.
+   */
+  @Test
+  public void testTiledCompressMatchesAcrossTileCountsAndThreads() {
+    Image image = createRandomImage(300, 260, 15);
+    assertSameImage("one tile", processor.compress(image, 50),
+        processor.compress(image, 50, 512));
+    assertSameImage("parallel tiles", new ImageProcessorImpl(1).compress(image, 50, 32),
+        new ImageProcessorImpl(4).compress(image, 50, 32));
+  }
+
+  /**
+   * Tests that compressing a whole image with its transform and thresholding split among threads
+   * gives exactly the sequential result, in both precisions and at several percentages.
+   */
+  @Test
+  public void testParallelCompressMatchesSequential() {
+    Image image = createRandomImage(420, 310, 25);
+    ImageProcessor sequential = new ImageProcessorImpl(1);
+    ImageProcessor parallel = new ImageProcessorImpl(4);
+    CompressionOptions single = CompressionOptions.defaults().singlePrecision();
+    for (int percentage : new int[]{0, 50, 95}) {
+      assertSameImage("double " + percentage, sequential.compress(image, percentage),
+          parallel.compress(image, percentage));
+      assertSameImage("float " + percentage, sequential.compress(image, percentage, single),
+          parallel.compress(image, percentage, single));
+    }
+  }
+
+  /**
+   * Tests that tiled compression needs a tile size of at least 1.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiledCompressRejectsEmptyTiles() {
+    processor.compress(testImage, 50, 0);
+  }
+
+  /**
+   * Tests how far single-precision compression moves channel values from double precision after
+   * rounding. Lossless compression must agree to within one level everywhere. Lossy compression
+   * can move a few values further, because a coefficient that lies on the threshold may be kept in
+   * one precision and dropped in the other, but on average the deviation stays a small fraction
+   * of a level.
+   */
+  @Test
+  public void testSinglePrecisionCompressDeviation() {
+    Image gradient = new Image(257, 129);
+    for (int y = 0; y < 129; y++) {
+      for (int x = 0; x < 257; x++) {
+        gradient.setPixel(x, y, new Pixel(x % 256, (x + 2 * y) / 3, 255 - y));
+      }
+    }
+    Image[] images = {createRandomImage(300, 211, 16), createRandomImage(64, 64, 17), gradient};
+    CompressionOptions single = CompressionOptions.defaults().singlePrecision();
+    for (Image image : images) {
+      for (int percentage : new int[]{0, 10, 50, 90, 99}) {
+        Image expected = processor.compress(image, percentage);
+        Image actual = processor.compress(image, percentage, single);
+        int maxDeviation = 0;
+        long totalDeviation = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+          for (int x = 0; x < image.getWidth(); x++) {
+            Pixel e = expected.getPixel(x, y);
+            Pixel a = actual.getPixel(x, y);
+            int[] deviations = {Math.abs(e.getRed() - a.getRed()),
+                Math.abs(e.getGreen() - a.getGreen()), Math.abs(e.getBlue() - a.getBlue())};
+            for (int deviation : deviations) {
+              maxDeviation = Math.max(maxDeviation, deviation);
+              totalDeviation += deviation;
+            }
+          }
+        }
+        double meanDeviation = totalDeviation / (3.0 * image.getWidth() * image.getHeight());
+        String label = image.getWidth() + "x" + image.getHeight() + " at " + percentage
+            + "%: max " + maxDeviation + ", mean " + meanDeviation;
+        if (percentage == 0) {
+          assertTrue(label, maxDeviation <= 1);
+        }
+        assertTrue(label, meanDeviation < 0.5);
+      }
+    }
+  }
+
+  /**
+   * Tests that tiled compression in single precision compresses each tile as a single-precision
+   * compression of that tile on its own.
+   */
+  @Test
+  public void testSinglePrecisionTilesMatchWholeTile() {
+    Image image = createRandomImage(64, 64, 18);
+    CompressionOptions single = CompressionOptions.defaults().singlePrecision();
+    assertSameImage("one tile", processor.compress(image, 40, single),
+        processor.compress(image, 40, single.tiles(64)));
+  }
+
+  /**
+   * Tests that compression options need a tile size of at least 1.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompressionOptionsRejectEmptyTiles() {
+    CompressionOptions.defaults().tiles(0);
+  }
+
+  /**
+   * Checks that every pixel of a preview is within one level of the average of the block of the
+   * image it covers, cut to the image.
+   */
+  private void assertPreviewAveragesBlocks(Image image, Image preview, int levels) {
+    int block = 1 << levels;
+    assertEquals((image.getWidth() + block - 1) / block, preview.getWidth());
+    assertEquals((image.getHeight() + block - 1) / block, preview.getHeight());
+    for (int by = 0; by < preview.getHeight(); by++) {
+      for (int bx = 0; bx < preview.getWidth(); bx++) {
+        for (int shift = 16; shift >= 0; shift -= 8) {
+          double sum = 0;
+          int count = 0;
+          for (int y = by * block; y < Math.min(image.getHeight(), (by + 1) * block); y++) {
+            for (int x = bx * block; x < Math.min(image.getWidth(), (bx + 1) * block); x++) {
+              sum += (image.getRGB(x, y) >> shift) & 0xFF;
+              count++;
+            }
+          }
+          int actual = (preview.getRGB(bx, by) >> shift) & 0xFF;
+          assertEquals("block " + bx + "," + by, sum / count, actual, 1.0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that a preview that skips no levels is the full reconstruction of the coefficients of a
+   * compressed image.
+   */
+  @Test
+  public void testPreviewAtZeroLevelsMatchesCompressedImage() {
+    Image compressed = processor.compress(createRandomImage(50, 30, 19), 60,
+        CompressionOptions.defaults().keepCoefficients());
+    assertSameImage("whole", WaveletCoefficients.of(compressed).toImage(),
+        processor.preview(compressed, 0));
+
+    Image tiled = processor.compress(createRandomImage(50, 30, 20), 60,
+        CompressionOptions.defaults().tiles(16).keepCoefficients());
+    assertSameImage("tiled", WaveletCoefficients.of(tiled).toImage(),
+        processor.preview(tiled, 0));
+  }
+
+  /**
+   * Tests that previews of an uncompressed image average the blocks they cover, including the
+   * blocks cut by the right and bottom edges, and that skipping more levels than the pyramid has
+   * averages the whole image.
+   */
+  @Test
+  public void testPreviewAveragesBlocks() {
+    Image image = createRandomImage(37, 22, 21);
+    for (int levels = 1; levels <= 3; levels++) {
+      assertPreviewAveragesBlocks(image, processor.preview(image, levels), levels);
+    }
+    assertPreviewAveragesBlocks(image, processor.preview(image, 6), 6);
+    assertPreviewAveragesBlocks(image, processor.preview(image, 40), 30);
+  }
+
+  /**
+   * Tests that a preview of an image compressed in tiles places each tile's blocks correctly, in
+   * both precisions.
+   */
+  @Test
+  public void testTiledPreviewAveragesBlocks() {
+    Image image = createRandomImage(40, 27, 22);
+    CompressionOptions tiles = CompressionOptions.defaults().tiles(16).keepCoefficients();
+    assertPreviewAveragesBlocks(image, processor.preview(processor.compress(image, 0, tiles), 2),
+        2);
+    assertPreviewAveragesBlocks(image,
+        processor.preview(processor.compress(image, 0, tiles.singlePrecision()), 3), 3);
+  }
+
+  /**
+   * Tests that a preview cannot split tiles into partial preview pixels.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPreviewRejectsTilesNotMultipleOfBlock() {
+    Image tiled = processor.compress(createRandomImage(24, 24, 23), 0,
+        CompressionOptions.defaults().tiles(6).keepCoefficients());
+    processor.preview(tiled, 2);
+  }
+
+  /**
+   * Tests that a preview needs a non-negative number of levels.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPreviewRejectsNegativeLevels() {
+    processor.preview(createRandomImage(8, 8, 24), -1);
+  }
+
+  /**
+   * Tests that the image metrics measure the mean squared error over all channel values, and the
+   * PSNR derived from it.
+   */
+  @Test
+  public void testImageMetrics() {
+    Image image = createRandomImage(20, 10, 26);
+    assertEquals(0, ImageMetrics.meanSquaredError(image, image), 0);
+    assertEquals(Double.POSITIVE_INFINITY, ImageMetrics.peakSignalToNoiseRatio(image, image), 0);
+
+    Image shifted = new Image(20, 10);
+    for (int y = 0; y < 10; y++) {
+      for (int x = 0; x < 20; x++) {
+        // Red moves by 3 and blue by 4 on every pixel; green is unchanged
+        shifted.setRGB(x, y, 100 + 3, 50, 200 - 4);
+        image.setRGB(x, y, 100, 50, 200);
+      }
+    }
+    assertEquals(25.0 / 3, ImageMetrics.meanSquaredError(image, shifted), 1e-12);
+    assertEquals(10 * Math.log10(255.0 * 255 * 3 / 25),
+        ImageMetrics.peakSignalToNoiseRatio(image, shifted), 1e-9);
+  }
+
+  /**
+   * Tests that a PSNR target picks the highest percentage that meets it, and that the result is
+   * exactly the compression at that percentage and, when asked to, keeps the same coefficients.
+   */
+  @Test
+  public void testCompressToPsnrTarget() {
+    Image image = createRandomImage(70, 45, 27);
+    CompressionOptions keep = CompressionOptions.defaults().keepCoefficients();
+    CompressionResult result = processor.compress(image, CompressionTarget.minimumPsnr(20), keep);
+    int percentage = result.getPercentage();
+    assertTrue(result.isTargetMet());
+    assertTrue(result.getPeakSignalToNoiseRatio() >= 20);
+    assertEquals(-1, result.getSize());
+    Image expected = processor.compress(image, percentage, keep);
+    assertSameImage("chosen", expected, result.getImage());
+    assertEquals(ImageMetrics.meanSquaredError(image, expected), result.getMeanSquaredError(), 0);
+    WaveletCoefficients stored = WaveletCoefficients.of(result.getImage());
+    for (int channel = 0; channel < 3; channel++) {
+      assertArrayEquals(WaveletCoefficients.of(expected).getIndices(0, channel),
+          stored.getIndices(0, channel));
+      assertArrayEquals(WaveletCoefficients.of(expected).getValues(0, channel),
+          stored.getValues(0, channel));
+    }
+    if (percentage < 99) {
+      assertTrue(ImageMetrics.peakSignalToNoiseRatio(image,
+          processor.compress(image, percentage + 1)) < 20);
+    }
+  }
+
+  /**
+   * Tests that a size target picks the lowest percentage that fits the budget, in both precisions,
+   * and that the result is stored with the coefficients that were measured.
+   */
+  @Test
+  public void testCompressToSizeTarget() {
+    Image image = createRandomImage(64, 40, 28);
+    for (CompressionOptions options : new CompressionOptions[]{CompressionOptions.defaults(),
+        CompressionOptions.defaults().singlePrecision()}) {
+      CompressionResult result = processor.compress(image,
+          CompressionTarget.maximumSize(2000, WaveletCoefficients::getCoefficientCount), options);
+      assertTrue(result.isTargetMet());
+      assertTrue(result.getSize() <= 2000);
+      assertTrue(result.getPercentage() > 0);
+      assertEquals(result.getSize(),
+          WaveletCoefficients.of(result.getImage()).getCoefficientCount());
+      assertSameImage("chosen", processor.compress(image, result.getPercentage(), options),
+          result.getImage());
+      assertTrue(WaveletCoefficients.of(processor.compress(image, result.getPercentage() - 1,
+          options)).getCoefficientCount() > 2000);
+    }
+  }
+
+  /**
+   * Tests that a size no percentage fits gives the most compressed image, marked as missing the
+   * target.
+   */
+  @Test
+  public void testCompressToUnreachableTarget() {
+    Image image = createRandomImage(30, 20, 29);
+    CompressionResult result = processor.compress(image,
+        CompressionTarget.maximumSize(1, WaveletCoefficients::getCoefficientCount),
+        CompressionOptions.defaults());
+    assertFalse(result.isTargetMet());
+    assertEquals(99, result.getPercentage());
+    assertSameImage("smallest", processor.compress(image, 99), result.getImage());
+  }
+
+  /**
+   * Tests that a compression target cannot be combined with tiles.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompressToTargetRejectsTiles() {
+    processor.compress(createRandomImage(16, 16, 30), CompressionTarget.minimumPsnr(30),
+        CompressionOptions.defaults().tiles(8));
+  }
+
+  /**
+   * Tests that compression targets reject impossible goals.
+   */
+  @Test
+  public void testCompressionTargetRejectsInvalidGoals() {
+    for (double decibels : new double[]{0, -5, Double.NaN}) {
+      try {
+        CompressionTarget.minimumPsnr(decibels);
+        fail("Expected an exception for " + decibels + " dB");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    try {
+      CompressionTarget.maximumSize(0, WaveletCoefficients::getCoefficientCount);
+      fail("Expected an exception for 0 bytes");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Computes the mean SSIM of two images directly from the pixels of every 8 x 8 window placed
+   * every 4 pixels, for comparison with the streaming implementation.
+   */
+  private double referenceSsim(Image expected, Image actual) {
+    double c1 = Math.pow(0.01 * 255, 2);
+    double c2 = Math.pow(0.03 * 255, 2);
+    int windowWidth = Math.min(8, expected.getWidth());
+    int windowHeight = Math.min(8, expected.getHeight());
+    double total = 0;
+    int windows = 0;
+    for (int top = 0; top + windowHeight <= expected.getHeight(); top += 4) {
+      for (int left = 0; left + windowWidth <= expected.getWidth(); left += 4) {
+        for (int shift = 16; shift >= 0; shift -= 8) {
+          double n = windowWidth * windowHeight;
+          double meanA = 0;
+          double meanB = 0;
+          for (int y = top; y < top + windowHeight; y++) {
+            for (int x = left; x < left + windowWidth; x++) {
+              meanA += ((expected.getRGB(x, y) >> shift) & 0xFF) / n;
+              meanB += ((actual.getRGB(x, y) >> shift) & 0xFF) / n;
+            }
+          }
+          double varianceA = 0;
+          double varianceB = 0;
+          double covariance = 0;
+          for (int y = top; y < top + windowHeight; y++) {
+            for (int x = left; x < left + windowWidth; x++) {
+              double a = ((expected.getRGB(x, y) >> shift) & 0xFF) - meanA;
+              double b = ((actual.getRGB(x, y) >> shift) & 0xFF) - meanB;
+              varianceA += a * a / n;
+              varianceB += b * b / n;
+              covariance += a * b / n;
+            }
+          }
+          total += (2 * meanA * meanB + c1) * (2 * covariance + c2)
+              / ((meanA * meanA + meanB * meanB + c1) * (varianceA + varianceB + c2));
+          windows++;
+        }
+      }
+    }
+    return total / windows;
+  }
+
+  /**
+   * Tests that SSIM is 1 for identical images and matches a direct computation for a noisy copy,
+   * including sizes that leave pixels outside the last window and sizes smaller than a window.
+   */
+  @Test
+  public void testStructuralSimilarityMatchesReference() {
+    Image image = createRandomImage(21, 13, 31);
+    assertEquals(1.0, ImageMetrics.structuralSimilarity(image, image), 1e-12);
+
+    Image noisy = processor.compress(image, 60);
+    assertEquals(referenceSsim(image, noisy), ImageMetrics.structuralSimilarity(image, noisy),
+        1e-9);
+    Image small = createRandomImage(5, 3, 32);
+    Image otherSmall = createRandomImage(5, 3, 33);
+    assertEquals(referenceSsim(small, otherSmall),
+        ImageMetrics.structuralSimilarity(small, otherSmall), 1e-9);
+  }
+
+  /**
+   * Tests that SSIM of two flat images depends only on their means.
+   */
+  @Test
+  public void testStructuralSimilarityOfFlatImages() {
+    Image dark = new Image(16, 16);
+    Image light = new Image(16, 16);
+    for (int y = 0; y < 16; y++) {
+      for (int x = 0; x < 16; x++) {
+        dark.setRGB(x, y, 100, 100, 100);
+        light.setRGB(x, y, 110, 110, 110);
+      }
+    }
+    double c1 = Math.pow(0.01 * 255, 2);
+    assertEquals((2 * 100 * 110 + c1) / (100 * 100 + 110 * 110 + c1),
+        ImageMetrics.structuralSimilarity(dark, light), 1e-12);
+  }
+
+  /**
+   * Tests that comparing images gives exactly the same measures whatever the number of threads.
+   */
+  @Test
+  public void testCompareMatchesAcrossThreads() {
+    Image image = createRandomImage(420, 310, 34);
+    Image compressed = processor.compress(image, 80);
+    ImageComparison sequential = new ImageProcessorImpl(1).compare(image, compressed);
+    ImageComparison parallel = new ImageProcessorImpl(4).compare(image, compressed);
+    assertEquals(sequential.getMeanSquaredError(), parallel.getMeanSquaredError(), 0);
+    assertEquals(sequential.getStructuralSimilarity(), parallel.getStructuralSimilarity(), 0);
+    assertEquals(ImageMetrics.meanSquaredError(image, compressed),
+        sequential.getMeanSquaredError(), 0);
+    assertTrue(sequential.getStructuralSimilarity() < 1);
+  }
+
+  /**
+   * Tests that only images of the same size can be compared.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompareRejectsDifferentSizes() {
+    processor.compare(createRandomImage(8, 8, 35), createRandomImage(8, 9, 35));
+  }
+
+  /**
+   * A pixel source over an array that counts its reads.
+   */
+  private static class ArraySource implements PixelSource {
+
+    private final int[] pixels;
+    private final int width;
+    private int reads;
+
+    ArraySource(Image image) {
+      width = image.getWidth();
+      pixels = new int[width * image.getHeight()];
+      int[] row = new int[width];
+      for (int y = 0; y < image.getHeight(); y++) {
+        image.getRow(y, row);
+        System.arraycopy(row, 0, pixels, y * width, width);
+      }
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+      reads++;
+      return pixels[y * width + x];
+    }
+
+    @Override
+    public void getRow(int y, int[] row) {
+      reads++;
+      System.arraycopy(pixels, y * width, row, 0, width);
+    }
+  }
+
+  /**
+   * Tests that an image over a pixel source reads from it until a pixel is changed, and then copies
+   * the pixels without writing to the source.
+   */
+  @Test
+  public void testImageReadsFromPixelSourceUntilChanged() {
+    Image original = createRandomImage(13, 7, 40);
+    ArraySource source = new ArraySource(original);
+    Image image = new Image(13, 7, source);
+    assertEquals(0, source.reads);
+    assertEquals(original.getRGB(4, 5), image.getRGB(4, 5));
+    assertEquals(original.getGreen(12, 6), image.getGreen(12, 6));
+    assertEquals(2, source.reads);
+    assertSameImage("source", original, image);
+
+    image.setRGB(4, 5, 0x123456);
+    int reads = source.reads;
+    assertEquals(0x123456, image.getRGB(4, 5));
+    assertEquals(original.getRGB(4, 5), source.pixels[5 * 13 + 4]);
+    assertEquals(original.getRGB(0, 0), image.getRGB(0, 0));
+    assertEquals(reads, source.reads);
+    try {
+      image.getRGB(13, 0);
+      fail("Expected ArrayIndexOutOfBoundsException");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that operations on an image over a pixel source, sequential or parallel, give the same
+   * results as on an ordinary image, and that a compressed image keeps describing its source after
+   * the source is changed.
+   */
+  @Test
+  public void testOperationsOnPixelSourceImage() {
+    Image original = createRandomImage(300, 280, 41);
+    Image image = new Image(300, 280, new ArraySource(original));
+    assertSameImage("luma", processor.visualizeLuma(original), processor.visualizeLuma(image));
+    assertSameImage("blur", new ImageProcessorImpl(4).blur(original),
+        new ImageProcessorImpl(4).blur(image));
+
+    CompressionOptions keep = CompressionOptions.defaults().keepCoefficients();
+    Image compressed = processor.compress(image, 70, keep);
+    WaveletCoefficients expected = WaveletCoefficients.of(processor.compress(original, 70, keep));
+    image.setRow(0, new int[300]);
+    WaveletCoefficients actual = WaveletCoefficients.of(compressed);
+    for (int channel = 0; channel < 3; channel++) {
+      assertTrue(java.util.Arrays.equals(expected.getIndices(0, channel),
+          actual.getIndices(0, channel)));
+      assertTrue(java.util.Arrays.equals(expected.getValues(0, channel),
+          actual.getValues(0, channel)));
+    }
+  }
+}
@@ -0,0 +1,753 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+import model.CompressionOptions;
+import model.CompressionResult;
+import model.CompressionTarget;
+import model.Image;
+import model.ImageProcessor;
+import model.ImageProcessorImpl;
+import model.WaveletCoefficients;
+import org.junit.Before;
+import org.junit.Test;
+import utility.CodecRegistry;
+import utility.ImageCodec;
+import utility.ImageUtil;
+import utility.OtherFormatHandler;
+import utility.PPMHandler;
+import utility.PVMWHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class contains JUnit test cases for reading and writing images through ImageUtil, for the
+ * formats whose encoding is implemented in this project.
+ */
+public class ImageUtilTest {
+
+  private ImageProcessor processor;
+
+  /**
+   * Sets up the processor used to compress images before they are written.
+   */
+  @Before
+  public void setUp() {
+    processor = new ImageProcessorImpl();
+  }
+
+  private Image createTestImage(int width, int height, long seed) {
+    // A smooth gradient with some noise, so that compression has both large and small details.
+    Random random = new Random(seed);
+    Image image = new Image(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, Math.min(255, x * 2 + random.nextInt(16)),
+            Math.min(255, y * 3 + random.nextInt(16)), random.nextInt(256));
+      }
+    }
+    return image;
+  }
+
+  private File tempFile(String extension) throws IOException {
+    File file = File.createTempFile("image-util-test", extension);
+    file.deleteOnExit();
+    return file;
+  }
+
+  private void assertWithinOneLevel(String message, Image expected, Image actual) {
+    assertEquals(message + ": width", expected.getWidth(), actual.getWidth());
+    assertEquals(message + ": height", expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        int e = expected.getRGB(x, y);
+        int a = actual.getRGB(x, y);
+        for (int shift = 0; shift < 24; shift += 8) {
+          assertTrue(message + " at (" + x + ", " + y + ")",
+              Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF)) <= 1);
+        }
+      }
+    }
+  }
+
+  private void assertSameImage(String message, Image expected, Image actual) {
+    assertEquals(message + ": width", expected.getWidth(), actual.getWidth());
+    assertEquals(message + ": height", expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(message + " at (" + x + ", " + y + ")", expected.getRGB(x, y),
+            actual.getRGB(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests that compressed images written as PVMW read back as the compressed image, to within one
+   * level per channel, whole or tiled and in either precision.
+   *
+   * @throws IOException if a temporary file cannot be created
+   */
+  @Test
+  public void testPvmwRoundTripOfCompressedImages() throws IOException {
+    Image image = createTestImage(150, 97, 1);
+    CompressionOptions[] options = {CompressionOptions.defaults(),
+        CompressionOptions.defaults().tiles(32), CompressionOptions.defaults().singlePrecision(),
+        CompressionOptions.defaults().tiles(64).singlePrecision()};
+    for (CompressionOptions option : options) {
+      for (int percentage : new int[]{0, 50, 90}) {
+        Image compressed = processor.compress(image, percentage, option.keepCoefficients());
+        File file = tempFile(".pvmw");
+        assertTrue(ImageUtil.writeImage(compressed, file.getPath()));
+        Image read = ImageUtil.readImage(file.getPath());
+        assertNotNull(read);
+        assertWithinOneLevel("tiles " + option.getTileSize() + ", single "
+            + option.isSinglePrecision() + ", " + percentage + "%", compressed, read);
+      }
+    }
+  }
+
+  /**
+   * Tests that a PVMW file stores only the coefficients compression keeps, so that it shrinks as
+   * the compression percentage grows.
+   *
+   * @throws IOException if a temporary file cannot be created
+   */
+  @Test
+  public void testPvmwSizeFollowsCompressionPercentage() throws IOException {
+    Image image = createTestImage(256, 256, 2);
+    long previousSize = Long.MAX_VALUE;
+    long previousCount = Long.MAX_VALUE;
+    for (int percentage : new int[]{0, 50, 90, 99}) {
+      Image compressed = processor.compress(image, percentage,
+          CompressionOptions.defaults().keepCoefficients());
+      long count = WaveletCoefficients.of(compressed).getCoefficientCount();
+      assertTrue(percentage + "%: " + count + " coefficients", count < previousCount);
+
+      File file = tempFile(".pvmw");
+      assertTrue(ImageUtil.writeImage(compressed, file.getPath()));
+      long size = Files.size(file.toPath());
+      assertTrue(percentage + "%: " + size + " bytes", size < previousSize);
+      previousSize = size;
+      previousCount = count;
+    }
+  }
+
+  /**
+   * Tests that an image that was not compressed, was compressed without keeping its coefficients,
+   * or was changed after compression, is written losslessly.
+   *
+   * @throws IOException if a temporary file cannot be created
+   */
+  @Test
+  public void testPvmwStoresOtherImagesLosslessly() throws IOException {
+    Image image = createTestImage(33, 70, 3);
+    File file = tempFile(".pvmw");
+    assertTrue(ImageUtil.writeImage(image, file.getPath()));
+    assertSameImage("uncompressed", image, ImageUtil.readImage(file.getPath()));
+
+    Image plain = processor.compress(image, 80);
+    assertTrue(ImageUtil.writeImage(plain, file.getPath()));
+    assertSameImage("compressed without coefficients", plain,
+        ImageUtil.readImage(file.getPath()));
+
+    Image compressed = processor.compress(image, 80,
+        CompressionOptions.defaults().keepCoefficients());
+    compressed.setRGB(5, 5, 0x123456);
+    assertTrue(ImageUtil.writeImage(compressed, file.getPath()));
+    assertSameImage("changed after compression", compressed,
+        ImageUtil.readImage(file.getPath()));
+  }
+
+  /**
+   * Tests that an image read from a PVMW file is written back with the same coefficients rather
+   * than transformed again.
+   *
+   * @throws IOException if a temporary file cannot be created
+   */
+  @Test
+  public void testPvmwRewritesReadImageUnchanged() throws IOException {
+    Image compressed = processor.compress(createTestImage(64, 40, 4), 75,
+        CompressionOptions.defaults().tiles(16).keepCoefficients());
+    File first = tempFile(".pvmw");
+    File second = tempFile(".pvmw");
+    assertTrue(ImageUtil.writeImage(compressed, first.getPath()));
+    assertTrue(ImageUtil.writeImage(ImageUtil.readImage(first.getPath()), second.getPath()));
+    assertTrue(java.util.Arrays.equals(Files.readAllBytes(first.toPath()),
+        Files.readAllBytes(second.toPath())));
+  }
+
+  /**
+   * Tests that files that are not valid PVMW files are rejected.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testPvmwRejectsInvalidFiles() throws IOException {
+    File file = tempFile(".pvmw");
+    Files.write(file.toPath(), "PVMW\2not a wavelet file".getBytes("UTF-8"));
+    assertNull(ImageUtil.readImage(file.getPath()));
+
+    Image compressed = processor.compress(createTestImage(20, 20, 5), 50);
+    assertTrue(ImageUtil.writeImage(compressed, file.getPath()));
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Files.write(file.toPath(), java.util.Arrays.copyOf(bytes, bytes.length / 2));
+    assertNull(ImageUtil.readImage(file.getPath()));
+  }
+
+  /**
+   * Tests that a PVMW file is rejected before any allocation when a coefficient count exceeds the
+   * plane of its tile, or a number in it does not fit in 32 bits.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testPvmwRejectsInvalidCounts() throws IOException {
+    File file = tempFile(".pvmw");
+    // A 4x4 image is one 4x4 plane, so a list holds at most 16 coefficients
+    byte[] body = new byte[37];
+    body[0] = 16;
+    writePvmw(file, body);
+    assertNotNull(ImageUtil.readImage(file.getPath()));
+
+    body[0] = 17;
+    writePvmw(file, body);
+    assertNull(ImageUtil.readImage(file.getPath()));
+    writePvmw(file, new byte[] {(byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    assertNull(ImageUtil.readImage(file.getPath()));
+
+    // 16 plus a bit above the 32nd, which would wrap to a valid count of 16
+    byte[] overflow = new byte[41];
+    System.arraycopy(new byte[] {(byte) 0x90, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10}, 0,
+        overflow, 0, 5);
+    writePvmw(file, overflow);
+    assertNull(ImageUtil.readImage(file.getPath()));
+  }
+
+  private void writePvmw(File file, byte[] body) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeBytes("PVMW");
+    out.writeByte(1);
+    out.writeByte(0);
+    out.writeInt(4);
+    out.writeInt(4);
+    out.writeInt(0);
+    try (DeflaterOutputStream deflated = new DeflaterOutputStream(out)) {
+      deflated.write(body);
+    }
+    Files.write(file.toPath(), bytes.toByteArray());
+  }
+
+  /**
+   * Tests that a size target measured with the PVMW encoder gives a file within the budget, of
+   * exactly the measured size.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testPvmwSizeTarget() throws IOException {
+    Image image = createTestImage(96, 64, 6);
+    long lossless = PVMWHandler.encodedSize(WaveletCoefficients.of(image));
+    CompressionResult result = processor.compress(image,
+        CompressionTarget.maximumSize(lossless / 4, PVMWHandler::encodedSize),
+        CompressionOptions.defaults());
+    assertTrue(result.isTargetMet());
+    assertTrue(result.getSize() <= lossless / 4);
+
+    File file = tempFile(".pvmw");
+    assertTrue(ImageUtil.writeImage(result.getImage(), file.getPath()));
+    assertEquals(result.getSize(), file.length());
+  }
+
+  private Image readPpm(String contents) throws IOException {
+    File file = tempFile(".ppm");
+    Files.write(file.toPath(), contents.getBytes("US-ASCII"));
+    return ImageUtil.readImage(file.getPath());
+  }
+
+  /**
+   * Tests that images written as PPM are read back unchanged.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testPpmRoundTrip() throws IOException {
+    Image image = createTestImage(37, 23, 7);
+    File file = tempFile(".ppm");
+    assertTrue(ImageUtil.writeImage(image, file.getPath()));
+    assertSameImage("round trip", image, ImageUtil.readImage(file.getPath()));
+  }
+
+  /**
+   * Tests that plain PPM files are read whatever their layout: several values to a line, any
+   * whitespace, no comment line, and comments between any two values.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testPpmReadsAnyWhitespaceLayout() throws IOException {
+    Image expected = new Image(2, 2);
+    expected.setRGB(0, 0, 255, 0, 0);
+    expected.setRGB(1, 0, 0, 255, 0);
+    expected.setRGB(0, 1, 0, 0, 255);
+    expected.setRGB(1, 1, 10, 20, 30);
+
+    assertSameImage("one row per line", expected,
+        readPpm("P3\n2 2\n255\n255 0 0  0 255 0\n0 0 255  10 20 30\n"));
+    assertSameImage("comments and mixed whitespace", expected,
+        readPpm("P3# magic\n#size\n2\t2 # width and height\r\n255\r\n255 0\f0 0#c\n255\n0\n"
+            + "\u000b0 0 255 10 20 30"));
+    assertSameImage("single line", expected,
+        readPpm("P3 2 2 255 255 0 0 0 255 0 0 0 255 10 20 30\n"));
+  }
+
+  /**
+   * Tests that channel values are scaled from the maximum color value of the file to 255.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testPpmScalesMaxColorValue() throws IOException {
+    Image image = readPpm("P3\n2 1\n15\n0 15 7\n8 1 14\n");
+    assertEquals(0x00FF77, image.getRGB(0, 0));
+    assertEquals((136 << 16) | (17 << 8) | 238, image.getRGB(1, 0));
+
+    image = readPpm("P3\n1 1\n65535\n65535 32768 257\n");
+    assertEquals((255 << 16) | (128 << 8) | 1, image.getRGB(0, 0));
+  }
+
+  /**
+   * Tests that malformed plain PPM files are rejected.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testPpmRejectsInvalidFiles() throws IOException {
+    assertNull(readPpm("P7\n1 1\n255\n0 0 0\n"));
+    assertNull(readPpm("P31 1\n255\n0 0 0\n"));
+    assertNull(readPpm("P3\n2 1\n255\n0 0 0 1 1\n"));
+    assertNull(readPpm("P3\n1 1\n255\n0 256 0\n"));
+    assertNull(readPpm("P3\n1 1\n0\n0 0 0\n"));
+    assertNull(readPpm("P3\n1 1\n255\n0 -1 0\n"));
+    assertNull(readPpm("P3\n1 1\n255\n0 1x 0\n"));
+    assertNull(readPpm("P3\n1 99999999999\n255\n"));
+  }
+
+  private Image readBytes(String extension, String header, int... raster) throws IOException {
+    byte[] head = header.getBytes("US-ASCII");
+    byte[] bytes = java.util.Arrays.copyOf(head, head.length + raster.length);
+    for (int i = 0; i < raster.length; i++) {
+      bytes[head.length + i] = (byte) raster[i];
+    }
+    File file = tempFile(extension);
+    Files.write(file.toPath(), bytes);
+    return ImageUtil.readImage(file.getPath());
+  }
+
+  private Image createGreyImage(int width, int height, long seed) {
+    Random random = new Random(seed);
+    Image image = new Image(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int grey = random.nextInt(256);
+        image.setRGB(x, y, grey, grey, grey);
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Tests that .pnm files are written as binary PPM with one byte per sample and read back
+   * unchanged, including images whose raster spans several buffers.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testBinaryPpmRoundTrip() throws IOException {
+    Image image = createTestImage(300, 250, 8);
+    File file = tempFile(".pnm");
+    assertTrue(ImageUtil.writeImage(image, file.getPath()));
+    String header = "P6\n# Created by Image Processor\n300 250\n255\n";
+    assertEquals(header.length() + 3 * 300 * 250, file.length());
+    assertEquals(header, new String(Files.readAllBytes(file.toPath()), 0, header.length(),
+        "US-ASCII"));
+    assertSameImage("P6 round trip", image, ImageUtil.readImage(file.getPath()));
+  }
+
+  /**
+   * Tests that the binary option writes .ppm files as binary PPM, that .ppm files are plain PPM
+   * without it, and that formats without a binary variant ignore it.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testBinaryOptionWritesPpmAsP6() throws IOException {
+    Image image = createTestImage(40, 30, 9);
+    File binary = tempFile(".ppm");
+    assertTrue(ImageUtil.writeImage(image, binary.getPath(), true));
+    String header = "P6\n# Created by Image Processor\n40 30\n255\n";
+    assertEquals(header.length() + 3 * 40 * 30, binary.length());
+    assertSameImage("binary .ppm", image, ImageUtil.readImage(binary.getPath()));
+
+    File plain = tempFile(".ppm");
+    assertTrue(ImageUtil.writeImage(image, plain.getPath(), false));
+    assertEquals("P3", new String(Files.readAllBytes(plain.toPath()), 0, 2, "US-ASCII"));
+
+    File png = tempFile(".png");
+    assertTrue(ImageUtil.writeImage(image, png.getPath(), true));
+    assertSameImage("binary .png", image, ImageUtil.readImage(png.getPath()));
+  }
+
+  /**
+   * Tests that .pgm files are written as binary PGM, keeping grey images unchanged and storing
+   * the luma of color pixels.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testPgmRoundTrip() throws IOException {
+    Image grey = createGreyImage(41, 17, 9);
+    File file = tempFile(".pgm");
+    assertTrue(ImageUtil.writeImage(grey, file.getPath()));
+    assertEquals("P5\n# Created by Image Processor\n41 17\n255\n".length() + 41 * 17,
+        file.length());
+    assertSameImage("P5 round trip", grey, ImageUtil.readImage(file.getPath()));
+
+    Image color = new Image(2, 1);
+    color.setRGB(0, 0, 255, 0, 0);
+    color.setRGB(1, 0, 10, 200, 30);
+    assertTrue(ImageUtil.writeImage(color, file.getPath()));
+    Image read = ImageUtil.readImage(file.getPath());
+    assertEquals(54 * 0x010101, read.getRGB(0, 0));
+    assertEquals(147 * 0x010101, read.getRGB(1, 0));
+  }
+
+  /**
+   * Tests that binary files with a maximum color value above 255 use two bytes per sample and
+   * keep every 8-bit value through a round trip.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testSixteenBitRoundTrip() throws IOException {
+    Image image = createTestImage(33, 20, 10);
+    File file = tempFile(".ppm");
+    PPMHandler.writeBinaryPPM(image, file.getPath(), 65535);
+    assertEquals("P6\n# Created by Image Processor\n33 20\n65535\n".length() + 6 * 33 * 20,
+        file.length());
+    assertSameImage("16-bit P6", image, ImageUtil.readImage(file.getPath()));
+
+    Image grey = createGreyImage(33, 20, 11);
+    PPMHandler.writePGM(grey, file.getPath(), 1000);
+    assertSameImage("P5 with maximum 1000", grey, ImageUtil.readImage(file.getPath()));
+  }
+
+  /**
+   * Tests that binary files written elsewhere are read by their magic number and scaled from
+   * their maximum color value, whatever the extension.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testReadsBinaryNetpbmFiles() throws IOException {
+    Image color = readBytes(".ppm", "P6 2 1 255\n", 1, 2, 3, 250, 251, 252);
+    assertEquals(0x010203, color.getRGB(0, 0));
+    assertEquals(0xFAFBFC, color.getRGB(1, 0));
+
+    Image grey = readBytes(".pnm", "P5\n# grey\n2 1\n1000\n", 0x03, 0xE8, 0x01, 0xF4);
+    assertEquals(0xFFFFFF, grey.getRGB(0, 0));
+    assertEquals(128 * 0x010101, grey.getRGB(1, 0));
+
+    Image scaled = readBytes(".pgm", "P5 1 1 15\n", 8);
+    assertEquals(136 * 0x010101, scaled.getRGB(0, 0));
+  }
+
+  /**
+   * Tests that truncated binary files and samples above the maximum color value are rejected.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testBinaryNetpbmRejectsInvalidFiles() throws IOException {
+    assertNull(readBytes(".pnm", "P6\n2 1\n255\n", 1, 2, 3, 4, 5));
+    assertNull(readBytes(".pgm", "P5\n1 1\n1000\n", 0x03, 0xE9));
+    assertNull(readBytes(".pgm", "P5\n1 1\n15\n", 16));
+    assertNull(readBytes(".pgm", "P4\n1 1\n", 0));
+  }
+
+  /**
+   * Tests that mapped binary files give the same pixels as reading them, for 8-bit color and
+   * 16-bit grey rasters, and that plain files are read in full instead.
+   *
+   * @throws IOException if a file cannot be written
+   */
+  @Test
+  public void testMappedReadMatchesRead() throws IOException {
+    Image image = createTestImage(120, 90, 12);
+    File color = tempFile(".pnm");
+    assertTrue(ImageUtil.writeImage(image, color.getPath()));
+    assertSameImage("mapped P6", image, ImageUtil.readImage(color.getPath(), true));
+
+    Image grey = createGreyImage(70, 40, 13);
+    File wide = tempFile(".pgm");
+    PPMHandler.writePGM(grey, wide.getPath(), 4095);
+    assertSameImage("mapped 16-bit P5", grey, ImageUtil.readImage(wide.getPath(), true));
+
+    File plain = tempFile(".ppm");
+    assertTrue(ImageUtil.writeImage(image, plain.getPath()));
+    assertSameImage("plain", image, ImageUtil.readImage(plain.getPath(), true));
+  }
+
+  /**
+   * Tests that changing a mapped image leaves its file unchanged, and that processing and saving
+   * it works as for an image read in full.
+   *
+   * @throws IOException if a file cannot be written
+   */
+  @Test
+  public void testMappedImageIsCopiedOnWrite() throws IOException {
+    Image image = createTestImage(64, 48, 14);
+    File file = tempFile(".pnm");
+    assertTrue(ImageUtil.writeImage(image, file.getPath()));
+    byte[] bytes = Files.readAllBytes(file.toPath());
+
+    Image mapped = ImageUtil.readImage(file.getPath(), true);
+    Image brightened = processor.brightness(mapped, 40);
+    assertSameImage("brighten", processor.brightness(image, 40), brightened);
+    mapped.setRGB(0, 0, 0xFFFFFF);
+    mapped.setRow(1, new int[64]);
+    assertEquals(0xFFFFFF, mapped.getRGB(0, 0));
+    assertEquals(0, mapped.getRGB(5, 1));
+    assertEquals(image.getRGB(5, 2), mapped.getRGB(5, 2));
+    assertTrue(java.util.Arrays.equals(bytes, Files.readAllBytes(file.toPath())));
+
+    File output = tempFile(".pnm");
+    assertTrue(ImageUtil.writeImage(brightened, output.getPath()));
+    assertSameImage("saved", brightened, ImageUtil.readImage(output.getPath()));
+  }
+
+  /**
+   * Tests that a binary file too short for its raster cannot be mapped.
+   *
+   * @throws IOException if a temporary file cannot be written
+   */
+  @Test
+  public void testMappedReadRejectsTruncatedFiles() throws IOException {
+    File file = tempFile(".pnm");
+    Files.write(file.toPath(), "P6\n2 1\n255\n\1\2\3\4\5".getBytes("US-ASCII"));
+    assertNull(ImageUtil.readImage(file.getPath(), true));
+  }
+
+  /**
+   * Tests that converting a BufferedImage keeps the RGB value of every pixel for the layouts read
+   * straight from the raster, for a subimage whose raster starts inside the data array, and for
+   * layouts converted through getRGB.
+   */
+  @Test
+  public void testBufferedImageConversion() {
+    Random random = new Random(15);
+    int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_BGR,
+        BufferedImage.TYPE_BYTE_GRAY};
+    for (int type : types) {
+      BufferedImage bufferedImage = new BufferedImage(23, 17, type);
+      for (int y = 0; y < 17; y++) {
+        for (int x = 0; x < 23; x++) {
+          bufferedImage.setRGB(x, y, random.nextInt());
+        }
+      }
+      for (BufferedImage source : new BufferedImage[] {bufferedImage,
+          bufferedImage.getSubimage(3, 5, 11, 9)}) {
+        Image image = OtherFormatHandler.toImage(source);
+        assertEquals(source.getWidth(), image.getWidth());
+        assertEquals(source.getHeight(), image.getHeight());
+        for (int y = 0; y < source.getHeight(); y++) {
+          for (int x = 0; x < source.getWidth(); x++) {
+            assertEquals("type " + type + " at (" + x + ", " + y + ")",
+                source.getRGB(x, y) & 0xFFFFFF, image.getRGB(x, y));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that images written as PNG are read back unchanged, and that the opaque BufferedImage
+   * used for display holds the same pixels.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Test
+  public void testPngRoundTrip() throws IOException {
+    Image image = createTestImage(57, 31, 16);
+    File file = tempFile(".png");
+    assertTrue(ImageUtil.writeImage(image, file.getPath()));
+    assertSameImage("PNG round trip", image, ImageUtil.readImage(file.getPath()));
+
+    BufferedImage display = image.toBufferedImage();
+    for (int y = 0; y < 31; y++) {
+      for (int x = 0; x < 57; x++) {
+        assertEquals(0xFF000000 | image.getRGB(x, y), display.getRGB(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests that several threads can write and read PNG files through the shared codec at once,
+   * each getting back its own image.
+   *
+   * @throws Exception if a file cannot be written or a thread fails
+   */
+  @Test
+  public void testPngFromSeveralThreads() throws Exception {
+    int threads = 4;
+    Image[] images = new Image[threads];
+    File[] files = new File[threads];
+    for (int i = 0; i < threads; i++) {
+      images[i] = createTestImage(45 + i, 27, 30 + i);
+      files[i] = tempFile(".png");
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Image>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        int index = i;
+        results.add(executor.submit(() -> {
+          Image read = null;
+          for (int round = 0; round < 5; round++) {
+            assertTrue(ImageUtil.writeImage(images[index], files[index].getPath()));
+            read = ImageUtil.readImage(files[index].getPath());
+          }
+          return read;
+        }));
+      }
+      for (int i = 0; i < threads; i++) {
+        assertSameImage("PNG from thread " + i, images[i], results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Tests that files are read in the format their contents name, whatever their extension, and
+   * that files are only read by extension when their contents are not recognized.
+   *
+   * @throws IOException if a file cannot be written
+   */
+  @Test
+  public void testReadsFormatFromContents() throws IOException {
+    Image image = createTestImage(40, 30, 17);
+    String[] extensions = {".png", ".pnm", ".pgm", ".ppm", ".bmp", ".pvmw"};
+    for (String extension : extensions) {
+      File file = tempFile(extension);
+      assertTrue(ImageUtil.writeImage(image, file.getPath()));
+      Image expected = ImageUtil.readImage(file.getPath());
+      assertNotNull(extension, expected);
+      for (String name : new String[] {".jpg", ".ppm", ".dat", ""}) {
+        File renamed = tempFile(name);
+        Files.copy(file.toPath(), renamed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertSameImage(extension + " named " + name, expected,
+            ImageUtil.readImage(renamed.getPath()));
+      }
+    }
+
+    File plain = tempFile(".pvmw");
+    Files.write(plain.toPath(), "P3\n# not a wavelet file\n1 1\n255\n0\n0\n0\n".getBytes("UTF-8"));
+    assertNotNull(ImageUtil.readImage(plain.getPath()));
+    File unknown = tempFile(".dat");
+    Files.write(unknown.toPath(), "not an image".getBytes("UTF-8"));
+    assertNull(ImageUtil.readImage(unknown.getPath()));
+    assertFalse(ImageUtil.writeImage(image, unknown.getPath()));
+  }
+
+  /**
+   * Tests that BMP and GIF files, which ImageIO supports, can be written and read back.
+   *
+   * @throws IOException if a file cannot be written
+   */
+  @Test
+  public void testBmpAndGifRoundTrip() throws IOException {
+    Image image = createTestImage(33, 21, 18);
+    File bmp = tempFile(".bmp");
+    assertTrue(ImageUtil.writeImage(image, bmp.getPath()));
+    assertSameImage("BMP", image, ImageUtil.readImage(bmp.getPath()));
+
+    // GIF stores a palette, so use an image with few colors
+    Image flat = new Image(33, 21);
+    for (int y = 0; y < 21; y++) {
+      for (int x = 0; x < 33; x++) {
+        flat.setRGB(x, y, (x / 8) * 60, (y / 7) * 100, 200);
+      }
+    }
+    File gif = tempFile(".gif");
+    for (int i = 0; i < 2; i++) {
+      assertTrue(ImageUtil.writeImage(flat, gif.getPath()));
+      assertSameImage("GIF", flat, ImageUtil.readImage(gif.getPath()));
+    }
+  }
+
+  /**
+   * Tests that a registered codec is chosen by its magic number and its extension, before the
+   * codecs registered earlier.
+   */
+  @Test
+  public void testCodecRegistry() {
+    CodecRegistry registry = CodecRegistry.standard();
+    byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    assertEquals("PNG", registry.forHeader(png, png.length).getName());
+    assertNull(registry.forHeader(png, 4));
+    assertEquals("P6", registry.forHeader("P6\n".getBytes(), 3).getName());
+    assertNull(registry.forHeader("P61".getBytes(), 3));
+    assertEquals("JPEG", registry.forExtension("JPG").getName());
+    assertNull(registry.forExtension("xyz"));
+    assertEquals("gz", CodecRegistry.extensionOf("archive.tar.gz"));
+    assertEquals("", CodecRegistry.extensionOf("dir.d/name"));
+
+    ImageCodec codec = new ImageCodec() {
+      @Override
+      public String getName() {
+        return "Test";
+      }
+
+      @Override
+      public java.util.List<String> getExtensions() {
+        return java.util.Arrays.asList("xyz", "png");
+      }
+
+      @Override
+      public boolean canRead(byte[] header, int length) {
+        return length >= 2 && header[0] == 'X' && header[1] == 'Y';
+      }
+
+      @Override
+      public Image read(String filePath) {
+        return new Image(1, 1);
+      }
+
+      @Override
+      public boolean write(Image image, String filePath) {
+        return true;
+      }
+    };
+    registry.register(codec);
+    assertEquals(codec, registry.forHeader("XYZ".getBytes(), 3));
+    assertEquals(codec, registry.forExtension("xyz"));
+    assertEquals(codec, registry.forExtension("png"));
+    assertEquals("PNG", registry.forHeader(png, png.length).getName());
+  }
+}
@@ -0,0 +1,86 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * This class is a command-line benchmark comparing wavelet compression in double and in single
+ * precision, on the whole image and in tiles. For each mode it prints the time per compression,
+ * the size of the coefficient buffer of one region, and the largest and mean deviation of the
+ * result from whole-image double precision.
+ *
+ * <p>Usage: java model.CompressionBenchmark [width] [height] [percentage] [iterations]
+ */
+public class CompressionBenchmark {
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the optional image width and height, percentage, and number of timed iterations
+   */
+  public static void main(String[] args) {
+    int width = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int height = args.length > 1 ? Integer.parseInt(args[1]) : 1500;
+    int percentage = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+    int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    // A smooth image with noise, closer to a photograph than pure noise.
+    Image image = new Image(width, height);
+    Random random = new Random(42);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int red = Math.min(255, x * 255 / width + random.nextInt(8));
+        int green = Math.min(255, y * 255 / height + random.nextInt(8));
+        int blue = Math.min(255, (x + y) * 255 / (width + height) + random.nextInt(8));
+        image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+      }
+    }
+
+    ImageProcessor processor = new ImageProcessorImpl();
+    CompressionOptions whole = CompressionOptions.defaults();
+    Image reference = processor.compress(image, percentage, whole);
+    run("double", processor, image, percentage, whole, reference, iterations);
+    run("float", processor, image, percentage, whole.singlePrecision(), reference, iterations);
+    run("double tiles=256", processor, image, percentage, whole.tiles(256), reference,
+        iterations);
+    run("float tiles=256", processor, image, percentage, whole.tiles(256).singlePrecision(),
+        reference, iterations);
+  }
+
+  private static void run(String name, ImageProcessor processor, Image image, int percentage,
+      CompressionOptions options, Image reference, int iterations) {
+    Image result = processor.compress(image, percentage, options);
+    int maxDeviation = 0;
+    long totalDeviation = 0;
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int expected = reference.getRGB(x, y);
+        int actual = result.getRGB(x, y);
+        for (int shift = 0; shift < 24; shift += 8) {
+          int deviation = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+          maxDeviation = Math.max(maxDeviation, deviation);
+          totalDeviation += deviation;
+        }
+      }
+    }
+
+    for (int i = 0; i < 2; i++) {
+      processor.compress(image, percentage, options);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      processor.compress(image, percentage, options);
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / iterations;
+
+    int regionWidth = options.getTileSize() == 0 ? image.getWidth()
+        : Math.min(options.getTileSize(), image.getWidth());
+    int regionHeight = options.getTileSize() == 0 ? image.getHeight()
+        : Math.min(options.getTileSize(), image.getHeight());
+    long coefficients = 3L * WaveletCompressor.nextPowerOfTwo(regionWidth)
+        * WaveletCompressor.nextPowerOfTwo(regionHeight);
+    long bytes = coefficients * (options.isSinglePrecision() ? Float.BYTES : Double.BYTES);
+    System.out.printf("%-18s %9.1f ms  buffer %8.1f MB  max deviation %3d  mean %.4f%n", name,
+        millis, bytes / 1e6, maxDeviation,
+        totalDeviation / (3.0 * image.getWidth() * image.getHeight()));
+  }
+}
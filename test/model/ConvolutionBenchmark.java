@@ -0,0 +1,86 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * This class is a command-line benchmark comparing the convolution chosen by
+ * {@link Convolution#of} with the plain 2D loop in double precision, for the built-in blur and
+ * sharpen kernels. Before timing, it checks that both produce identical images.
+ *
+ * <p>Usage: java model.ConvolutionBenchmark [size] [iterations]
+ */
+public class ConvolutionBenchmark {
+
+  private static final double[][] BLUR = {
+      {1 / 16.0, 1 / 8.0, 1 / 16.0},
+      {1 / 8.0, 1 / 4.0, 1 / 8.0},
+      {1 / 16.0, 1 / 8.0, 1 / 16.0}
+  };
+
+  private static final double[][] SHARPEN = {
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}
+  };
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the optional image size and number of timed iterations
+   */
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    Image image = new Image(size, size);
+    Random random = new Random(42);
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        image.setRGB(x, y, random.nextInt(1 << 24));
+      }
+    }
+
+    run("blur", BLUR, image, iterations);
+    run("sharpen", SHARPEN, image, iterations);
+  }
+
+  private static void run(String name, double[][] kernel, Image image, int iterations) {
+    Convolution fast = Convolution.of(kernel);
+    Convolution reference = Convolution.inDoublePrecision(kernel);
+    Image expected = filter(reference, image);
+    Image actual = filter(fast, image);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+          throw new IllegalStateException(name + " differs from the double path at (" + x + ", "
+              + y + ")");
+        }
+      }
+    }
+
+    double referenceMillis = time(reference, image, iterations);
+    double fastMillis = time(fast, image, iterations);
+    System.out.printf("%-8s %-20s %8.2f ms  double 2D %8.2f ms  speedup %.2fx%n", name,
+        fast.getClass().getSimpleName(), fastMillis, referenceMillis,
+        referenceMillis / fastMillis);
+  }
+
+  private static double time(Convolution convolution, Image image, int iterations) {
+    for (int i = 0; i < 3; i++) {
+      filter(convolution, image);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      filter(convolution, image);
+    }
+    return (System.nanoTime() - start) / 1e6 / iterations;
+  }
+
+  private static Image filter(Convolution convolution, Image image) {
+    Image result = new Image(image.getWidth(), image.getHeight());
+    convolution.apply(image, result, 0, image.getHeight());
+    return result;
+  }
+}
@@ -0,0 +1,142 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * This class is a command-line benchmark comparing the point operation loops in {@link PointOps}
+ * with the same formulas evaluated pixel by pixel on packed values. Before timing
+ * each operation, it checks that both produce identical rows.
+ *
+ * <p>Usage: java model.PointOpsBenchmark [size] [iterations]
+ */
+public class PointOpsBenchmark {
+
+  private static final double[][] SEPIA = {
+      {0.393, 0.769, 0.189},
+      {0.349, 0.686, 0.168},
+      {0.272, 0.534, 0.131}
+  };
+
+  /**
+   * An operation on one row of packed pixels.
+   */
+  private interface RowOp {
+
+    void apply(int[] row, int width);
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the optional image size and number of timed iterations
+   */
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    int[][] rows = new int[size][size];
+    Random random = new Random(42);
+    for (int[] row : rows) {
+      for (int x = 0; x < size; x++) {
+        row[x] = random.nextInt(1 << 24);
+      }
+    }
+    PointOps ops = new PointOps(size);
+
+    run("brighten", rows, iterations, (row, width) -> PointOps.brightness(row, width, 40),
+        (row, width) -> {
+          for (int x = 0; x < width; x++) {
+            int rgb = row[x];
+            row[x] = (clamp(((rgb >> 16) & 0xFF) + 40) << 16)
+                | (clamp(((rgb >> 8) & 0xFF) + 40) << 8) | clamp((rgb & 0xFF) + 40);
+          }
+        });
+    run("darken", rows, iterations, (row, width) -> PointOps.brightness(row, width, -40),
+        (row, width) -> {
+          for (int x = 0; x < width; x++) {
+            int rgb = row[x];
+            row[x] = (clamp(((rgb >> 16) & 0xFF) - 40) << 16)
+                | (clamp(((rgb >> 8) & 0xFF) - 40) << 8) | clamp((rgb & 0xFF) - 40);
+          }
+        });
+    run("sepia", rows, iterations, (row, width) -> PointOps.transform(row, width, SEPIA),
+        (row, width) -> {
+          for (int x = 0; x < width; x++) {
+            int rgb = row[x];
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            int newRed = clamp((int) (SEPIA[0][0] * r + SEPIA[0][1] * g + SEPIA[0][2] * b));
+            int newGreen = clamp((int) (SEPIA[1][0] * r + SEPIA[1][1] * g + SEPIA[1][2] * b));
+            int newBlue = clamp((int) (SEPIA[2][0] * r + SEPIA[2][1] * g + SEPIA[2][2] * b));
+            row[x] = (newRed << 16) | (newGreen << 8) | newBlue;
+          }
+        });
+    run("value", rows, iterations, ops::value, (row, width) -> {
+      for (int x = 0; x < width; x++) {
+        int rgb = row[x];
+        row[x] = grey(Math.max((rgb >> 16) & 0xFF, Math.max((rgb >> 8) & 0xFF, rgb & 0xFF)));
+      }
+    });
+    run("intensity", rows, iterations, PointOps::intensity, (row, width) -> {
+      for (int x = 0; x < width; x++) {
+        int rgb = row[x];
+        row[x] = grey((((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3);
+      }
+    });
+    run("luma", rows, iterations, PointOps::luma, (row, width) -> {
+      for (int x = 0; x < width; x++) {
+        int rgb = row[x];
+        row[x] = grey(clamp((int) (0.2126 * ((rgb >> 16) & 0xFF) + 0.7152 * ((rgb >> 8) & 0xFF)
+            + 0.0722 * (rgb & 0xFF))));
+      }
+    });
+  }
+
+  private static void run(String name, int[][] rows, int iterations, RowOp optimized,
+      RowOp perPixel) {
+    int width = rows[0].length;
+    int[] expected = new int[width];
+    int[] actual = new int[width];
+    for (int[] row : rows) {
+      System.arraycopy(row, 0, expected, 0, width);
+      System.arraycopy(row, 0, actual, 0, width);
+      perPixel.apply(expected, width);
+      optimized.apply(actual, width);
+      for (int x = 0; x < width; x++) {
+        if (expected[x] != actual[x]) {
+          throw new IllegalStateException(name + " differs from the per-pixel loop at x = " + x);
+        }
+      }
+    }
+
+    double perPixelMillis = time(rows, iterations, perPixel);
+    double optimizedMillis = time(rows, iterations, optimized);
+    System.out.printf("%-10s PointOps %8.2f ms  per-pixel %8.2f ms  speedup %.2fx%n", name,
+        optimizedMillis, perPixelMillis, perPixelMillis / optimizedMillis);
+  }
+
+  private static double time(int[][] rows, int iterations, RowOp op) {
+    int width = rows[0].length;
+    int[] buffer = new int[width];
+    long start = 0;
+    for (int i = -3; i < iterations; i++) {
+      if (i == 0) {
+        start = System.nanoTime();
+      }
+      for (int[] row : rows) {
+        System.arraycopy(row, 0, buffer, 0, width);
+        op.apply(buffer, width);
+      }
+    }
+    return (System.nanoTime() - start) / 1e6 / iterations;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  private static int grey(int value) {
+    return (value << 16) | (value << 8) | value;
+  }
+}